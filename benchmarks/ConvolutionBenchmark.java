@@ -0,0 +1,438 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Benchmark harness for every convolution path, in the style of JMH but
+ * without external dependencies: each case gets timed warm-up iterations
+ * before its measured ones, and reports mean and standard deviation of
+ * throughput in megapixels per second plus bytes allocated per operation
+ * and GC activity. Results can be written as CSV and compared against an
+ * earlier CSV to flag regressions.
+ *
+ * The matrix is images x kernels x paths x thread counts:
+ *   --images    sample file names or "all"                       (default s1,s2,s3)
+ *   --kernels   catalog filter names, gaussian:K (separable),
+ *               sharp:K (non-separable) or box:K (uniform), or "all"
+ *               for the five built-ins plus the three families at
+ *               K = 3..31                                          (default built-ins)
+ *   --paths     auto, direct, fixed, separable, fft, table, vector (default all seven)
+ *   --threads   thread counts, 1 runs on the calling thread        (default 1 and all cores)
+ *   --warmup N / --iterations N / --time MS                        (default 3 / 5 / 500)
+ *   --csv FILE       write results
+ *   --baseline FILE  compare against earlier results
+ *   --threshold PCT  slowdown reported as a regression           (default 10)
+ *
+ * Paths other than auto convolve packed pixel arrays directly and exclude
+ * unpacking and packing; auto is a full engine call (Sequential for one
+ * thread, Parallel otherwise) and includes them. The vector path only runs
+ * when the JVM has --add-modules jdk.incubator.vector and src-vector compiled.
+ *
+ * Exits with status 1 when a regression against the baseline is found.
+ */
+public class ConvolutionBenchmark {
+
+    private static final String[] PATHS = {"auto", "direct", "fixed", "separable", "fft", "table", "vector"};
+
+    private final int warmupIterations;
+    private final int measureIterations;
+    private final long iterationNanos;
+
+    // Live thread ids are re-read per iteration so pool workers started meanwhile are counted
+    private final com.sun.management.ThreadMXBean threads =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    /**
+     * Creates a harness.
+     *
+     * @param warmupIterations  Unmeasured iterations run before each case.
+     * @param measureIterations Measured iterations per case.
+     * @param iterationMillis   Minimum duration of one iteration; operations repeat until it is reached.
+     */
+    public ConvolutionBenchmark(int warmupIterations, int measureIterations, long iterationMillis) {
+        this.warmupIterations = warmupIterations;
+        this.measureIterations = measureIterations;
+        this.iterationNanos = iterationMillis * 1_000_000;
+    }
+
+    /**
+     * Measures one case.
+     *
+     * @param op     The operation to time, or null if the path does not apply.
+     * @param pixels Pixels processed by one operation.
+     * @return The measurement, or null if op is null.
+     */
+    public Measurement measure(Runnable op, long pixels) {
+        if (op == null) {
+            return null;
+        }
+        for (int i = 0; i < warmupIterations; i++) {
+            runIteration(op);
+        }
+
+        double[] mpps = new double[measureIterations];
+        long ops = 0, allocated = 0, gcCount = 0, gcMillis = 0;
+        for (int i = 0; i < measureIterations; i++) {
+            long[] gcBefore = gcTotals();
+            long allocBefore = allocatedBytes();
+            long start = System.nanoTime();
+            long n = runIteration(op);
+            long elapsed = System.nanoTime() - start;
+            allocated += allocatedBytes() - allocBefore;
+            long[] gcAfter = gcTotals();
+
+            mpps[i] = n * pixels / (elapsed / 1e9) / 1e6;
+            ops += n;
+            gcCount += gcAfter[0] - gcBefore[0];
+            gcMillis += gcAfter[1] - gcBefore[1];
+        }
+
+        double mean = Arrays.stream(mpps).average().orElse(0);
+        double variance = Arrays.stream(mpps).map(v -> (v - mean) * (v - mean)).sum() / Math.max(1, mpps.length - 1);
+        return new Measurement(mean, Math.sqrt(variance), allocated / ops, gcCount, gcMillis);
+    }
+
+    // Repeats the operation until the iteration time is used up, at least once
+    private long runIteration(Runnable op) {
+        long start = System.nanoTime();
+        long n = 0;
+        do {
+            op.run();
+            n++;
+        } while (System.nanoTime() - start < iterationNanos);
+        return n;
+    }
+
+    // Bytes allocated so far by every live thread, including pool workers
+    private long allocatedBytes() {
+        long total = 0;
+        for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) total += bytes;
+        }
+        return total;
+    }
+
+    private static long[] gcTotals() {
+        long count = 0, millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return new long[]{count, millis};
+    }
+
+    /**
+     * Builds the operation for one path, or returns null when the path cannot
+     * run the kernel (separable on a non rank-1 kernel, fixed on a kernel
+     * without an exact fixed-point form, table on a non-uniform kernel).
+     *
+     * @param path       One of auto, direct, fixed, separable, fft, table, vector.
+     * @param image      The decoded input image (used by auto).
+     * @param src        The image's packed RGB pixels.
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param numThreads Thread count; 1 runs on the calling thread.
+     */
+    static Runnable createOperation(String path, BufferedImage image, int[] src,
+                                    float[][] kernel, float multiplier, int numThreads) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] dst = new int[width * height];
+        ForkJoinPool pool = numThreads == 1 ? null : PoolManager.getPool(numThreads);
+        TileScheduler tiles = new TileScheduler(width, height, kernel.length);
+
+        switch (path) {
+            case "auto": {
+                ConvolutionEngine engine = numThreads == 1 ? new Sequential() : new Parallel(numThreads);
+                return () -> engine.apply(image, kernel, multiplier);
+            }
+            case "direct":
+                return tileRunner(tiles, RasterConvolution.withBorder(RasterConvolution.directLoop(kernel, multiplier),
+                        kernel.length, src, dst, width, height, BorderMode.WRAP), pool);
+            case "fixed": {
+                FixedPointKernel fixed = FixedPointKernel.detect(kernel, multiplier);
+                if (fixed == null) {
+                    return null;
+                }
+                return tileRunner(tiles, RasterConvolution.withBorder(fixed, kernel.length, src, dst, width, height,
+                        BorderMode.WRAP), pool);
+            }
+            case "separable": {
+                SeparableKernel separable = SeparableKernel.detect(kernel);
+                if (separable == null) {
+                    return null;
+                }
+                return tileRunner(tiles, RasterConvolution.withBorder(separable.withMultiplier(multiplier),
+                        kernel.length, src, dst, width, height, BorderMode.WRAP), pool);
+            }
+            case "vector": {
+                WindowConvolution loop = VectorBackend.createLoop(kernel, multiplier);
+                if (loop == null) {
+                    return null;
+                }
+                return tileRunner(tiles, RasterConvolution.withBorder(loop, kernel.length, src, dst, width, height,
+                        BorderMode.WRAP), pool);
+            }
+            case "fft":
+                return () -> FFTConvolution.convolve(src, dst, width, height, kernel, multiplier, pool);
+            case "table":
+                if (!SummedAreaTable.isBox(kernel)) {
+                    return null;
+                }
+                return () -> SummedAreaTable.convolve(src, dst, width, height, kernel, multiplier, BorderMode.WRAP,
+                        pool, null);
+            default:
+                throw new IllegalArgumentException("Unknown path: " + path);
+        }
+    }
+
+    private static Runnable tileRunner(TileScheduler tiles, TileOperation op, ForkJoinPool pool) {
+        if (pool == null) {
+            return () -> tiles.runSequential(op);
+        }
+        return () -> pool.invoke(tiles.createTask(op, pool.getParallelism()));
+    }
+
+    /**
+     * Parses a kernel spec: a catalog filter name, gaussian:K or sharp:K.
+     *
+     * @return The kernel and its multiplier.
+     */
+    static Map.Entry<float[][], Float> parseKernel(String spec) {
+        int colon = spec.indexOf(':');
+        if (colon < 0) {
+            FilterCatalog.Filter filter = FilterCatalog.get(spec);
+            if (filter == null) {
+                throw new IllegalArgumentException("Unknown kernel: " + spec);
+            }
+            return Map.entry(filter.getKernel(), filter.getMultiplier(1));
+        }
+        int size = Integer.parseInt(spec.substring(colon + 1));
+        float[][] kernel = gaussian(size, Math.max(0.8f, size / 6f));
+        switch (spec.substring(0, colon)) {
+            case "gaussian":
+                return Map.entry(kernel, 1f);
+            case "sharp":
+                // A sharpening centre tap on top of the blur makes the kernel full rank
+                kernel[size / 2][size / 2] += 0.5f;
+                return Map.entry(kernel, 1f / 1.5f);
+            case "box":
+                for (float[] row : kernel) {
+                    Arrays.fill(row, 1f / (size * size));
+                }
+                return Map.entry(kernel, 1f);
+            default:
+                throw new IllegalArgumentException("Unknown kernel family: " + spec);
+        }
+    }
+
+    // Normalised Gaussian of the given size (odd) and sigma
+    private static float[][] gaussian(int size, float sigma) {
+        float[] weights = new float[size];
+        float sum = 0;
+        for (int i = 0; i < size; i++) {
+            float d = i - size / 2;
+            weights[i] = (float) Math.exp(-d * d / (2 * sigma * sigma));
+            sum += weights[i];
+        }
+        float[][] kernel = new float[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                kernel[i][j] = weights[i] * weights[j] / (sum * sum);
+            }
+        }
+        return kernel;
+    }
+
+    // Mean throughput per case key from an earlier CSV written by this harness
+    private static Map<String, Double> readBaseline(File file) throws IOException {
+        Map<String, Double> baseline = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine(); // header
+            while ((line = reader.readLine()) != null) {
+                String[] cols = line.split(",");
+                if (cols.length >= 5) {
+                    baseline.put(String.join(",", Arrays.copyOfRange(cols, 0, 4)), Double.parseDouble(cols[4]));
+                }
+            }
+        }
+        return baseline;
+    }
+
+    /**
+     * The result of one case.
+     */
+    public static class Measurement {
+        private final double meanMpps;
+        private final double stdevMpps;
+        private final long bytesPerOp;
+        private final long gcCount;
+        private final long gcMillis;
+
+        Measurement(double meanMpps, double stdevMpps, long bytesPerOp, long gcCount, long gcMillis) {
+            this.meanMpps = meanMpps;
+            this.stdevMpps = stdevMpps;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        public double getMeanMpps() {
+            return meanMpps;
+        }
+
+        public double getStdevMpps() {
+            return stdevMpps;
+        }
+
+        public long getBytesPerOp() {
+            return bytesPerOp;
+        }
+
+        public long getGcCount() {
+            return gcCount;
+        }
+
+        public long getGcMillis() {
+            return gcMillis;
+        }
+    }
+
+    private static List<String> split(String value) {
+        return Arrays.asList(value.split(","));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Expected an option, got: " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+
+        File samples = new File(options.getOrDefault("samples", "Samples"));
+        List<String> images = new ArrayList<>();
+        String imageOption = options.getOrDefault("images", "s1,s2,s3");
+        String[] sampleFiles = samples.list();
+        if (sampleFiles == null) {
+            throw new IOException("No sample directory: " + samples);
+        }
+        Arrays.sort(sampleFiles, (a, b) -> Integer.compare(
+                Integer.parseInt(a.replaceAll("^s(\\d+).*", "$1")), Integer.parseInt(b.replaceAll("^s(\\d+).*", "$1"))));
+        for (String name : sampleFiles) {
+            for (String wanted : split(imageOption)) {
+                // "s3" selects s3-1036x1036.jpg
+                if (wanted.equals("all") || name.equals(wanted) || name.startsWith(wanted + "-")) {
+                    images.add(name);
+                    break;
+                }
+            }
+        }
+
+        List<String> kernels = new ArrayList<>();
+        String kernelOption = options.getOrDefault("kernels", "builtin");
+        if (kernelOption.equals("builtin") || kernelOption.equals("all")) {
+            for (String name : FilterCatalog.getNames()) {
+                kernels.add(name.toLowerCase(Locale.ROOT).replace(' ', '-'));
+            }
+        }
+        if (kernelOption.equals("all")) {
+            for (int size = 3; size <= 31; size += 2) {
+                kernels.add("gaussian:" + size);
+                kernels.add("sharp:" + size);
+                kernels.add("box:" + size);
+            }
+        } else if (!kernelOption.equals("builtin")) {
+            kernels = split(kernelOption);
+        }
+
+        List<String> paths = split(options.getOrDefault("paths", String.join(",", PATHS)));
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (String t : split(options.getOrDefault("threads", cores == 1 ? "1" : "1," + cores))) {
+            threadCounts.add(Integer.parseInt(t));
+        }
+
+        ConvolutionBenchmark bench = new ConvolutionBenchmark(
+                Integer.parseInt(options.getOrDefault("warmup", "3")),
+                Integer.parseInt(options.getOrDefault("iterations", "5")),
+                Long.parseLong(options.getOrDefault("time", "500")));
+        Map<String, Double> baseline = options.containsKey("baseline")
+                ? readBaseline(new File(options.get("baseline"))) : Map.of();
+        double threshold = Double.parseDouble(options.getOrDefault("threshold", "10")) / 100;
+
+        PrintWriter csv = options.containsKey("csv") ? new PrintWriter(options.get("csv")) : null;
+        if (csv != null) {
+            csv.println("image,kernel,path,threads,mpps_mean,mpps_stdev,bytes_per_op,gc_count,gc_ms");
+        }
+
+        System.out.printf("%-22s %-16s %-9s %3s %10s %9s %14s %6s%n",
+                "image", "kernel", "path", "thr", "MP/s", "+-", "bytes/op", "gc");
+        int regressions = 0;
+        try {
+            for (String imageName : images) {
+                BufferedImage image = ImageIO.read(new File(samples, imageName));
+                int[] src = RasterConvolution.readPixels(image);
+                long pixels = (long) image.getWidth() * image.getHeight();
+
+                for (String spec : kernels) {
+                    Map.Entry<float[][], Float> kernel = parseKernel(spec);
+                    for (String path : paths) {
+                        for (int numThreads : threadCounts) {
+                            Measurement m = bench.measure(createOperation(path, image, src,
+                                    kernel.getKey(), kernel.getValue(), numThreads), pixels);
+                            if (m == null) {
+                                continue;
+                            }
+
+                            String key = imageName + "," + spec + "," + path + "," + numThreads;
+                            String verdict = "";
+                            Double before = baseline.get(key);
+                            if (before != null) {
+                                double change = m.meanMpps / before - 1;
+                                verdict = String.format(" %+.1f%%", change * 100);
+                                if (change < -threshold) {
+                                    verdict += " REGRESSION";
+                                    regressions++;
+                                }
+                            }
+                            System.out.printf("%-22s %-16s %-9s %3d %10.2f %9.2f %14d %6d%s%n",
+                                    imageName, spec, path, numThreads, m.meanMpps, m.stdevMpps,
+                                    m.bytesPerOp, m.gcCount, verdict);
+                            if (csv != null) {
+                                csv.printf(Locale.ROOT, "%s,%.4f,%.4f,%d,%d,%d%n",
+                                        key, m.meanMpps, m.stdevMpps, m.bytesPerOp, m.gcCount, m.gcMillis);
+                                csv.flush();
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (csv != null) {
+                csv.close();
+            }
+        }
+
+        if (regressions > 0) {
+            System.out.println(regressions + " regression(s) against " + options.get("baseline"));
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+}
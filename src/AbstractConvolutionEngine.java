@@ -0,0 +1,130 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * Base class for engines that work on packed RGB arrays. It unpacks the
+ * input, lets the subclass convolve (or run a non-linear filter), packs the
+ * result into a fresh output image (or the caller's destination) and
+ * records how long each step took. The two work arrays come from
+ * BufferPool.global() and go back to it after packing. All state lives in
+ * local variables, so subclasses stay re-entrant as long as they do too.
+ */
+public abstract class AbstractConvolutionEngine implements ConvolutionEngine {
+
+    @Override
+    public FilterResult apply(BufferedImage inputImg, float[][] kernel, float multiplier, BorderMode border,
+                              FilterProgress progress, BufferedImage destination) {
+        return run(inputImg, kernel.length, border, progress, destination,
+                (src, dst, width, height) -> convolve(src, dst, width, height, kernel, multiplier, border, progress));
+    }
+
+    @Override
+    public FilterResult apply(BufferedImage inputImg, NonLinearFilter filter, BorderMode border,
+                              FilterProgress progress, BufferedImage destination) {
+        return run(inputImg, filter.getWindowSize(), border, progress, destination,
+                (src, dst, width, height) -> filter(src, dst, width, height, filter, border, progress));
+    }
+
+    // Unpacks, runs one pass over the whole image, packs and times it
+    private FilterResult run(BufferedImage inputImg, int windowSize, BorderMode border, FilterProgress progress,
+                             BufferedImage destination, Pass pass) {
+        long start = System.nanoTime();
+
+        int width = inputImg.getWidth();
+        int height = inputImg.getHeight();
+        int outWidth = border.outputSize(width, windowSize);
+        int outHeight = border.outputSize(height, windowSize);
+        if (outWidth < 1 || outHeight < 1) {
+            throw new IllegalArgumentException("Kernel of size " + windowSize
+                    + " leaves no valid pixels in the " + width + "x" + height + " image");
+        }
+
+        // Write into the caller's image, or create one with the same type as input (smaller only for CROP_VALID)
+        BufferedImage outputImg = destination;
+        if (outputImg == null) {
+            outputImg = RasterConvolution.createOutput(inputImg, outWidth, outHeight);
+        } else if (outputImg.getWidth() != outWidth || outputImg.getHeight() != outHeight) {
+            throw new IllegalArgumentException("Destination is " + outputImg.getWidth() + "x"
+                    + outputImg.getHeight() + ", output is " + outWidth + "x" + outHeight);
+        }
+
+        // Unpack the input once into a flat RGB array; results go into a second array
+        BufferPool buffers = BufferPool.global();
+        int[] src = RasterConvolution.readPixels(inputImg, buffers.acquirePixels(width * height));
+        int[] dst = buffers.acquirePixels(width * height);
+        long prepared = System.nanoTime();
+
+        if (progress != null) {
+            progress.checkCancelled();
+            progress.start((long) width * height);
+        }
+        // If the pass throws, the arrays are left to the garbage collector rather than pooled:
+        // tiles of a cancelled call may still be writing into dst
+        pass.run(src, dst, width, height);
+        long convolved = System.nanoTime();
+
+        // Pack the results back into the output raster in one pass
+        buffers.release(src);
+        int[] pixels = crop(dst, width, height, outWidth, outHeight, buffers);
+        RasterConvolution.writePixels(outputImg, pixels);
+        buffers.release(pixels);
+        long packed = System.nanoTime();
+
+        FilterTiming timing = new FilterTiming(prepared - start, convolved - prepared, packed - convolved);
+        PipelineMetrics.global().record(timing);
+        return new FilterResult(outputImg, getName(), timing);
+    }
+
+    // The outWidth x outHeight part of the pixels that starts half a kernel in (all of them unless
+    // cropping); a cropped copy replaces the pixels, which go back to the pool
+    private static int[] crop(int[] pixels, int width, int height, int outWidth, int outHeight,
+                              BufferPool buffers) {
+        if (outWidth == width && outHeight == height) {
+            return pixels;
+        }
+        int left = (width - outWidth + 1) / 2;
+        int top = (height - outHeight + 1) / 2;
+        int[] cropped = buffers.acquirePixels(outWidth * outHeight);
+        for (int y = 0; y < outHeight; y++) {
+            System.arraycopy(pixels, (top + y) * width + left, cropped, y * outWidth, outWidth);
+        }
+        buffers.release(pixels);
+        return cropped;
+    }
+
+    /**
+     * Convolves packed RGB pixels. With CROP_VALID only the pixels whose
+     * neighbourhood lies inside the image need to be written.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     * @param progress   Handle every finished tile is reported to (see FilterProgress.track), or null.
+     */
+    protected abstract void convolve(int[] src, int[] dst, int width, int height,
+                                     float[][] kernel, float multiplier, BorderMode border,
+                                     FilterProgress progress);
+
+    /**
+     * Runs a non-linear filter over packed RGB pixels, on the same threads
+     * this engine convolves with.
+     *
+     * @param src      Packed RGB input pixels.
+     * @param dst      Packed RGB output pixels (same size as src).
+     * @param width    Image width.
+     * @param height   Image height.
+     * @param filter   The filter, which supplies the tiling and the tile operation.
+     * @param border   How pixels beyond the image border are read.
+     * @param progress Handle every finished tile is reported to (see FilterProgress.track), or null.
+     */
+    protected abstract void filter(int[] src, int[] dst, int width, int height, NonLinearFilter filter,
+                                   BorderMode border, FilterProgress progress);
+
+    // The work between unpacking and packing
+    private interface Pass {
+        void run(int[] src, int[] dst, int width, int height);
+    }
+}
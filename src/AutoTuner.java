@@ -0,0 +1,411 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Logger;
+
+/**
+ * Engine that picks the backend for every call: Sequential, or Parallel
+ * with a thread count and ForkJoin split granularity, from the image size,
+ * the kernel and the number of cores.
+ *
+ * The choice comes from a cost model whose constants are measured once per
+ * machine by a short calibration run (about a quarter of a second): the
+ * time per kernel tap of the convolution loop, the fixed and per-thread
+ * cost of handing a task tree to a pool, and the number of leaves per
+ * thread that ran fastest. The calibration is saved to a properties file
+ * (~/.image-filter-autotune.properties, or -Dautotune.file=path) and reused
+ * by later launches until the core count, Java version or SIMD backend
+ * changes. Every decision is logged through java.util.logging.
+ *
+ * The thread count never exceeds availableProcessors, and each thread gets
+ * at least one cache-sized tile (see TileScheduler).
+ */
+public class AutoTuner extends AbstractConvolutionEngine {
+
+    private static final Logger LOG = Logger.getLogger(AutoTuner.class.getName());
+
+    // Going parallel must be predicted to be at least this much faster
+    private static final double MIN_SPEEDUP = 1.2;
+
+    // Split granularities tried by the calibration
+    private static final int[] TASKS_PER_THREAD_CANDIDATES = {1, 2, 4, 8, 16};
+
+    // Calibration workload: loops are warmed up on small regions, then timed on larger ones
+    private static final int WARMUP_CALLS = 200;
+    private static final int WARMUP_REGION = 64;
+    private static final int TAP_REGION = 256;
+    private static final int SPLIT_IMAGE = 512;
+    private static final int OVERHEAD_RUNS = 15;
+
+    private static final AutoTuner DEFAULT = new AutoTuner(new File(System.getProperty("autotune.file",
+            new File(System.getProperty("user.home"), ".image-filter-autotune.properties").getPath())));
+
+    private final File file;
+    private final int processors;
+    private volatile Calibration calibration;
+
+    // Decision of the calling thread's last call, for getName()
+    private final ThreadLocal<Decision> lastDecision = new ThreadLocal<>();
+
+    /**
+     * Creates a tuner for this machine that keeps its calibration in the given file.
+     *
+     * @param file Properties file to load the calibration from and save it to.
+     */
+    public AutoTuner(File file) {
+        this(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a tuner for a given core count.
+     *
+     * @param file       Properties file to load the calibration from and save it to.
+     * @param processors Maximum number of threads to use (at least 1).
+     */
+    AutoTuner(File file, int processors) {
+        if (processors < 1) {
+            throw new IllegalArgumentException("Processor count must be at least 1: " + processors);
+        }
+        this.file = file;
+        this.processors = processors;
+    }
+
+    /**
+     * Returns the shared tuner, calibrated for this machine on first use.
+     */
+    public static AutoTuner getDefault() {
+        return DEFAULT;
+    }
+
+    @Override
+    protected void convolve(int[] src, int[] dst, int width, int height, float[][] kernel, float multiplier,
+                            BorderMode border, FilterProgress progress) {
+        Decision decision = choose(width, height, kernel);
+        lastDecision.set(decision);
+        decision.engine.convolve(src, dst, width, height, kernel, multiplier, border, progress);
+    }
+
+    @Override
+    protected void filter(int[] src, int[] dst, int width, int height, NonLinearFilter filter, BorderMode border,
+                          FilterProgress progress) {
+        Decision decision = choose(width, height, filter);
+        lastDecision.set(decision);
+        decision.engine.filter(src, dst, width, height, filter, border, progress);
+    }
+
+    /**
+     * Chooses the engine for one call and logs the decision.
+     *
+     * @param width  Image width.
+     * @param height Image height.
+     * @param kernel The convolution kernel matrix (square).
+     * @return The chosen engine and the predicted times behind the choice.
+     */
+    public Decision choose(int width, int height, float[][] kernel) {
+        return choose(width, height, kernel.length, tapsPerPixel(kernel), new TileScheduler(width, height, kernel.length));
+    }
+
+    /**
+     * Chooses the engine for one non-linear filter call and logs the decision.
+     *
+     * @param width  Image width.
+     * @param height Image height.
+     * @param filter The filter, which estimates its own cost in kernel taps.
+     * @return The chosen engine and the predicted times behind the choice.
+     */
+    public Decision choose(int width, int height, NonLinearFilter filter) {
+        return choose(width, height, filter.getWindowSize(), filter.getTapsPerPixel(), filter.createTiles(width, height));
+    }
+
+    private Decision choose(int width, int height, int windowSize, double tapsPerPixel, TileScheduler tiles) {
+        Calibration c = getCalibration();
+        double sequential = (double) width * height * tapsPerPixel * c.nanosPerTap;
+
+        // Every thread needs at least one tile of work
+        long tileCount = (long) ((width + tiles.getTileWidth() - 1) / tiles.getTileWidth())
+                * ((height + tiles.getTileHeight() - 1) / tiles.getTileHeight());
+        int maxThreads = (int) Math.min(processors, tileCount);
+
+        int threads = 1;
+        double best = sequential;
+        for (int n = 2; n <= maxThreads; n++) {
+            double predicted = c.forkNanos + n * c.wakeNanos + sequential / n;
+            if (predicted < best) {
+                threads = n;
+                best = predicted;
+            }
+        }
+        Decision decision = threads == 1 || sequential / best < MIN_SPEEDUP
+                ? new Decision(new Sequential(), width, height, windowSize, 1, 0, sequential, sequential)
+                : new Decision(new Parallel(threads, c.tasksPerThread), width, height, windowSize,
+                threads, c.tasksPerThread, sequential, best);
+        LOG.info(decision.toString());
+        return decision;
+    }
+
+    // Kernel taps per output pixel on the path the engines will take
+    private static double tapsPerPixel(float[][] kernel) {
+        if (SummedAreaTable.isPreferred(kernel)) {
+            // Building the tables and four lookups per channel: about a 5x5 separable pass
+            return 10;
+        }
+        int kernelLen = kernel.length;
+        boolean separable = SeparableKernel.detect(kernel) != null;
+        double taps = separable ? 2.0 * kernelLen : (double) kernelLen * kernelLen;
+        if (FFTConvolution.isPreferred(kernel)) {
+            // The FFT took over because it beats the direct loop at the crossover size
+            int crossover = FFTConvolution.getCrossover()[separable ? 1 : 0];
+            taps = Math.min(taps, separable ? 2.0 * crossover : (double) crossover * crossover);
+        }
+        return taps;
+    }
+
+    /**
+     * Returns the decision behind the calling thread's last call, or null.
+     */
+    public Decision getLastDecision() {
+        return lastDecision.get();
+    }
+
+    @Override
+    public String getName() {
+        Decision decision = lastDecision.get();
+        return decision == null ? "Auto" : "Auto: " + decision.engine.getName();
+    }
+
+    /**
+     * Returns the calibration, loading it from the file or measuring (and
+     * saving) it on first use.
+     */
+    public Calibration getCalibration() {
+        Calibration c = calibration;
+        if (c == null) {
+            synchronized (this) {
+                c = calibration;
+                if (c == null) {
+                    c = load();
+                    if (c == null) {
+                        c = calibrate();
+                        save(c);
+                    }
+                    calibration = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    // The saved calibration if it was made under the same conditions, else null
+    private Calibration load() {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+            if (!environment().equals(properties.getProperty("environment"))) {
+                LOG.info("Ignoring auto-tune calibration in " + file + ": made on " + properties.getProperty("environment"));
+                return null;
+            }
+            Calibration c = new Calibration(Double.parseDouble(properties.getProperty("nanosPerTap")),
+                    Double.parseDouble(properties.getProperty("forkNanos")),
+                    Double.parseDouble(properties.getProperty("wakeNanos")),
+                    Integer.parseInt(properties.getProperty("tasksPerThread")));
+            LOG.info("Loaded auto-tune calibration from " + file + ": " + c);
+            return c;
+        } catch (IOException | RuntimeException e) {
+            LOG.warning("Could not read auto-tune calibration " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private void save(Calibration c) {
+        Properties properties = new Properties();
+        properties.setProperty("environment", environment());
+        properties.setProperty("nanosPerTap", Double.toString(c.nanosPerTap));
+        properties.setProperty("forkNanos", Double.toString(c.forkNanos));
+        properties.setProperty("wakeNanos", Double.toString(c.wakeNanos));
+        properties.setProperty("tasksPerThread", Integer.toString(c.tasksPerThread));
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "AutoTuner calibration");
+        } catch (IOException e) {
+            LOG.warning("Could not save auto-tune calibration to " + file + ": " + e);
+        }
+    }
+
+    // What a calibration depends on; a saved one is only reused when this matches
+    private String environment() {
+        return processors + " processors, Java " + System.getProperty("java.version") + ", "
+                + (VectorBackend.isAvailable() ? "SIMD " + VectorBackend.getSpecies() : "scalar");
+    }
+
+    private Calibration calibrate() {
+        long start = System.nanoTime();
+        Random random = new Random(42);
+        int[] src = new int[SPLIT_IMAGE * SPLIT_IMAGE];
+        int[] dst = new int[src.length];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt(0x1000000);
+        }
+        // Non-separable 3x3 probe, the most common filter shape
+        float[][] probe = new float[3][3];
+        for (float[] column : probe) {
+            for (int j = 0; j < 3; j++) {
+                column[j] = random.nextFloat();
+            }
+        }
+        TileOperation op = RasterConvolution.createOperation(src, dst, SPLIT_IMAGE, SPLIT_IMAGE, probe, 1f);
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            op.apply(0, 0, WARMUP_REGION, WARMUP_REGION);
+        }
+        double nanosPerTap = bestTime(() -> op.apply(0, 0, TAP_REGION, TAP_REGION))
+                / ((double) TAP_REGION * TAP_REGION * 9);
+
+        // Fork/join cost of an empty task tree on one thread and on all of them
+        double single = overhead(1);
+        double wake = processors > 1 ? Math.max(0, (overhead(processors) - single) / (processors - 1)) : 0;
+
+        int tasksPerThread = TileScheduler.getDefaultTasksPerThread();
+        if (processors > 1) {
+            ForkJoinPool pool = PoolManager.getPool(processors);
+            TileScheduler tiles = new TileScheduler(SPLIT_IMAGE, SPLIT_IMAGE, 3);
+            long best = Long.MAX_VALUE;
+            for (int candidate : TASKS_PER_THREAD_CANDIDATES) {
+                long time = bestTime(() -> pool.invoke(tiles.createTask(op, processors, candidate)));
+                if (time < best) {
+                    best = time;
+                    tasksPerThread = candidate;
+                }
+            }
+        }
+
+        Calibration c = new Calibration(nanosPerTap, single, wake, tasksPerThread);
+        LOG.info(String.format("Calibrated auto-tuner in %d ms: %s", (System.nanoTime() - start) / 1_000_000, c));
+        return c;
+    }
+
+    // Median time to run a tree of no-op leaves, default granularity, on a pool of the given size
+    private static double overhead(int parallelism) {
+        ForkJoinPool pool = PoolManager.getPool(parallelism);
+        int leaves = parallelism * TileScheduler.getDefaultTasksPerThread();
+        TileScheduler tiles = new TileScheduler(16 * leaves, 16, 16, 16);
+        TileOperation noop = (x0, y0, x1, y1) -> { };
+        long[] times = new long[OVERHEAD_RUNS];
+        for (int i = 0; i < OVERHEAD_RUNS; i++) {
+            long start = System.nanoTime();
+            pool.invoke(tiles.createTask(noop, parallelism));
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[OVERHEAD_RUNS / 2];
+    }
+
+    // Best of three runs, in nanoseconds
+    private static long bestTime(Runnable run) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+
+    /**
+     * Measured constants of the cost model.
+     */
+    public static final class Calibration {
+        private final double nanosPerTap;
+        private final double forkNanos;
+        private final double wakeNanos;
+        private final int tasksPerThread;
+
+        Calibration(double nanosPerTap, double forkNanos, double wakeNanos, int tasksPerThread) {
+            this.nanosPerTap = nanosPerTap;
+            this.forkNanos = forkNanos;
+            this.wakeNanos = wakeNanos;
+            this.tasksPerThread = tasksPerThread;
+        }
+
+        /** Time per kernel tap per pixel of the convolution loop on one thread. */
+        public double getNanosPerTap() {
+            return nanosPerTap;
+        }
+
+        /** Fixed cost of one parallel call. */
+        public double getForkNanos() {
+            return forkNanos;
+        }
+
+        /** Extra cost of every further thread taking part. */
+        public double getWakeNanos() {
+            return wakeNanos;
+        }
+
+        /** ForkJoin leaves per thread that ran fastest. */
+        public int getTasksPerThread() {
+            return tasksPerThread;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.3f ns/tap, fork %.1f us, %.1f us/thread, %d leaves/thread",
+                    nanosPerTap, forkNanos / 1e3, wakeNanos / 1e3, tasksPerThread);
+        }
+    }
+
+    /**
+     * The engine chosen for one call and why.
+     */
+    public static final class Decision {
+        private final AbstractConvolutionEngine engine;
+        private final int width, height, kernelLen;
+        private final int threads, tasksPerThread;
+        private final double sequentialNanos, predictedNanos;
+
+        Decision(AbstractConvolutionEngine engine, int width, int height, int kernelLen, int threads,
+                 int tasksPerThread, double sequentialNanos, double predictedNanos) {
+            this.engine = engine;
+            this.width = width;
+            this.height = height;
+            this.kernelLen = kernelLen;
+            this.threads = threads;
+            this.tasksPerThread = tasksPerThread;
+            this.sequentialNanos = sequentialNanos;
+            this.predictedNanos = predictedNanos;
+        }
+
+        public ConvolutionEngine getEngine() {
+            return engine;
+        }
+
+        /** 1 for Sequential. */
+        public int getThreads() {
+            return threads;
+        }
+
+        /** ForkJoin leaves per thread, 0 for Sequential. */
+        public int getTasksPerThread() {
+            return tasksPerThread;
+        }
+
+        public double getPredictedNanos() {
+            return predictedNanos;
+        }
+
+        @Override
+        public String toString() {
+            String choice = threads == 1 ? "Sequential"
+                    : String.format("Parallel, %d threads, %d leaves/thread", threads, tasksPerThread);
+            return String.format("%dx%d image, %dx%d kernel: %s (predicted %.2f ms, sequential %.2f ms)",
+                    width, height, kernelLen, kernelLen, choice, predictedNanos / 1e6, sequentialNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless batch mode: applies a list of filters to every image in a
+ * directory and writes the results to an output directory.
+ *
+ * Decoding, convolution and encoding run as a pipeline on three separate
+ * worker pools joined by bounded queues, so disk and codec work on one image
+ * overlaps with convolving another. The queues block when full, which keeps
+ * at most a few decoded images in memory however large the directory is.
+ *
+ * Inputs in RawImageFile's .raw format are mapped instead of decoded, and
+ * their results are written as .raw too, so repeated runs over a directory
+ * converted once skip both codecs.
+ *
+ * Usage: java BatchProcessor &lt;inputDir&gt; &lt;filters|all&gt; &lt;outputDir&gt;
+ *        [--intensity N] [--threads N] [--decoders N] [--encoders N] [--queue N]
+ */
+public class BatchProcessor {
+
+    // Default number of images each queue may hold before its producer waits
+    private static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+    // Marks the end of a queue; each consumer thread takes exactly one
+    private static final Job END = new Job(null, null, null);
+
+    private final ConvolutionEngine engine;
+    private final List<FilterCatalog.Filter> filters;
+    private final int intensity;
+    private final int decodeThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+
+    /**
+     * Creates a batch processor.
+     *
+     * @param engine        Engine used for every convolution (shared by the convolve stage).
+     * @param filters       Filters applied to each input image.
+     * @param intensity     Intensity level, as on the UI slider.
+     * @param decodeThreads Number of threads reading and decoding input files.
+     * @param encodeThreads Number of threads encoding and writing results.
+     * @param queueCapacity Number of images each inter-stage queue may hold.
+     */
+    public BatchProcessor(ConvolutionEngine engine, List<FilterCatalog.Filter> filters, int intensity,
+                          int decodeThreads, int encodeThreads, int queueCapacity) {
+        if (filters.isEmpty()) {
+            throw new IllegalArgumentException("At least one filter is required");
+        }
+        if (decodeThreads < 1 || encodeThreads < 1 || queueCapacity < 1) {
+            throw new IllegalArgumentException("Thread counts and queue capacity must be at least 1");
+        }
+        this.engine = engine;
+        this.filters = new ArrayList<>(filters);
+        this.intensity = intensity;
+        this.decodeThreads = decodeThreads;
+        this.encodeThreads = encodeThreads;
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * Processes every readable image in the input directory.
+     *
+     * @param inputDir  Directory containing the input images.
+     * @param outputDir Directory for the results (created if missing).
+     * @return Throughput, per-stage counters and any failures.
+     * @throws IOException          if a directory cannot be read or created
+     * @throws InterruptedException if the calling thread is interrupted while waiting
+     */
+    public Report run(File inputDir, File outputDir) throws IOException, InterruptedException {
+        File[] inputs = listImages(inputDir);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Could not create output directory: " + outputDir);
+        }
+
+        BlockingQueue<Job> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<Job> filtered = new ArrayBlockingQueue<>(queueCapacity);
+        Stage decode = new Stage("decode", decodeThreads);
+        Stage convolve = new Stage("convolve", 1);
+        Stage encode = new Stage("encode", encodeThreads);
+        ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+        long start = System.nanoTime();
+
+        // Decode: workers claim files by index and block on the queue when convolution falls behind
+        AtomicInteger nextFile = new AtomicInteger();
+        for (int t = 0; t < decodeThreads; t++) {
+            decode.executor.execute(() -> {
+                for (int i = nextFile.getAndIncrement(); i < inputs.length; i = nextFile.getAndIncrement()) {
+                    File file = inputs[i];
+                    long begin = System.nanoTime();
+                    try {
+                        BufferedImage image = RawImageFile.isRaw(file) ? RawImageFile.read(file) : ImageIO.read(file);
+                        if (image == null) throw new IOException("Unsupported image format");
+                        decode.finish(begin);
+                        decode.offer(decoded, new Job(file, image, null));
+                    } catch (IOException e) {
+                        failures.add(file.getName() + ": " + e.getMessage());
+                    } catch (RuntimeException e) {
+                        // ImageIO throws unchecked exceptions on some corrupt files; keep decoding the rest
+                        failures.add(file.getName() + ": " + e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            });
+        }
+
+        // Convolve: one driver thread; the engine spreads each image over its own worker pool and
+        // writes into a pooled image that the encoder hands back once it is written
+        BufferPool buffers = BufferPool.global();
+        convolve.executor.execute(() -> {
+            try {
+                for (Job job = decoded.take(); job != END; job = decoded.take()) {
+                    for (FilterCatalog.Filter filter : filters) {
+                        long begin = System.nanoTime();
+                        BufferedImage output = buffers.acquireOutput(job.image, job.image.getWidth(),
+                                job.image.getHeight());
+                        FilterResult result;
+                        try {
+                            result = engine.apply(job.image, filter.getKernel(),
+                                    filter.getMultiplier(intensity), BorderMode.WRAP, null, output);
+                        } catch (RuntimeException e) {
+                            buffers.release(output);
+                            failures.add(job.file.getName() + " (" + filter.getName() + "): " + e);
+                            continue;
+                        }
+                        convolve.finish(begin);
+                        convolve.offer(filtered, new Job(job.file, result.getImage(), filter));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // Encode: write each result next to its siblings, named after the input and the filter
+        for (int t = 0; t < encodeThreads; t++) {
+            encode.executor.execute(() -> {
+                try {
+                    for (Job job = filtered.take(); job != END; job = filtered.take()) {
+                        String label = job.file.getName() + " (" + job.filter.getName() + ")";
+                        long begin = System.nanoTime();
+                        try {
+                            File out = outputFile(outputDir, job.file, job.filter);
+                            if (RawImageFile.isRaw(out)) {
+                                RawImageFile.write(job.image, out);
+                            } else if (!ImageIO.write(job.image, suffix(out), out)) {
+                                throw new IOException("No writer for " + out.getName());
+                            }
+                            encode.finish(begin);
+                        } catch (IOException e) {
+                            failures.add(label + ": " + e.getMessage());
+                        } catch (RuntimeException e) {
+                            // A dead encoder would leave the convolve stage blocked on a full queue
+                            failures.add(label + ": " + e);
+                        } finally {
+                            buffers.release(job.image);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        // Drain the stages in order, then tell the next stage there is nothing more to come
+        try {
+            decode.await();
+            decoded.put(END);
+            convolve.await();
+            for (int t = 0; t < encodeThreads; t++) {
+                filtered.put(END);
+            }
+            encode.await();
+        } finally {
+            decode.executor.shutdownNow();
+            convolve.executor.shutdownNow();
+            encode.executor.shutdownNow();
+        }
+
+        return new Report(inputs.length, System.nanoTime() - start,
+                Arrays.asList(decode.snapshot(), convolve.snapshot(), encode.snapshot()),
+                new ArrayList<>(failures));
+    }
+
+    // Input files that ImageIO has a reader for, or raw files, by extension, in name order;
+    // files without an extension are skipped
+    private static File[] listImages(File dir) throws IOException {
+        List<String> suffixes = new ArrayList<>();
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            suffixes.add(suffix.toLowerCase(Locale.ROOT));
+        }
+        suffixes.add(RawImageFile.EXTENSION);
+        File[] files = dir.listFiles(f -> f.isFile() && suffixes.contains(suffix(f)));
+        if (files == null) {
+            throw new IOException("Not a readable directory: " + dir);
+        }
+        Arrays.sort(files);
+        return files;
+    }
+
+    // Lower-case text after the last dot of the file name, or "" if there is none
+    private static String suffix(File file) {
+        String name = file.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // e.g. "s1-300x300.jpg" + "Gaussian Blur" -> "s1-300x300-gaussian-blur.jpg"
+    private static File outputFile(File outputDir, File input, FilterCatalog.Filter filter) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        if (dot < 0) {
+            dot = name.length();
+        }
+        String slug = filter.getName().toLowerCase(Locale.ROOT).replace(' ', '-');
+        return new File(outputDir, name.substring(0, dot) + "-" + slug + name.substring(dot));
+    }
+
+    /**
+     * One image moving through the pipeline, before or after filtering.
+     */
+    private static class Job {
+        final File file;
+        final BufferedImage image;
+        final FilterCatalog.Filter filter;
+
+        Job(File file, BufferedImage image, FilterCatalog.Filter filter) {
+            this.file = file;
+            this.image = image;
+            this.filter = filter;
+        }
+    }
+
+    /**
+     * A stage's worker pool plus the counters reported at the end. Queue
+     * depth is sampled each time the stage hands an image downstream.
+     */
+    private static class Stage {
+        final String name;
+        final int threads;
+        final ExecutorService executor;
+        final LongAdder items = new LongAdder();
+        final LongAdder busyNanos = new LongAdder();
+        final LongAdder depthSum = new LongAdder();
+        final LongAdder depthSamples = new LongAdder();
+        final AtomicLong maxDepth = new AtomicLong();
+
+        Stage(String name, int threads) {
+            this.name = name;
+            this.threads = threads;
+            AtomicInteger index = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(threads,
+                    r -> new Thread(r, "batch-" + name + "-" + index.getAndIncrement()));
+        }
+
+        void finish(long beginNanos) {
+            busyNanos.add(System.nanoTime() - beginNanos);
+            items.increment();
+        }
+
+        void offer(BlockingQueue<Job> queue, Job job) throws InterruptedException {
+            queue.put(job);
+            int depth = queue.size();
+            depthSum.add(depth);
+            depthSamples.increment();
+            maxDepth.accumulateAndGet(depth, Math::max);
+        }
+
+        void await() throws InterruptedException {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        StageStats snapshot() {
+            long samples = depthSamples.sum();
+            return new StageStats(name, threads, items.sum(), busyNanos.sum(),
+                    samples == 0 ? 0 : (double) depthSum.sum() / samples, (int) maxDepth.get());
+        }
+    }
+
+    /**
+     * Counters of one pipeline stage. Queue depths refer to the queue the
+     * stage feeds (the encode stage feeds none).
+     */
+    public static class StageStats {
+        private final String name;
+        private final int threads;
+        private final long items;
+        private final long busyNanos;
+        private final double meanQueueDepth;
+        private final int maxQueueDepth;
+
+        StageStats(String name, int threads, long items, long busyNanos, double meanQueueDepth, int maxQueueDepth) {
+            this.name = name;
+            this.threads = threads;
+            this.items = items;
+            this.busyNanos = busyNanos;
+            this.meanQueueDepth = meanQueueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getItems() {
+            return items;
+        }
+
+        public long getBusyNanos() {
+            return busyNanos;
+        }
+
+        public double getMeanQueueDepth() {
+            return meanQueueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+    }
+
+    /**
+     * Outcome of a batch run.
+     */
+    public static class Report {
+        private final int inputs;
+        private final long wallNanos;
+        private final List<StageStats> stages;
+        private final List<String> failures;
+
+        Report(int inputs, long wallNanos, List<StageStats> stages, List<String> failures) {
+            this.inputs = inputs;
+            this.wallNanos = wallNanos;
+            this.stages = stages;
+            this.failures = failures;
+        }
+
+        public int getInputs() {
+            return inputs;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public List<StageStats> getStages() {
+            return stages;
+        }
+
+        public List<String> getFailures() {
+            return failures;
+        }
+
+        /**
+         * Returns input images completed per second of wall time.
+         */
+        public double getImagesPerSecond() {
+            return wallNanos == 0 ? 0 : inputs * 1e9 / wallNanos;
+        }
+
+        @Override
+        public String toString() {
+            double wall = wallNanos / 1e9;
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d images in %.2f s (%.2f images/s)%n", inputs, wall, getImagesPerSecond()));
+            for (StageStats s : stages) {
+                double utilization = wallNanos == 0 ? 0 : 100.0 * s.busyNanos / (wallNanos * (double) s.threads);
+                sb.append(String.format("  %-8s threads=%d items=%d busy=%.2f s (%.0f%%)",
+                        s.name, s.threads, s.items, s.busyNanos / 1e9, utilization));
+                if (s.maxQueueDepth > 0 || s.meanQueueDepth > 0) {
+                    sb.append(String.format(" out-queue mean=%.2f max=%d", s.meanQueueDepth, s.maxQueueDepth));
+                }
+                sb.append(System.lineSeparator());
+            }
+            for (String failure : failures) {
+                sb.append("  FAILED ").append(failure).append(System.lineSeparator());
+            }
+            return sb.toString();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java BatchProcessor <inputDir> <filters|all> <outputDir>"
+                    + " [--intensity N] [--threads N] [--decoders N] [--encoders N] [--queue N]");
+            System.err.println("Filters (comma-separated): " + String.join(", ", FilterCatalog.getNames()));
+            System.exit(1);
+        }
+
+        List<FilterCatalog.Filter> filters = new ArrayList<>();
+        List<String> names = args[1].equalsIgnoreCase("all")
+                ? FilterCatalog.getNames() : Arrays.asList(args[1].split(","));
+        for (String name : names) {
+            FilterCatalog.Filter filter = FilterCatalog.get(name);
+            if (filter == null) {
+                System.err.println("Unknown filter: " + name);
+                System.exit(1);
+            }
+            filters.add(filter);
+        }
+
+        int intensity = 1;
+        int threads = PoolManager.getDefaultParallelism();
+        int decoders = 2;
+        int encoders = 2;
+        int queue = DEFAULT_QUEUE_CAPACITY;
+        for (int i = 3; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--intensity" -> intensity = value;
+                case "--threads" -> threads = value;
+                case "--decoders" -> decoders = value;
+                case "--encoders" -> encoders = value;
+                case "--queue" -> queue = value;
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        BatchProcessor batch = new BatchProcessor(new Parallel(threads), filters, intensity, decoders, encoders, queue);
+        Report report = batch.run(new File(args[0]), new File(args[2]));
+        System.out.print(report);
+        System.exit(report.getFailures().isEmpty() ? 0 : 2);
+    }
+}
@@ -0,0 +1,202 @@
+/**
+ * Edge-preserving smoothing: a bilateral filter approximated on a
+ * bilateral grid (Chen, Paris and Durand, "Real-time Edge-Aware Image
+ * Processing with the Bilateral Grid", 2007).
+ *
+ * Pixels are splatted into a coarse 3D histogram indexed by position (one
+ * cell per spatial sigma) and luminance (one cell per range sigma), each
+ * cell summing the colours and the count that land in it. The grid is
+ * blurred with a [1 4 6 4 1] filter along all three axes and every pixel
+ * reads its colour back by trilinear interpolation at its own position and
+ * luminance, dividing by the interpolated count. Pixels across an edge sit
+ * in distant luminance cells, so they do not mix. The cost per pixel does
+ * not depend on the sigmas.
+ *
+ * Each tile builds the grid of its own area plus a halo of four spatial
+ * sigmas, which covers every cell its pixels read, and cells are aligned
+ * to the image rather than the tile, so the output does not depend on the
+ * tiling or the engine. The grid only holds pixels inside the image: the
+ * border mode only matters for CROP_VALID.
+ */
+public class BilateralFilter implements NonLinearFilter {
+
+    // Grid cells of margin on every side for the 5-tap blur
+    private static final int PAD = 2;
+
+    // Colour sums and count per cell
+    private static final int CHANNELS = 4;
+
+    // Tiles are at least this big and at least this many spatial sigmas across,
+    // so the halo each tile splats again stays a small part of its work
+    private static final int MIN_TILE_SIZE = 256;
+    private static final int TILE_SIGMAS = 32;
+
+    private final int spatialSigma;
+    private final int rangeSigma;
+
+    /**
+     * Creates a bilateral filter.
+     *
+     * @param spatialSigma Spatial extent in pixels (the grid cell width).
+     * @param rangeSigma   Luminance difference, in levels of 0..255, over which
+     *                     neighbours stop contributing (the grid cell depth).
+     */
+    public BilateralFilter(int spatialSigma, int rangeSigma) {
+        if (spatialSigma < 1 || rangeSigma < 1 || rangeSigma > 255) {
+            throw new IllegalArgumentException("Bilateral sigmas out of range: spatial " + spatialSigma
+                    + ", range " + rangeSigma);
+        }
+        this.spatialSigma = spatialSigma;
+        this.rangeSigma = rangeSigma;
+    }
+
+    public int getSpatialSigma() {
+        return spatialSigma;
+    }
+
+    public int getRangeSigma() {
+        return rangeSigma;
+    }
+
+    @Override
+    public int getWindowSize() {
+        // Two cells either way carry most of the blurred weight
+        return 4 * spatialSigma + 1;
+    }
+
+    @Override
+    public double getTapsPerPixel() {
+        // Measured: splat and an 8-corner slice per pixel, plus three blur
+        // passes over the luminance cells of every spatialSigma^2 pixels
+        int zCells = cell(255, rangeSigma) + 1 + 2 * PAD;
+        return 16 + 16.0 * zCells / (spatialSigma * spatialSigma);
+    }
+
+    @Override
+    public TileScheduler createTiles(int width, int height) {
+        int size = Math.max(MIN_TILE_SIZE, TILE_SIGMAS * spatialSigma);
+        return new TileScheduler(width, height, size, size);
+    }
+
+    @Override
+    public TileOperation createOperation(int[] src, int[] dst, int width, int height, BorderMode border) {
+        return (x0, y0, x1, y1) -> filterTile(src, dst, width, height, x0, y0, x1, y1);
+    }
+
+    private void filterTile(int[] src, int[] dst, int width, int height, int x0, int y0, int x1, int y1) {
+        int s = spatialSigma;
+        int halo = 4 * s;
+        int rx0 = Math.max(0, x0 - halo), ry0 = Math.max(0, y0 - halo);
+        int rx1 = Math.min(width, x1 + halo), ry1 = Math.min(height, y1 + halo);
+
+        // Grid origin in image-aligned cells, and its size with the blur margin
+        int gx0 = cell(rx0, s) - PAD, gy0 = cell(ry0, s) - PAD;
+        int nx = cell(rx1 - 1, s) - gx0 + 1 + PAD;
+        int ny = cell(ry1 - 1, s) - gy0 + 1 + PAD;
+        int nz = cell(255, rangeSigma) + 1 + 2 * PAD;
+        float[] grid = new float[nx * ny * nz * CHANNELS];
+
+        // Splat: every pixel of the tile and its halo into its nearest cell
+        for (int y = ry0; y < ry1; y++) {
+            int row = (cell(y, s) - gy0) * nx;
+            for (int x = rx0; x < rx1; x++) {
+                int rgb = src[y * width + x];
+                int i = ((row + cell(x, s) - gx0) * nz + cell(luminance(rgb), rangeSigma) + PAD) * CHANNELS;
+                grid[i] += (rgb >> 16) & 0xFF;
+                grid[i + 1] += (rgb >> 8) & 0xFF;
+                grid[i + 2] += rgb & 0xFF;
+                grid[i + 3] += 1;
+            }
+        }
+
+        // Blur along luminance, x and y
+        float[] temp = new float[grid.length];
+        blur(grid, temp, nx, ny, nz, CHANNELS, nz, 0);
+        blur(temp, grid, nx, ny, nz, nz * CHANNELS, nx, 1);
+        blur(grid, temp, nx, ny, nz, nx * nz * CHANNELS, ny, 2);
+
+        // Slice: interpolate each output pixel's colour at its position and luminance
+        // (cell and fraction are split in integers, so every tile computes the same weights)
+        float[] sum = new float[CHANNELS];
+        for (int y = y0; y < y1; y++) {
+            int iy = y / s - gy0;
+            float ty = (float) (y % s) / s;
+            for (int x = x0; x < x1; x++) {
+                int rgb = src[y * width + x];
+                int lum = luminance(rgb);
+                int ix = x / s - gx0, iz = lum / rangeSigma + PAD;
+                float tx = (float) (x % s) / s, tz = (float) (lum % rangeSigma) / rangeSigma;
+
+                sum[0] = sum[1] = sum[2] = sum[3] = 0;
+                for (int corner = 0; corner < 8; corner++) {
+                    int dx = corner & 1, dy = (corner >> 1) & 1, dz = corner >> 2;
+                    float weight = (dx == 0 ? 1 - tx : tx) * (dy == 0 ? 1 - ty : ty) * (dz == 0 ? 1 - tz : tz);
+                    int i = (((iy + dy) * nx + ix + dx) * nz + iz + dz) * CHANNELS;
+                    for (int c = 0; c < CHANNELS; c++) {
+                        sum[c] += weight * temp[i + c];
+                    }
+                }
+                dst[y * width + x] = sum[3] > 0
+                        ? clamp(sum[0] / sum[3]) << 16 | clamp(sum[1] / sum[3]) << 8 | clamp(sum[2] / sum[3])
+                        : rgb;
+            }
+        }
+    }
+
+    // 5-tap [1 4 6 4 1] blur along one axis; cells beyond the grid count as empty
+    private static void blur(float[] in, float[] out, int nx, int ny, int nz, int stride, int length, int axis) {
+        for (int y = 0; y < ny; y++) {
+            for (int x = 0; x < nx; x++) {
+                for (int z = 0; z < nz; z++) {
+                    int pos = axis == 0 ? z : axis == 1 ? x : y;
+                    int i = ((y * nx + x) * nz + z) * CHANNELS;
+                    for (int c = 0; c < CHANNELS; c++) {
+                        float value = 6 * in[i + c];
+                        if (pos >= 1) {
+                            value += 4 * in[i + c - stride];
+                        }
+                        if (pos >= 2) {
+                            value += in[i + c - 2 * stride];
+                        }
+                        if (pos + 1 < length) {
+                            value += 4 * in[i + c + stride];
+                        }
+                        if (pos + 2 < length) {
+                            value += in[i + c + 2 * stride];
+                        }
+                        out[i + c] = value;
+                    }
+                }
+            }
+        }
+    }
+
+    // Nearest cell of a non-negative coordinate, cells centred on multiples of size
+    private static int cell(int coord, int size) {
+        return (coord + size / 2) / size;
+    }
+
+    // Rec. 601 luma, 0..255
+    private static int luminance(int rgb) {
+        return (((rgb >> 16) & 0xFF) * 77 + ((rgb >> 8) & 0xFF) * 150 + (rgb & 0xFF) * 29) >> 8;
+    }
+
+    private static int clamp(float value) {
+        return Math.min(255, Math.max(0, Math.round(value)));
+    }
+
+    @Override
+    public String getName() {
+        return "Bilateral (sigma " + spatialSigma + " px, " + rangeSigma + " levels)";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof BilateralFilter b && spatialSigma == b.spatialSigma && rangeSigma == b.rangeSigma;
+    }
+
+    @Override
+    public int hashCode() {
+        return spatialSigma * 31 + rangeSigma;
+    }
+}
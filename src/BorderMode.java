@@ -0,0 +1,61 @@
+/**
+ * How a convolution treats the pixels its kernel reaches beyond the image
+ * border. Only the kernelLen / 2 wide band along the edges is affected; the
+ * interior is computed the same way in every mode.
+ */
+public enum BorderMode {
+
+    /** Toroidal wraparound: the left edge continues from the right one, the top from the bottom. */
+    WRAP,
+
+    /** Repeat the nearest edge pixel (replicate). */
+    CLAMP,
+
+    /** Reflect about the edge, repeating the edge pixel: ... c b a | a b c ... */
+    MIRROR,
+
+    /** Treat everything outside the image as black. */
+    ZERO,
+
+    /**
+     * Only output pixels whose whole neighbourhood lies inside the image;
+     * the result shrinks by kernelLen - 1 in each direction. Paths that
+     * cannot skip the border compute it as CLAMP and the engine crops it.
+     */
+    CROP_VALID;
+
+    /**
+     * Maps a row or column coordinate to the source index it reads.
+     *
+     * @param coord Coordinate, possibly outside [0, size).
+     * @param size  Image width or height.
+     * @return The index in [0, size), or -1 if the pixel is zero (ZERO mode only).
+     */
+    public int index(int coord, int size) {
+        if (coord >= 0 && coord < size) {
+            return coord;
+        }
+        return switch (this) {
+            case WRAP -> Math.floorMod(coord, size);
+            case MIRROR -> {
+                // Period 2 * size, so kernels wider than the image keep bouncing between the edges
+                int p = Math.floorMod(coord, 2 * size);
+                yield p < size ? p : 2 * size - 1 - p;
+            }
+            case ZERO -> -1;
+            case CLAMP, CROP_VALID -> coord < 0 ? 0 : size - 1;
+        };
+    }
+
+    /**
+     * Returns the output width (or height) for an input of the given size:
+     * unchanged except for CROP_VALID.
+     *
+     * @param size      Input width or height.
+     * @param kernelLen Kernel size.
+     * @return Size of the filtered image along that axis.
+     */
+    public int outputSize(int size, int kernelLen) {
+        return this == CROP_VALID ? size - (kernelLen - 1) : size;
+    }
+}
@@ -0,0 +1,254 @@
+import java.awt.image.BufferedImage;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reusable pixel buffers: packed RGB int arrays keyed by length and images
+ * keyed by width, height and type. A 4800x3200 call needs two 61 MB work
+ * arrays and an output image of the same size; taking them from the pool
+ * instead of allocating them keeps a long-running process from filling the
+ * heap with short-lived humongous objects.
+ *
+ * Buffers are handed out with {@code acquire} and handed back with
+ * {@code release} once nothing reads or writes them any more; their old
+ * contents are not cleared. The pool keeps released buffers up to a byte
+ * budget and lets the rest go to the garbage collector. All methods are
+ * thread-safe.
+ *
+ * The engines take their work arrays from {@link #global()}, sized by
+ * -Dbufferpool.bytes (default an eighth of the maximum heap). Its hit,
+ * miss and allocation counters are exported with PipelineMetrics; once a
+ * workload reaches a steady state the miss count stops growing.
+ */
+public class BufferPool {
+
+    private static final BufferPool GLOBAL = new BufferPool(
+            Long.getLong("bufferpool.bytes", Runtime.getRuntime().maxMemory() / 8));
+
+    private final long maxBytes;
+
+    // Released buffers: int[] by Integer length, images by ImageKey
+    private final Map<Object, Queue<Object>> free = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder allocatedBytes = new LongAdder();
+    private final LongAdder releases = new LongAdder();
+    private final LongAdder discards = new LongAdder();
+
+    /**
+     * Creates a pool that keeps at most the given bytes of released buffers.
+     *
+     * @param maxBytes Maximum bytes held between release and the next acquire.
+     */
+    public BufferPool(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("Pool budget must not be negative");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the pool the engines take their work arrays from.
+     */
+    public static BufferPool global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns an int array of exactly the given length, reused if one was
+     * released, with whatever contents it had.
+     *
+     * @param length Array length.
+     * @return The array.
+     */
+    public int[] acquirePixels(int length) {
+        int[] pixels = (int[]) take(length, 4L * length);
+        if (pixels == null) {
+            pixels = new int[length];
+        }
+        return pixels;
+    }
+
+    /**
+     * Returns an image of the given size and type, reused if one was
+     * released, with whatever pixels it had.
+     *
+     * @param width  Image width.
+     * @param height Image height.
+     * @param type   A BufferedImage type other than TYPE_CUSTOM.
+     * @return The image.
+     */
+    public BufferedImage acquireImage(int width, int height, int type) {
+        ImageKey key = new ImageKey(width, height, type);
+        BufferedImage image = (BufferedImage) take(key, -1);
+        if (image == null) {
+            image = new BufferedImage(width, height, type);
+            allocatedBytes.add(ResultCache.imageBytes(image));
+        }
+        return image;
+    }
+
+    /**
+     * Returns an output image for an input image like
+     * {@link RasterConvolution#createOutput(BufferedImage, int, int)}, reused
+     * if one was released.
+     *
+     * @param inputImg The image being filtered.
+     * @param width    Output width.
+     * @param height   Output height.
+     * @return The image, to pass to an engine as its destination.
+     */
+    public BufferedImage acquireOutput(BufferedImage inputImg, int width, int height) {
+        int type = inputImg.getType();
+        return acquireImage(width, height, type == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_RGB : type);
+    }
+
+    // A released buffer for the key, or null after counting a miss (and the bytes about to be
+    // allocated, when they are known here)
+    private Object take(Object key, long bytes) {
+        Queue<Object> queue = free.get(key);
+        Object buffer = queue == null ? null : queue.poll();
+        if (buffer == null) {
+            misses.increment();
+            if (bytes >= 0) {
+                allocatedBytes.add(bytes);
+            }
+            return null;
+        }
+        retainedBytes.addAndGet(-sizeOf(buffer));
+        hits.increment();
+        return buffer;
+    }
+
+    /**
+     * Hands an array back for reuse. The caller must not touch it afterwards.
+     *
+     * @param pixels An array from {@link #acquirePixels(int)} or any other int array.
+     */
+    public void release(int[] pixels) {
+        put(pixels.length, pixels);
+    }
+
+    /**
+     * Hands an image back for reuse. The caller must not touch it afterwards.
+     * Sub-images and TYPE_CUSTOM images are not kept.
+     *
+     * @param image An image from {@link #acquireImage(int, int, int)} or any other image.
+     */
+    public void release(BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_CUSTOM || image.getRaster().getParent() != null) {
+            discards.increment();
+            return;
+        }
+        put(new ImageKey(image.getWidth(), image.getHeight(), image.getType()), image);
+    }
+
+    private void put(Object key, Object buffer) {
+        releases.increment();
+        long size = sizeOf(buffer);
+        if (retainedBytes.addAndGet(size) > maxBytes) {
+            retainedBytes.addAndGet(-size);
+            discards.increment();
+            return;
+        }
+        free.computeIfAbsent(key, k -> new ConcurrentLinkedQueue<>()).add(buffer);
+    }
+
+    private static long sizeOf(Object buffer) {
+        return buffer instanceof int[] pixels ? 4L * pixels.length : ResultCache.imageBytes((BufferedImage) buffer);
+    }
+
+    /**
+     * Returns the counters and the bytes currently held.
+     */
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), allocatedBytes.sum(), releases.sum(), discards.sum(),
+                retainedBytes.get(), maxBytes);
+    }
+
+    /**
+     * Drops every held buffer and resets the counters.
+     */
+    public void clear() {
+        free.clear();
+        retainedBytes.set(0);
+        hits.reset();
+        misses.reset();
+        allocatedBytes.reset();
+        releases.reset();
+        discards.reset();
+    }
+
+    private record ImageKey(int width, int height, int type) {
+    }
+
+    /**
+     * Pool counters: acquires served from the pool (hits) or by allocating
+     * (misses), bytes allocated by misses, releases and the ones dropped for
+     * lack of budget.
+     */
+    public static class Stats {
+        private final long hits, misses, allocatedBytes, releases, discards;
+        private final long retainedBytes, maxBytes;
+
+        Stats(long hits, long misses, long allocatedBytes, long releases, long discards, long retainedBytes,
+              long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.allocatedBytes = allocatedBytes;
+            this.releases = releases;
+            this.discards = discards;
+            this.retainedBytes = retainedBytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getReleases() {
+            return releases;
+        }
+
+        public long getDiscards() {
+            return discards;
+        }
+
+        public long getRetainedBytes() {
+            return retainedBytes;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * Returns hits / (hits + misses), or 0 before the first acquire.
+         */
+        public double getHitRate() {
+            long acquires = hits + misses;
+            return acquires == 0 ? 0 : (double) hits / acquires;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.0f%%), %.1f MB allocated, %d discarded, %.1f / %.1f MB held",
+                    hits, misses, 100 * getHitRate(), allocatedBytes / 1e6, discards, retainedBytes / 1e6,
+                    maxBytes / 1e6);
+        }
+    }
+}
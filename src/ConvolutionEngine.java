@@ -0,0 +1,125 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * A convolution backend. Implementations keep no per-call state, so a single
+ * instance can be shared and called from many threads at once; every call
+ * gets its own output image (or the destination it passed in) and timing
+ * record back.
+ */
+public interface ConvolutionEngine {
+
+    /**
+     * Applies the kernel to the input image with wraparound edges.
+     *
+     * @param inputImg   The input BufferedImage to be processed (not modified).
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by (filter intensity).
+     * @return The output image and how long each step took.
+     */
+    default FilterResult apply(BufferedImage inputImg, float[][] kernel, float multiplier) {
+        return apply(inputImg, kernel, multiplier, BorderMode.WRAP);
+    }
+
+    /**
+     * Applies the kernel to the input image.
+     *
+     * @param inputImg   The input BufferedImage to be processed (not modified).
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by (filter intensity).
+     * @param border     How pixels beyond the image border are read. With
+     *                   CROP_VALID the output is kernelLen - 1 pixels smaller
+     *                   in each direction.
+     * @return The output image and how long each step took.
+     */
+    default FilterResult apply(BufferedImage inputImg, float[][] kernel, float multiplier, BorderMode border) {
+        return apply(inputImg, kernel, multiplier, border, null);
+    }
+
+    /**
+     * Applies the kernel to the input image, reporting finished tiles to a
+     * progress handle and stopping early if it is cancelled.
+     *
+     * @param inputImg   The input BufferedImage to be processed (not modified).
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by (filter intensity).
+     * @param border     How pixels beyond the image border are read.
+     * @param progress   Progress and cancellation handle, or null.
+     * @return The output image and how long each step took.
+     * @throws java.util.concurrent.CancellationException if progress was cancelled before the call finished
+     */
+    default FilterResult apply(BufferedImage inputImg, float[][] kernel, float multiplier, BorderMode border,
+                               FilterProgress progress) {
+        return apply(inputImg, kernel, multiplier, border, progress, null);
+    }
+
+    /**
+     * Applies the kernel to the input image, writing the output into an
+     * image the caller supplies, such as one from BufferPool, instead of
+     * allocating one.
+     *
+     * @param inputImg    The input BufferedImage to be processed (not modified).
+     * @param kernel      The convolution kernel matrix (square).
+     * @param multiplier  The factor to multiply the kernel result by (filter intensity).
+     * @param border      How pixels beyond the image border are read.
+     * @param progress    Progress and cancellation handle, or null.
+     * @param destination Image of the output size to write into (any type, all of it is
+     *                    overwritten), or null for a new one. It is the result's image.
+     * @return The output image and how long each step took.
+     * @throws IllegalArgumentException if the destination is not the output size
+     * @throws java.util.concurrent.CancellationException if progress was cancelled before the call finished
+     */
+    FilterResult apply(BufferedImage inputImg, float[][] kernel, float multiplier, BorderMode border,
+                       FilterProgress progress, BufferedImage destination);
+
+    /**
+     * Applies a non-linear filter, such as a median, to the input image.
+     *
+     * @param inputImg The input BufferedImage to be processed (not modified).
+     * @param filter   The filter to apply.
+     * @param border   How pixels beyond the image border are read. With
+     *                 CROP_VALID the output is the filter's window size - 1
+     *                 pixels smaller in each direction.
+     * @return The output image and how long each step took.
+     */
+    default FilterResult apply(BufferedImage inputImg, NonLinearFilter filter, BorderMode border) {
+        return apply(inputImg, filter, border, null);
+    }
+
+    /**
+     * Applies a non-linear filter, reporting finished tiles to a progress
+     * handle and stopping early if it is cancelled.
+     *
+     * @param inputImg The input BufferedImage to be processed (not modified).
+     * @param filter   The filter to apply.
+     * @param border   How pixels beyond the image border are read.
+     * @param progress Progress and cancellation handle, or null.
+     * @return The output image and how long each step took.
+     * @throws java.util.concurrent.CancellationException if progress was cancelled before the call finished
+     */
+    default FilterResult apply(BufferedImage inputImg, NonLinearFilter filter, BorderMode border,
+                               FilterProgress progress) {
+        return apply(inputImg, filter, border, progress, null);
+    }
+
+    /**
+     * Applies a non-linear filter, writing the output into an image the
+     * caller supplies instead of allocating one.
+     *
+     * @param inputImg    The input BufferedImage to be processed (not modified).
+     * @param filter      The filter to apply.
+     * @param border      How pixels beyond the image border are read.
+     * @param progress    Progress and cancellation handle, or null.
+     * @param destination Image of the output size to write into (any type, all of it is
+     *                    overwritten), or null for a new one. It is the result's image.
+     * @return The output image and how long each step took.
+     * @throws IllegalArgumentException if the destination is not the output size
+     * @throws java.util.concurrent.CancellationException if progress was cancelled before the call finished
+     */
+    FilterResult apply(BufferedImage inputImg, NonLinearFilter filter, BorderMode border, FilterProgress progress,
+                       BufferedImage destination);
+
+    /**
+     * Returns a short human-readable name, e.g. "Sequential" or "Parallel (8 threads)".
+     */
+    String getName();
+}
@@ -0,0 +1,505 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import org.junit.jupiter.api.Test;
+import javax.imageio.ImageIO;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Test class to verify that the specialised convolution paths produce the
+ * same output as the direct K x K loop.
+ */
+public class ConvolutionPathsTest {
+
+    // Allowed per-channel RGB difference between a fast path and the direct loop
+    private static final int PIXEL_TOLERANCE = 1;
+
+    /**
+     * Builds a normalised Gaussian kernel of the given size.
+     */
+    static float[][] gaussian(int size, float sigma) {
+        float[] weights = new float[size];
+        float sum = 0;
+        for (int i = 0; i < size; i++) {
+            float d = i - size / 2;
+            weights[i] = (float) Math.exp(-d * d / (2 * sigma * sigma));
+            sum += weights[i];
+        }
+        float[][] kernel = new float[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                kernel[i][j] = weights[i] * weights[j] / (sum * sum);
+            }
+        }
+        return kernel;
+    }
+
+    /**
+     * Runs the direct K x K loop over the whole image, used as the reference.
+     */
+    static int[] direct(int[] src, int width, int height, float[][] kernel, float multiplier) {
+        int[] dst = new int[width * height];
+        RasterConvolution.convolveRegion(src, dst, width, height,
+                RasterConvolution.flatten(kernel), kernel.length, multiplier, 0, 0, width, height);
+        return dst;
+    }
+
+    /**
+     * Per-tap reference that resolves every tap through the border mode. With
+     * CROP_VALID only the pixels whose neighbourhood lies inside the image are returned.
+     */
+    static int[] bordered(int[] src, int width, int height, float[][] kernel, float multiplier, BorderMode border) {
+        int kernelLen = kernel.length;
+        int half = kernelLen / 2;
+        int outWidth = border.outputSize(width, kernelLen);
+        int outHeight = border.outputSize(height, kernelLen);
+        int offset = border == BorderMode.CROP_VALID ? half : 0;
+        int[] dst = new int[outWidth * outHeight];
+        for (int y = 0; y < outHeight; y++) {
+            for (int x = 0; x < outWidth; x++) {
+                float red = 0, green = 0, blue = 0;
+                for (int j = 0; j < kernelLen; j++) {
+                    for (int i = 0; i < kernelLen; i++) {
+                        int sy = border.index(y + offset - half + j, height);
+                        int sx = border.index(x + offset - half + i, width);
+                        if (sy < 0 || sx < 0) {
+                            continue;
+                        }
+                        int rgb = src[sy * width + sx];
+                        red += ((rgb >> 16) & 0xFF) * kernel[i][j];
+                        green += ((rgb >> 8) & 0xFF) * kernel[i][j];
+                        blue += (rgb & 0xFF) * kernel[i][j];
+                    }
+                }
+                dst[y * outWidth + x] = RasterConvolution.pack(red * multiplier, green * multiplier, blue * multiplier);
+            }
+        }
+        return dst;
+    }
+
+    /**
+     * Fails if any channel of the two packed RGB arrays differs by more than the tolerance.
+     */
+    static void assertClose(int[] expected, int[] actual, int width) {
+        assertEquals(expected.length, actual.length, "Size mismatch");
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int e = (expected[i] >> shift) & 0xFF;
+                int a = (actual[i] >> shift) & 0xFF;
+                if (Math.abs(e - a) > PIXEL_TOLERANCE) {
+                    fail("Pixel mismatch at (" + (i % width) + "," + (i / width) + "): expected "
+                            + Integer.toHexString(expected[i]) + " but was " + Integer.toHexString(actual[i]));
+                }
+            }
+        }
+    }
+
+    static BufferedImage loadSample() throws IOException {
+        return ImageIO.read(new File("Samples/s1-300x300.jpg"));
+    }
+
+    /**
+     * Tests that rank-1 kernels are detected and others are rejected.
+     */
+    @Test
+    public void testSeparableDetection() {
+        assertNotNull(SeparableKernel.detect(new float[][]{{1, 2, 1}, {2, 4, 2}, {1, 2, 1}}), "Gaussian Blur");
+        assertNotNull(SeparableKernel.detect(new float[][]{{1, 1, 1}, {1, 1, 1}, {1, 1, 1}}), "Soft Blur");
+        assertNotNull(SeparableKernel.detect(gaussian(15, 4f)), "15x15 Gaussian");
+        assertNull(SeparableKernel.detect(new float[][]{{-1, -1, -1}, {-1, 8, -1}, {-1, -1, -1}}), "Edge Detection");
+        assertNull(SeparableKernel.detect(new float[][]{{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}}), "Sharpen");
+    }
+
+    /**
+     * Tests that the two-pass separable path matches the direct loop on a 15x15 blur.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testSeparableMatchesDirect() throws IOException {
+        BufferedImage input = loadSample();
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+        float[][] kernel = gaussian(15, 4f);
+
+        int[] dst = new int[width * height];
+        new TileScheduler(width, height, kernel.length).runSequential(RasterConvolution.withBorder(
+                SeparableKernel.detect(kernel).withMultiplier(1.5f), kernel.length, src, dst, width, height,
+                BorderMode.WRAP));
+
+        assertClose(direct(src, width, height, kernel, 1.5f), dst, width);
+    }
+
+    /**
+     * Tests that the FFT path matches the direct loop for a non-separable
+     * kernel, an integer kernel and a non-square image.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testFFTMatchesDirect() throws IOException {
+        BufferedImage input = loadSample().getSubimage(0, 0, 300, 217);
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+
+        // Non-separable: a Gaussian with a sharpening centre tap
+        float[][] kernel = gaussian(11, 3f);
+        kernel[5][5] += 0.5f;
+        int[] dst = new int[width * height];
+        FFTConvolution.convolve(src, dst, width, height, kernel, 0.8f, null);
+        assertClose(direct(src, width, height, kernel, 0.8f), dst, width);
+
+        // Integer kernel (Edge Detection) on the ForkJoin common pool
+        float[][] edge = {{-1, -1, -1}, {-1, 8, -1}, {-1, -1, -1}};
+        FFTConvolution.convolve(src, dst, width, height, edge, 3f, ForkJoinPool.commonPool());
+        assertClose(direct(src, width, height, edge, 3f), dst, width);
+    }
+
+    /**
+     * Tests that a clamping chain is fused strip by strip with the same
+     * output as running each filter as a separate call.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testPipelineFusedMatchesChain() throws IOException {
+        BufferedImage input = loadSample();
+        float[][] sharpen = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        float[][] edge = {{-1, -1, -1}, {-1, 8, -1}, {-1, -1, -1}};
+        float[][] blur = gaussian(5, 1.5f);
+
+        BufferedImage expected = input;
+        for (float[][] kernel : new float[][][]{sharpen, edge, blur}) {
+            expected = new Sequential().apply(expected, kernel, 1f).getImage();
+        }
+
+        FilterPipeline pipeline = new FilterPipeline().add(sharpen, 1f).add(edge, 1f).add(blur, 1f);
+        assertEquals(3, pipeline.getPassCount(input.getWidth(), input.getHeight()), "Clamping stages must not compose");
+        assertClose(RasterConvolution.readPixels(expected),
+                RasterConvolution.readPixels(pipeline.apply(input).getImage()), input.getWidth());
+
+        FilterPipeline parallel = new FilterPipeline(4).add(sharpen, 1f).add(edge, 1f).add(blur, 1f);
+        assertClose(RasterConvolution.readPixels(expected),
+                RasterConvolution.readPixels(parallel.apply(input).getImage()), input.getWidth());
+    }
+
+    /**
+     * Tests that non-clamping blurs are composed into a single pass that
+     * matches the chain up to the rounding of the skipped intermediate.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testPipelineComposition() throws IOException {
+        BufferedImage input = loadSample();
+        float[][] gaussianBlur = {{1, 2, 1}, {2, 4, 2}, {1, 2, 1}};
+        float[][] softBlur = {{1, 1, 1}, {1, 1, 1}, {1, 1, 1}};
+
+        BufferedImage expected = new Sequential().apply(input, gaussianBlur, 1f / 16f).getImage();
+        expected = new Sequential().apply(expected, softBlur, 1f / 9f).getImage();
+
+        FilterPipeline pipeline = new FilterPipeline().add(gaussianBlur, 1f / 16f).add(softBlur, 1f / 9f);
+        assertEquals(1, pipeline.getPassCount(input.getWidth(), input.getHeight()), "Blurs should compose");
+        assertClose(RasterConvolution.readPixels(expected),
+                RasterConvolution.readPixels(pipeline.apply(input).getImage()), input.getWidth());
+    }
+
+    /**
+     * Tests that the fixed-point path reproduces the float loop exactly for
+     * every built-in filter at every slider intensity, and stays within
+     * one level of it for a rational kernel.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testFixedPointMatchesFloat() throws IOException {
+        BufferedImage input = loadSample();
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+        int[] dst = new int[width * height];
+
+        for (String name : FilterCatalog.getNames()) {
+            FilterCatalog.Filter filter = FilterCatalog.get(name);
+            for (int intensity = 1; intensity <= 10; intensity++) {
+                float multiplier = filter.getMultiplier(intensity);
+                FixedPointKernel fixed = FixedPointKernel.detect(filter.getKernel(), multiplier);
+                assertNotNull(fixed, name + " at intensity " + intensity);
+                RasterConvolution.withBorder(fixed, fixed.length(), src, dst, width, height, BorderMode.WRAP)
+                        .apply(0, 0, width, height);
+                assertArrayEquals(direct(src, width, height, filter.getKernel(), multiplier), dst,
+                        name + " at intensity " + intensity);
+            }
+        }
+
+        float[][] rational = {{0, 1 / 8f, 0}, {1 / 8f, 4 / 8f, 1 / 8f}, {0, 1 / 8f, 0}};
+        FixedPointKernel fixed = FixedPointKernel.detect(rational, 1.5f);
+        assertEquals(8, fixed.getDenominator(), "Denominator of the 1/8 kernel");
+        RasterConvolution.withBorder(fixed, fixed.length(), src, dst, width, height, BorderMode.WRAP)
+                .apply(0, 0, width, height);
+        assertClose(direct(src, width, height, rational, 1.5f), dst, width);
+
+        assertNull(FixedPointKernel.detect(gaussian(5, 1.3f), 1f), "Irrational Gaussian");
+    }
+
+    /**
+     * Tests that the SIMD backend matches the direct loop for small and large
+     * kernels, including a tile width that is not a multiple of the vector
+     * length. Does nothing when the JVM runs without jdk.incubator.vector.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testVectorMatchesDirect() throws IOException {
+        if (!VectorBackend.isAvailable()) {
+            return;
+        }
+        BufferedImage input = loadSample().getSubimage(0, 0, 300, 217);
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+
+        float[][] sharpGaussian = gaussian(11, 3f);
+        sharpGaussian[5][5] += 0.5f;
+        for (float[][] kernel : new float[][][]{{{-1, -1, -1}, {-1, 8, -1}, {-1, -1, -1}}, sharpGaussian}) {
+            int[] dst = new int[width * height];
+            new TileScheduler(width, height, 123, 61).runSequential(RasterConvolution.withBorder(
+                    VectorBackend.createLoop(kernel, 0.9f), kernel.length, src, dst, width, height, BorderMode.WRAP));
+            assertClose(direct(src, width, height, kernel, 0.9f), dst, width);
+        }
+    }
+
+    /**
+     * Tests every border mode against the per-tap reference, through the
+     * sequential and FFT engines and through the direct loop on odd-sized
+     * tiles, including the smaller output of CROP_VALID.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testBorderModes() throws IOException {
+        // Where coordinates -2, -1, 5 and 6 of a 5-pixel row read from
+        int[] outside = {-2, -1, 5, 6};
+        int[][] sources = {{3, 4, 0, 1}, {0, 0, 4, 4}, {1, 0, 4, 3}, {-1, -1, -1, -1}, {0, 0, 4, 4}};
+        for (BorderMode border : BorderMode.values()) {
+            for (int k = 0; k < outside.length; k++) {
+                assertEquals(sources[border.ordinal()][k], border.index(outside[k], 5), border + " at " + outside[k]);
+            }
+        }
+
+        BufferedImage input = loadSample().getSubimage(10, 20, 97, 61);
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+
+        float[][] sharpen = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        float[][] blur = gaussian(9, 2.5f);
+        for (BorderMode border : BorderMode.values()) {
+            for (float[][] kernel : new float[][][]{sharpen, blur}) {
+                String name = border + " " + kernel.length + "x" + kernel.length;
+                int outWidth = border.outputSize(width, kernel.length);
+                int outHeight = border.outputSize(height, kernel.length);
+                int[] expected = bordered(src, width, height, kernel, 1.2f, border);
+
+                for (ConvolutionEngine engine : new ConvolutionEngine[]{new Sequential(), new FFTEngine(2)}) {
+                    BufferedImage output = engine.apply(input, kernel, 1.2f, border).getImage();
+                    assertEquals(outWidth, output.getWidth(), name + " width");
+                    assertEquals(outHeight, output.getHeight(), name + " height");
+                    assertClose(expected, RasterConvolution.readPixels(output), outWidth);
+                }
+
+                if (border != BorderMode.CROP_VALID) {
+                    int[] dst = new int[width * height];
+                    new TileScheduler(width, height, 23, 17).runSequential(RasterConvolution.withBorder(
+                            RasterConvolution.directLoop(kernel, 1.2f), kernel.length, src, dst, width, height, border));
+                    assertArrayEquals(expected, dst, name + " direct loop");
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the summed-area table path against the per-tap reference for box
+     * kernels in every border mode, and that one table answers several radii.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testSummedAreaTable() throws IOException {
+        BufferedImage input = loadSample().getSubimage(10, 20, 97, 61);
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+
+        for (int size : new int[]{5, 11}) {
+            float[][] box = new float[size][size];
+            for (float[] row : box) {
+                Arrays.fill(row, 1f / (size * size));
+            }
+            assertTrue(SummedAreaTable.isPreferred(box), size + "x" + size + " box");
+            for (BorderMode border : BorderMode.values()) {
+                BufferedImage output = new Parallel(2).apply(input, box, 1.2f, border).getImage();
+                assertClose(bordered(src, width, height, box, 1.2f, border), RasterConvolution.readPixels(output),
+                        output.getWidth());
+            }
+        }
+        assertFalse(SummedAreaTable.isPreferred(gaussian(9, 2.5f)), "weighted kernel");
+
+        // One table, every radius up to its margin
+        SummedAreaTable table = new SummedAreaTable(src, width, height, 6, BorderMode.WRAP, null);
+        for (int radius = 0; radius <= 6; radius++) {
+            int[] expected = new int[width * height];
+            int[] actual = new int[width * height];
+            int span = 2 * radius + 1;
+            float[][] box = new float[span][span];
+            for (float[] row : box) {
+                Arrays.fill(row, 1f / (span * span));
+            }
+            SummedAreaTable.convolve(src, expected, width, height, box, 1f, BorderMode.WRAP, null, null);
+            table.mean(radius, actual, ForkJoinPool.commonPool());
+            assertArrayEquals(expected, actual, "radius " + radius);
+        }
+        long red = 0;
+        for (int y = 3; y < 40; y++) {
+            for (int x = 5; x < 90; x++) {
+                red += (src[y * width + x] >> 16) & 0xFF;
+            }
+        }
+        assertEquals(red, table.sum(0, 5, 3, 90, 40));
+    }
+
+    /**
+     * Tests the sliding-histogram median against sorting every window, in
+     * every border mode and through both engines, and that the bilateral
+     * grid gives the same pixels whichever engine or tiling runs it.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testNonLinearFilters() throws IOException {
+        BufferedImage input = loadSample().getSubimage(10, 20, 97, 61);
+        int width = input.getWidth();
+        int height = input.getHeight();
+        int[] src = RasterConvolution.readPixels(input);
+
+        for (int radius : new int[]{1, 4, 40}) {
+            MedianFilter median = new MedianFilter(radius);
+            for (BorderMode border : BorderMode.values()) {
+                String name = border + " radius " + radius;
+                int outWidth = border.outputSize(width, median.getWindowSize());
+                int outHeight = border.outputSize(height, median.getWindowSize());
+                if (outHeight < 1) {
+                    continue;
+                }
+                // CROP_VALID keeps the windows that lie inside the image
+                int[] full = sortedMedian(src, width, height, radius, border);
+                int[] expected = new int[outWidth * outHeight];
+                for (int y = 0; y < outHeight; y++) {
+                    int left = (width - outWidth) / 2, top = (height - outHeight) / 2;
+                    System.arraycopy(full, (y + top) * width + left, expected, y * outWidth, outWidth);
+                }
+
+                for (ConvolutionEngine engine : new ConvolutionEngine[]{new Sequential(), new Parallel(3)}) {
+                    BufferedImage output = engine.apply(input, median, border).getImage();
+                    assertEquals(outWidth, output.getWidth(), name + " width");
+                    assertArrayEquals(expected, RasterConvolution.readPixels(output), name + " " + engine.getName());
+                }
+            }
+        }
+
+        BilateralFilter bilateral = new BilateralFilter(3, 24);
+        int[] whole = new int[width * height];
+        bilateral.createOperation(src, whole, width, height, BorderMode.CLAMP).apply(0, 0, width, height);
+        int[] tiled = new int[width * height];
+        new TileScheduler(width, height, 23, 17).runSequential(
+                bilateral.createOperation(src, tiled, width, height, BorderMode.CLAMP));
+        assertArrayEquals(whole, tiled, "bilateral on odd-sized tiles");
+        for (ConvolutionEngine engine : new ConvolutionEngine[]{new Sequential(), new Parallel(3)}) {
+            assertArrayEquals(whole, RasterConvolution.readPixels(
+                    engine.apply(input, bilateral, BorderMode.CLAMP).getImage()), "bilateral " + engine.getName());
+        }
+    }
+
+    /**
+     * Tests that patching the old output after editing a few rectangles of
+     * the source gives the same pixels as filtering the edited source again,
+     * in every border mode, with edits next to the edges so WRAP regions
+     * cross over to the opposite side.
+     *
+     * @throws IOException if the sample image cannot be loaded
+     */
+    @Test
+    public void testIncrementalFilter() throws IOException {
+        BufferedImage sample = loadSample().getSubimage(10, 20, 97, 61);
+        int width = sample.getWidth();
+        int height = sample.getHeight();
+        List<Rectangle> dirty = List.of(new Rectangle(40, 25, 6, 3), new Rectangle(0, 0, 3, 4),
+                new Rectangle(90, 55, 20, 20));
+
+        float[][] sharpen = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        for (float[][] kernel : new float[][][]{sharpen, gaussian(5, 1.5f)}) {
+            for (BorderMode border : BorderMode.values()) {
+                String name = border + " " + kernel.length + "x" + kernel.length;
+                BufferedImage source = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                RasterConvolution.writePixels(source, RasterConvolution.readPixels(sample));
+                BufferedImage output = new Sequential().apply(source, kernel, 1.2f, border).getImage();
+
+                for (Rectangle rect : dirty) {
+                    Rectangle edit = rect.intersection(new Rectangle(0, 0, width, height));
+                    for (int y = edit.y; y < edit.y + edit.height; y++) {
+                        for (int x = edit.x; x < edit.x + edit.width; x++) {
+                            source.setRGB(x, y, ~source.getRGB(x, y));
+                        }
+                    }
+                }
+                List<Rectangle> regions = new IncrementalFilter(kernel, 1.2f, border)
+                        .update(source, output, dirty, ForkJoinPool.commonPool());
+
+                int[] expected = RasterConvolution.readPixels(
+                        new Sequential().apply(source, kernel, 1.2f, border).getImage());
+                assertArrayEquals(expected, RasterConvolution.readPixels(output), name);
+                int patched = 0;
+                for (Rectangle region : regions) {
+                    patched += region.width * region.height;
+                }
+                assertTrue(patched < output.getWidth() * output.getHeight() / 4, name + " patched " + patched);
+            }
+        }
+    }
+
+    // Per-channel median of every window by sorting its values
+    private static int[] sortedMedian(int[] src, int width, int height, int radius, BorderMode border) {
+        int span = 2 * radius + 1;
+        int[] values = new int[span * span];
+        int[] dst = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    int n = 0;
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        for (int dx = -radius; dx <= radius; dx++) {
+                            int sy = border.index(y + dy, height), sx = border.index(x + dx, width);
+                            values[n++] = sy < 0 || sx < 0 ? 0 : (src[sy * width + sx] >> shift) & 0xFF;
+                        }
+                    }
+                    Arrays.sort(values);
+                    dst[y * width + x] |= values[values.length / 2] << shift;
+                }
+            }
+        }
+        return dst;
+    }
+}
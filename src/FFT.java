@@ -0,0 +1,114 @@
+/**
+ * In-place complex radix-2 FFT of a fixed power-of-two length.
+ * A plan only holds precomputed tables, so one instance can be shared by
+ * several threads.
+ */
+public class FFT {
+
+    private final int n;
+    private final int[] bitReverse;
+    private final double[] cosTable, sinTable;
+
+    /**
+     * Creates a plan for transforms of length n.
+     *
+     * @param n Transform length, a power of two.
+     */
+    public FFT(int n) {
+        if (n < 1 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT length must be a power of two: " + n);
+        }
+        this.n = n;
+
+        bitReverse = new int[n];
+        int bits = Integer.numberOfTrailingZeros(n);
+        for (int i = 0; i < n; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        // Twiddle factors exp(-2*pi*i*k/n) for the first half of the circle
+        cosTable = new double[n / 2];
+        sinTable = new double[n / 2];
+        for (int i = 0; i < n / 2; i++) {
+            cosTable[i] = Math.cos(2 * Math.PI * i / n);
+            sinTable[i] = -Math.sin(2 * Math.PI * i / n);
+        }
+    }
+
+    public int length() {
+        return n;
+    }
+
+    /**
+     * Forward transform (exponent sign -1) of re/im[offset .. offset + n), in place.
+     * The inverse is obtained by conjugating input and output and dividing by n.
+     *
+     * @param re     Real parts.
+     * @param im     Imaginary parts.
+     * @param offset Index of the first element.
+     */
+    public void transform(double[] re, double[] im, int offset) {
+        // Reorder into bit-reversed index order
+        for (int i = 0; i < n; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                double t = re[offset + i];
+                re[offset + i] = re[offset + j];
+                re[offset + j] = t;
+                t = im[offset + i];
+                im[offset + i] = im[offset + j];
+                im[offset + j] = t;
+            }
+        }
+
+        // Butterflies, doubling the transform size each stage
+        for (int size = 2; size <= n; size <<= 1) {
+            int halfSize = size >> 1;
+            int step = n / size;
+            for (int start = offset; start < offset + n; start += size) {
+                for (int k = 0, t = 0; k < halfSize; k++, t += step) {
+                    int a = start + k;
+                    int b = a + halfSize;
+                    double wr = cosTable[t], wi = sinTable[t];
+                    double xr = re[b] * wr - im[b] * wi;
+                    double xi = re[b] * wi + im[b] * wr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                }
+            }
+        }
+    }
+
+    /**
+     * 2D forward transform of a square n x n block stored row-major, in place.
+     * Rows are transformed, the block is transposed, and rows are transformed
+     * again, so the spectrum comes out transposed. Applying this to a spectrum
+     * that is itself transposed yields the untransposed result, so a forward
+     * and an inverse transform in a row need no extra transposition.
+     *
+     * @param re Real parts (n * n).
+     * @param im Imaginary parts (n * n).
+     */
+    public void transform2D(double[] re, double[] im) {
+        for (int row = 0; row < n * n; row += n) {
+            transform(re, im, row);
+        }
+        transpose(re);
+        transpose(im);
+        for (int row = 0; row < n * n; row += n) {
+            transform(re, im, row);
+        }
+    }
+
+    private void transpose(double[] a) {
+        for (int y = 0; y < n; y++) {
+            for (int x = y + 1; x < n; x++) {
+                double t = a[y * n + x];
+                a[y * n + x] = a[x * n + y];
+                a[x * n + y] = t;
+            }
+        }
+    }
+}
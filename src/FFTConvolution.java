@@ -0,0 +1,357 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Frequency-domain convolution. Every output tile is the valid part of a
+ * circular correlation of its input block (tile plus halo, with pixels
+ * beyond the image taken from the border mode) with the kernel, so it can
+ * be computed as IFFT(FFT(block) * conj(FFT(kernel))) with power-of-two
+ * block transforms (overlap-save). Per-pixel cost depends only on the block
+ * size, which beats the K*K direct loop for large kernels. Blocks are
+ * independent tiles, so they run on the same TileScheduler / ForkJoinPool
+ * machinery as the spatial paths. See FFTEngine for the image-level entry point.
+ */
+public class FFTConvolution {
+
+    // Kernels smaller than this never go through the FFT, so they skip calibration
+    private static final int MIN_KERNEL_SIZE = 7;
+
+    // Block size bounds and target: about 8x the halo, so the valid part covers most of the block
+    private static final int MIN_BLOCK = 64;
+    private static final int MAX_BLOCK = 1024;
+    private static final int BLOCK_FACTOR = 8;
+
+    // Largest kernel size searched for the crossover
+    private static final int MAX_CROSSOVER_SEARCH = 255;
+
+    // Untimed calls on a small region before the direct and separable probes are measured
+    private static final int WARMUP_CALLS = 200;
+    private static final int WARMUP_REGION = 64;
+
+    // Smallest kernel size at which the FFT beats the direct / separable loops (0 = not yet calibrated)
+    private static volatile int directCrossover;
+    private static volatile int separableCrossover;
+
+    // Per-thread block buffers {re, im}, grown to the largest block used so far
+    private static final ThreadLocal<double[][]> SCRATCH = ThreadLocal.withInitial(() -> new double[][]{new double[0], new double[0]});
+
+    private final int half;
+    private final int blockSize;
+    private final int tileSize;
+    private final FFT fft;
+
+    // Transposed 2D spectrum of the kernel placed on a blockSize x blockSize grid
+    private final double[] spectrumRe, spectrumIm;
+
+    /**
+     * Prepares the block transform and kernel spectrum for a kernel.
+     *
+     * @param kernel The convolution kernel matrix (square).
+     */
+    public FFTConvolution(float[][] kernel) {
+        int kernelLen = kernel.length;
+        this.half = kernelLen / 2;
+        this.blockSize = blockSizeFor(kernelLen);
+        this.tileSize = blockSize - (kernelLen - 1);
+        this.fft = new FFT(blockSize);
+
+        // Tap (i, j) reads offset (i - half, j - half); place it at that wrapped grid position
+        spectrumRe = new double[blockSize * blockSize];
+        spectrumIm = new double[blockSize * blockSize];
+        for (int i = 0; i < kernelLen; i++) {
+            for (int j = 0; j < kernelLen; j++) {
+                spectrumRe[Math.floorMod(j - half, blockSize) * blockSize + Math.floorMod(i - half, blockSize)] += kernel[i][j];
+            }
+        }
+        fft.transform2D(spectrumRe, spectrumIm);
+    }
+
+    /**
+     * Returns the edge length of the output tile one block transform produces.
+     */
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Convolves the whole image through block FFTs with wraparound edges.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param pool       Pool to spread the blocks over, or null to run on the calling thread.
+     */
+    public static void convolve(int[] src, int[] dst, int width, int height,
+                                float[][] kernel, float multiplier, ForkJoinPool pool) {
+        convolve(src, dst, width, height, kernel, multiplier, BorderMode.WRAP, pool);
+    }
+
+    /**
+     * Convolves the whole image through block FFTs. The input blocks are
+     * gathered through the border mode, so every mode costs the same;
+     * CROP_VALID is computed as CLAMP and cropped by the caller.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     * @param pool       Pool to spread the blocks over, or null to run on the calling thread.
+     */
+    public static void convolve(int[] src, int[] dst, int width, int height,
+                                float[][] kernel, float multiplier, BorderMode border, ForkJoinPool pool) {
+        convolve(src, dst, width, height, kernel, multiplier, border, pool, null);
+    }
+
+    /**
+     * Same as {@link #convolve(int[], int[], int, int, float[][], float, BorderMode, ForkJoinPool)},
+     * reporting each finished block to a progress handle.
+     *
+     * @param progress Progress and cancellation handle, or null.
+     */
+    public static void convolve(int[] src, int[] dst, int width, int height, float[][] kernel,
+                                float multiplier, BorderMode border, ForkJoinPool pool, FilterProgress progress) {
+        FFTConvolution plan = new FFTConvolution(kernel);
+        TileScheduler tiles = new TileScheduler(width, height, plan.tileSize, plan.tileSize);
+        TileOperation op = FilterProgress.track(progress, (x0, y0, x1, y1) ->
+                plan.convolveRegion(src, dst, width, height, multiplier, border, x0, y0, x1, y1));
+
+        if (pool == null) {
+            tiles.runSequential(op);
+        } else {
+            pool.invoke(tiles.createTask(op, pool.getParallelism()));
+        }
+    }
+
+    /**
+     * Decides whether the FFT is expected to be faster than the direct path for
+     * this kernel. The crossover sizes are measured on first use.
+     *
+     * @param kernel The convolution kernel matrix (square).
+     * @return True if the kernel is at or above the calibrated crossover.
+     */
+    public static boolean isPreferred(float[][] kernel) {
+        int kernelLen = kernel.length;
+        if (kernelLen < MIN_KERNEL_SIZE) {
+            return false;
+        }
+        if (directCrossover == 0) {
+            calibrate();
+        }
+        boolean separable = SeparableKernel.detect(kernel) != null;
+        return kernelLen >= (separable ? separableCrossover : directCrossover);
+    }
+
+    /**
+     * Returns the calibrated crossover kernel sizes as {direct, separable}.
+     * Integer.MAX_VALUE means the FFT never won within the searched range.
+     */
+    public static int[] getCrossover() {
+        if (directCrossover == 0) {
+            calibrate();
+        }
+        return new int[]{directCrossover, separableCrossover};
+    }
+
+    /**
+     * Applies the kernel to the rectangle [x0, x1) x [y0, y1), one block
+     * transform per tileSize x tileSize piece.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     * @param x0         First column (inclusive).
+     * @param y0         First row (inclusive).
+     * @param x1         Last column (exclusive).
+     * @param y1         Last row (exclusive).
+     */
+    public void convolveRegion(int[] src, int[] dst, int width, int height, float multiplier, BorderMode border,
+                               int x0, int y0, int x1, int y1) {
+        for (int by = y0; by < y1; by += tileSize) {
+            for (int bx = x0; bx < x1; bx += tileSize) {
+                convolveBlock(src, dst, width, height, multiplier, border,
+                        bx, by, Math.min(bx + tileSize, x1), Math.min(by + tileSize, y1));
+            }
+        }
+    }
+
+    // One overlap-save block: the input block starts half a kernel above and left of the output tile
+    private void convolveBlock(int[] src, int[] dst, int width, int height, float multiplier, BorderMode border,
+                               int x0, int y0, int x1, int y1) {
+        int n = blockSize;
+        double[][] buffers = SCRATCH.get();
+        if (buffers[0].length < n * n) {
+            buffers = new double[][]{new double[n * n], new double[n * n]};
+            SCRATCH.set(buffers);
+        }
+        double[] re = buffers[0], im = buffers[1];
+        double scale = 1.0 / ((double) n * n);
+
+        // Source row and column of every block position; -1 (ZERO mode) reads as black
+        int[] rows = new int[n], columns = new int[n];
+        for (int v = 0; v < n; v++) {
+            rows[v] = border.index(y0 - half + v, height);
+            columns[v] = border.index(x0 - half + v, width);
+        }
+
+        // Pass 1: red + i * green (the kernel is real, so they come back in re and im separately)
+        for (int v = 0; v < n; v++) {
+            int srcRow = rows[v] * width;
+            for (int u = 0; u < n; u++) {
+                int rgb = rows[v] < 0 || columns[u] < 0 ? 0 : src[srcRow + columns[u]];
+                re[v * n + u] = (rgb >> 16) & 0xFF;
+                im[v * n + u] = (rgb >> 8) & 0xFF;
+            }
+        }
+        correlate(re, im);
+        for (int y = y0; y < y1; y++) {
+            int row = (y - y0 + half) * n + half - x0;
+            for (int x = x0; x < x1; x++) {
+                dst[y * width + x] = RasterConvolution.pack(
+                        snap(re[row + x] * scale) * multiplier, snap(-im[row + x] * scale) * multiplier, 0);
+            }
+        }
+
+        // Pass 2: blue
+        for (int v = 0; v < n; v++) {
+            int srcRow = rows[v] * width;
+            for (int u = 0; u < n; u++) {
+                re[v * n + u] = rows[v] < 0 || columns[u] < 0 ? 0 : src[srcRow + columns[u]] & 0xFF;
+                im[v * n + u] = 0;
+            }
+        }
+        correlate(re, im);
+        for (int y = y0; y < y1; y++) {
+            int row = (y - y0 + half) * n + half - x0;
+            for (int x = x0; x < x1; x++) {
+                dst[y * width + x] |= RasterConvolution.pack(0, 0, snap(re[row + x] * scale) * multiplier);
+            }
+        }
+    }
+
+    // Forward transform, multiply by conj(kernel spectrum), then the inverse as the conjugate of a
+    // forward transform. Leaves n*n * conj(result) in re/im; the caller applies scale and sign.
+    private void correlate(double[] re, double[] im) {
+        fft.transform2D(re, im);
+        for (int p = 0, end = blockSize * blockSize; p < end; p++) {
+            double a = re[p], b = im[p], c = spectrumRe[p], d = spectrumIm[p];
+            // (a + ib) * (c - id), conjugated so the next forward transform acts as the inverse
+            re[p] = a * c + b * d;
+            im[p] = -(b * c - a * d);
+        }
+        fft.transform2D(re, im);
+    }
+
+    // Values that are integers up to rounding noise are snapped, so integer kernels truncate like the direct loop
+    private static float snap(double value) {
+        double nearest = Math.rint(value);
+        return (float) (Math.abs(value - nearest) < 1e-6 ? nearest : value);
+    }
+
+    // Power-of-two block size for a kernel, always larger than the kernel's halo
+    static int blockSizeFor(int kernelLen) {
+        int halo = kernelLen - 1;
+        int target = Math.min(MAX_BLOCK, Math.max(MIN_BLOCK, BLOCK_FACTOR * halo));
+        int size = Integer.highestOneBit(target - 1) << 1;
+        while (size <= halo) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Measures, single-threaded on a synthetic image, the per-tap cost of the
+     * direct and separable loops and the per-pixel cost of one FFT block of
+     * each size, then finds the smallest kernel size at which the FFT block
+     * for that kernel is cheaper than K*K (or 2K) taps.
+     */
+    private static synchronized void calibrate() {
+        if (directCrossover != 0) {
+            return;
+        }
+        int size = MAX_BLOCK;
+        int[] src = new int[size * size];
+        int[] dst = new int[size * size];
+        Random random = new Random(42);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt(0x1000000);
+        }
+
+        // Probes: a non-separable 9x9 kernel with random weights and a separable 63x63 box,
+        // wide enough to stay on the two-pass loop even with the SIMD backend
+        int probeLen = 9;
+        float[][] probe = new float[probeLen][probeLen];
+        for (float[] column : probe) {
+            for (int j = 0; j < probeLen; j++) {
+                column[j] = random.nextFloat();
+            }
+        }
+        int boxLen = 63;
+        float[][] box = new float[boxLen][boxLen];
+        for (float[] column : box) {
+            Arrays.fill(column, 1f);
+        }
+        int region = 256;
+        TileOperation direct = RasterConvolution.createOperation(src, dst, size, size, probe, 1f);
+        TileOperation separable = RasterConvolution.createOperation(src, dst, size, size, box, 1f);
+        // Let the JIT compile both loops first; the SIMD path in particular is
+        // many times slower until it is compiled
+        for (int i = 0; i < WARMUP_CALLS; i++) {
+            direct.apply(0, 0, WARMUP_REGION, WARMUP_REGION);
+            separable.apply(0, 0, WARMUP_REGION, WARMUP_REGION);
+        }
+        double directPerTap = bestTime(() -> direct.apply(0, 0, region, region))
+                / ((double) region * region * probeLen * probeLen);
+        double separablePerTap = bestTime(() -> separable.apply(0, 0, region, region))
+                / ((double) region * region * 2 * boxLen);
+
+        int directSize = Integer.MAX_VALUE, separableSize = Integer.MAX_VALUE;
+        double fftPerPixel = 0;
+        int measuredBlock = 0;
+        for (int kernelLen = MIN_KERNEL_SIZE; kernelLen <= MAX_CROSSOVER_SEARCH; kernelLen += 2) {
+            // One FFT measurement per block size, on a single full tile
+            if (blockSizeFor(kernelLen) != measuredBlock) {
+                float[][] kernel = new float[kernelLen][kernelLen];
+                kernel[kernelLen / 2][kernelLen / 2] = 1f;
+                FFTConvolution plan = new FFTConvolution(kernel);
+                int tile = plan.tileSize;
+                fftPerPixel = bestTime(() -> plan.convolveRegion(src, dst, size, size, 1f, BorderMode.WRAP, 0, 0, tile, tile))
+                        / ((double) tile * tile);
+                measuredBlock = plan.blockSize;
+            }
+            if (directSize == Integer.MAX_VALUE && fftPerPixel < directPerTap * kernelLen * kernelLen) {
+                directSize = kernelLen;
+            }
+            if (separableSize == Integer.MAX_VALUE && fftPerPixel < separablePerTap * 2 * kernelLen) {
+                separableSize = kernelLen;
+            }
+            if (directSize != Integer.MAX_VALUE && separableSize != Integer.MAX_VALUE) {
+                break;
+            }
+        }
+
+        // The direct crossover is written last since it doubles as the "calibrated" flag
+        separableCrossover = separableSize;
+        directCrossover = directSize;
+    }
+
+    // Best of three runs, in nanoseconds
+    private static long bestTime(Runnable run) {
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
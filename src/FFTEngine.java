@@ -0,0 +1,51 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Engine that always convolves through FFTConvolution, whatever the kernel
+ * size, with the blocks spread over a shared pool.
+ */
+public class FFTEngine extends AbstractConvolutionEngine {
+
+    // Fixed thread count, or 0 to follow PoolManager's default at call time
+    private final int numThreads;
+
+    /**
+     * Creates an engine using the default shared pool (see PoolManager).
+     */
+    public FFTEngine() {
+        this.numThreads = 0;
+    }
+
+    /**
+     * Creates an engine using the specified number of threads.
+     *
+     * @param numThreads Number of worker threads (at least 1).
+     */
+    public FFTEngine(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    protected void convolve(int[] src, int[] dst, int width, int height, float[][] kernel, float multiplier,
+                            BorderMode border, FilterProgress progress) {
+        ForkJoinPool pool = PoolManager.getPool(numThreads > 0 ? numThreads : PoolManager.getDefaultParallelism());
+        FFTConvolution.convolve(src, dst, width, height, kernel, multiplier, border, pool, progress);
+    }
+
+    @Override
+    protected void filter(int[] src, int[] dst, int width, int height, NonLinearFilter filter, BorderMode border,
+                          FilterProgress progress) {
+        // Nothing to transform: run the filter's tiles on the same pool
+        ForkJoinPool pool = PoolManager.getPool(numThreads > 0 ? numThreads : PoolManager.getDefaultParallelism());
+        TileOperation op = FilterProgress.track(progress, filter.createOperation(src, dst, width, height, border));
+        pool.invoke(filter.createTiles(width, height).createTask(op, pool.getParallelism()));
+    }
+
+    @Override
+    public String getName() {
+        return "FFT";
+    }
+}
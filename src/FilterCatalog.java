@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * The named filters offered by the UI and the batch processor, each a
+ * convolution kernel plus the base factor that the intensity multiplies.
+ * The UI also offers non-linear filters, listed separately, whose
+ * intensity sets their radius.
+ */
+public class FilterCatalog {
+
+    // Luminance levels across which the bilateral filter stops smoothing
+    private static final int BILATERAL_RANGE_SIGMA = 24;
+
+    private static final Map<String, Filter> filters = new LinkedHashMap<>();
+    private static final Map<String, IntFunction<NonLinearFilter>> nonLinearFilters = new LinkedHashMap<>();
+
+    static {
+        register("Edge Detection", new float[][]{{-1, -1, -1}, {-1, 8, -1}, {-1, -1, -1}}, 1f);
+        register("Sharpen", new float[][]{{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}}, 1f);
+        register("Soft Blur", new float[][]{{1, 1, 1}, {1, 1, 1}, {1, 1, 1}}, 1f / 9f);
+        register("Gaussian Blur", new float[][]{{1, 2, 1}, {2, 4, 2}, {1, 2, 1}}, 1f / 16f);
+        register("Emboss", new float[][]{{-2, -1, 0}, {-1, 1, 1}, {0, 1, 2}}, 1f);
+
+        nonLinearFilters.put("Median", intensity -> new MedianFilter(radius(intensity)));
+        nonLinearFilters.put("Bilateral", intensity -> new BilateralFilter(radius(intensity), BILATERAL_RANGE_SIGMA));
+    }
+
+    // Intensity 1..10 to a radius of 1..15
+    private static int radius(int intensity) {
+        return Math.max(1, intensity * 3 / 2);
+    }
+
+    private static void register(String name, float[][] kernel, float baseFactor) {
+        filters.put(name, new Filter(name, kernel, baseFactor));
+    }
+
+    /**
+     * Returns the filter names in display order.
+     */
+    public static List<String> getNames() {
+        return Collections.unmodifiableList(new ArrayList<>(filters.keySet()));
+    }
+
+    /**
+     * Looks up a filter by name, ignoring case and treating '-' or '_' as a space.
+     *
+     * @param name Filter name as shown in the UI, e.g. "Gaussian Blur" or "gaussian-blur".
+     * @return The filter, or null if there is none with that name.
+     */
+    public static Filter get(String name) {
+        String wanted = name.trim().replace('-', ' ').replace('_', ' ');
+        for (Filter filter : filters.values()) {
+            if (filter.getName().equalsIgnoreCase(wanted)) {
+                return filter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the names of the non-linear filters in display order.
+     */
+    public static List<String> getNonLinearNames() {
+        return Collections.unmodifiableList(new ArrayList<>(nonLinearFilters.keySet()));
+    }
+
+    /**
+     * Creates a non-linear filter by name, matched like {@link #get(String)}.
+     *
+     * @param name      Filter name, e.g. "Median".
+     * @param intensity Intensity level (the UI slider value), which sets the radius.
+     * @return The filter, or null if there is no non-linear filter with that name.
+     */
+    public static NonLinearFilter getNonLinear(String name, int intensity) {
+        String wanted = name.trim().replace('-', ' ').replace('_', ' ');
+        for (Map.Entry<String, IntFunction<NonLinearFilter>> entry : nonLinearFilters.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(wanted)) {
+                return entry.getValue().apply(intensity);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A named kernel with its base factor.
+     */
+    public static class Filter {
+        private final String name;
+        private final float[][] kernel;
+        private final float baseFactor;
+
+        Filter(String name, float[][] kernel, float baseFactor) {
+            this.name = name;
+            this.kernel = kernel;
+            this.baseFactor = baseFactor;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Returns a copy of the kernel, so callers cannot change the catalog.
+         */
+        public float[][] getKernel() {
+            float[][] copy = new float[kernel.length][];
+            for (int i = 0; i < kernel.length; i++) {
+                copy[i] = kernel[i].clone();
+            }
+            return copy;
+        }
+
+        public float getBaseFactor() {
+            return baseFactor;
+        }
+
+        /**
+         * Returns the multiplier for a given intensity (the UI slider value).
+         *
+         * @param intensity Intensity level, 1 for the plain filter.
+         */
+        public float getMultiplier(int intensity) {
+            return baseFactor * intensity;
+        }
+    }
+}
@@ -0,0 +1,302 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A chain of convolution filters applied one after another, evaluated
+ * without a full-size intermediate image per step.
+ *
+ * Consecutive stages are first composed into one larger kernel where that is
+ * valid and cheaper: a stage whose weights (times multiplier) are all
+ * non-negative and sum to at most 1 can never leave the 0..255 range, so
+ * nothing is clamped between it and the next stage and the two kernels
+ * convolve into one. The composed result differs from running the stages
+ * separately only by the rounding of the skipped intermediate values.
+ * Composition is skipped when the larger kernel would cost more multiply-adds
+ * than the two passes it replaces (two separable blurs compose, a blur and a
+ * sharpen do not).
+ *
+ * The remaining stages are fused: each full-width strip of the image runs
+ * through all of them row by row, with every intermediate stage writing into
+ * a small ring buffer of just the rows the next kernel spans. This is
+ * bit-identical to running the stages one by one.
+ */
+public class FilterPipeline {
+
+    // Minimum output rows per parallel strip; each strip recomputes the halo rows at its ends
+    private static final int MIN_STRIP_HEIGHT = 64;
+
+    // Strips per worker thread, so idle workers have something to steal
+    private static final int STRIPS_PER_THREAD = 4;
+
+    // Extra taps a separate pass is worth (an additional sweep over the image), used when
+    // deciding whether composing two kernels is cheaper than running both
+    private static final int PASS_COST = 2;
+
+    // Slack when deciding whether a stage's weights sum to at most 1
+    private static final float SUM_TOLERANCE = 1e-6f;
+
+    // Per-thread ring buffers for the intermediate stages of a fused strip, reused between strips
+    private static final ThreadLocal<int[][]> SCRATCH = ThreadLocal.withInitial(() -> new int[0][]);
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    // Thread count, or 0 to run on the calling thread
+    private final int numThreads;
+
+    /**
+     * Creates an empty pipeline that runs on the calling thread.
+     */
+    public FilterPipeline() {
+        this.numThreads = 0;
+    }
+
+    /**
+     * Creates an empty pipeline that runs on the shared pool of the given size.
+     *
+     * @param numThreads Number of worker threads (at least 1).
+     */
+    public FilterPipeline(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + numThreads);
+        }
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Appends a filter to the chain.
+     *
+     * @param kernel     The convolution kernel matrix (square, odd size).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @return This pipeline, for chaining.
+     */
+    public FilterPipeline add(float[][] kernel, float multiplier) {
+        if (kernel.length % 2 == 0) {
+            throw new IllegalArgumentException("Pipeline kernels must have odd size: " + kernel.length);
+        }
+        stages.add(new Stage(copy(kernel), multiplier));
+        return this;
+    }
+
+    /**
+     * Appends a catalog filter at the given intensity.
+     *
+     * @param filter    The filter.
+     * @param intensity Intensity level, as on the UI slider.
+     * @return This pipeline, for chaining.
+     */
+    public FilterPipeline add(FilterCatalog.Filter filter, int intensity) {
+        return add(filter.getKernel(), filter.getMultiplier(intensity));
+    }
+
+    /**
+     * Returns how many passes over the image the pipeline will make once
+     * compatible stages are composed (1 means a single ordinary convolution).
+     *
+     * @param width  Image width.
+     * @param height Image height.
+     */
+    public int getPassCount(int width, int height) {
+        return plan(width, height).size();
+    }
+
+    /**
+     * Applies every stage in order to the input image.
+     *
+     * @param inputImg The input BufferedImage to be processed (not modified).
+     * @return The output image and how long each step took.
+     */
+    public FilterResult apply(BufferedImage inputImg) {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+        int width = inputImg.getWidth();
+        int height = inputImg.getHeight();
+        List<Stage> plan = plan(width, height);
+
+        // A single composed stage is an ordinary filter call; let the engine pick its fastest path
+        if (plan.size() == 1) {
+            ConvolutionEngine engine = numThreads == 0 ? new Sequential() : new Parallel(numThreads);
+            FilterResult result = engine.apply(inputImg, plan.get(0).kernel, plan.get(0).multiplier);
+            return new FilterResult(result.getImage(), getName(), result.getTiming());
+        }
+
+        long start = System.nanoTime();
+        BufferedImage outputImg = RasterConvolution.createOutput(inputImg);
+        int[] src = RasterConvolution.readPixels(inputImg);
+        int[] dst = new int[width * height];
+        long prepared = System.nanoTime();
+
+        TileOperation op = (x0, y0, x1, y1) -> fuseStrip(plan, src, dst, width, height, y0, y1);
+        if (numThreads == 0) {
+            // One strip: every intermediate row is computed exactly once
+            fuseStrip(plan, src, dst, width, height, 0, height);
+        } else {
+            ForkJoinPool pool = PoolManager.getPool(numThreads);
+            int stripHeight = Math.max(MIN_STRIP_HEIGHT, -Math.floorDiv(-height, numThreads * STRIPS_PER_THREAD));
+            TileScheduler strips = new TileScheduler(width, height, width, stripHeight);
+            pool.invoke(strips.createTask(op, pool.getParallelism()));
+        }
+        long convolved = System.nanoTime();
+
+        RasterConvolution.writePixels(outputImg, dst);
+        long packed = System.nanoTime();
+
+        FilterTiming timing = new FilterTiming(prepared - start, convolved - prepared, packed - convolved);
+        PipelineMetrics.global().record(timing);
+        return new FilterResult(outputImg, getName(), timing);
+    }
+
+    public String getName() {
+        return "Pipeline (" + stages.size() + " filters" + (numThreads == 0 ? "" : ", " + numThreads + " threads") + ")";
+    }
+
+    // Composes each non-clamping stage into the one after it when that costs fewer taps
+    private List<Stage> plan(int width, int height) {
+        List<Stage> plan = new ArrayList<>();
+        Stage current = stages.get(0);
+        for (int s = 1; s < stages.size(); s++) {
+            Stage next = stages.get(s);
+            int composedLen = current.kernel.length + next.kernel.length - 1;
+            // Wrapped offsets must stay within one image period for the composed kernel
+            Stage composed = current.neverClamps() && composedLen <= Math.min(width, height)
+                    ? compose(current, next) : null;
+            if (composed != null && composed.cost() <= current.cost() + next.cost() + PASS_COST) {
+                current = composed;
+            } else {
+                plan.add(current);
+                current = next;
+            }
+        }
+        plan.add(current);
+        return plan;
+    }
+
+    /**
+     * Runs one strip of output rows [y0, y1) through every stage, row by row.
+     * Each intermediate stage writes into a ring buffer holding only as many
+     * rows as the next kernel spans; as soon as stage s has produced a row,
+     * stage s + 1 produces the row that has just become computable, so no
+     * stage needs more than its ring. The first stage reads the source image
+     * with wraparound, the last writes straight into the output.
+     */
+    private static void fuseStrip(List<Stage> plan, int[] src, int[] dst, int width, int height, int y0, int y1) {
+        int n = plan.size();
+
+        // margin[s]: extra rows above and below the strip that stage s must produce
+        int[] margin = new int[n];
+        for (int s = n - 2; s >= 0; s--) {
+            margin[s] = margin[s + 1] + plan.get(s + 1).kernel.length / 2;
+        }
+
+        int[][] rings = SCRATCH.get();
+        if (rings.length < n - 1) {
+            rings = new int[n - 1][0];
+            SCRATCH.set(rings);
+        }
+        for (int s = 0; s < n - 1; s++) {
+            int size = plan.get(s + 1).kernel.length * width;
+            if (rings[s].length < size) {
+                rings[s] = new int[size];
+            }
+        }
+
+        // Wrapped source columns of each stage's kernel, shared by every row of the strip
+        int[][] columns = new int[n][];
+        for (int s = 0; s < n; s++) {
+            columns[s] = RasterConvolution.wrappedColumns(0, width, plan.get(s).kernel.length, width);
+        }
+
+        // Step r produces row r of stage 0, then the row of each later stage that
+        // became computable, which trails by the halo of the stages in between
+        for (int r = y0 - margin[0]; r < y1 + margin[0]; r++) {
+            int row = r;
+            for (int s = 0; s < n; s++) {
+                if (s > 0) {
+                    row -= plan.get(s).kernel.length / 2;
+                }
+                if (row < y0 - margin[s]) {
+                    break;
+                }
+                Stage stage = plan.get(s);
+                int[] in = s == 0 ? src : rings[s - 1];
+                int inRows = s == 0 ? height : stage.kernel.length;
+                if (s == n - 1) {
+                    RasterConvolution.convolveWindow(in, 0, inRows, dst, 0, width,
+                            stage.taps, stage.kernel.length, stage.multiplier, columns[s], 0, row, width, row + 1);
+                } else {
+                    // Row 'row' lives in ring slot row mod ringRows, which is what dstY0 points it at
+                    int ringRows = plan.get(s + 1).kernel.length;
+                    RasterConvolution.convolveWindow(in, 0, inRows, rings[s], row - Math.floorMod(row, ringRows), width,
+                            stage.taps, stage.kernel.length, stage.multiplier, columns[s], 0, row, width, row + 1);
+                }
+            }
+        }
+    }
+
+    // Full 2D convolution of the two kernels with the first multiplier folded in
+    private static Stage compose(Stage first, Stage second) {
+        int a = first.kernel.length, b = second.kernel.length;
+        double[][] sum = new double[a + b - 1][a + b - 1];
+        for (int i = 0; i < a; i++) {
+            for (int j = 0; j < a; j++) {
+                double w = (double) first.kernel[i][j] * first.multiplier;
+                if (w == 0) continue;
+                for (int p = 0; p < b; p++) {
+                    for (int q = 0; q < b; q++) {
+                        sum[i + p][j + q] += w * second.kernel[p][q];
+                    }
+                }
+            }
+        }
+        float[][] kernel = new float[a + b - 1][a + b - 1];
+        for (int i = 0; i < kernel.length; i++) {
+            for (int j = 0; j < kernel.length; j++) {
+                kernel[i][j] = (float) sum[i][j];
+            }
+        }
+        return new Stage(kernel, second.multiplier);
+    }
+
+    private static float[][] copy(float[][] kernel) {
+        float[][] copy = new float[kernel.length][];
+        for (int i = 0; i < kernel.length; i++) {
+            copy[i] = kernel[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * One kernel of the chain with its multiplier and flattened taps.
+     */
+    private static class Stage {
+        final float[][] kernel;
+        final float multiplier;
+        final float[] taps;
+
+        Stage(float[][] kernel, float multiplier) {
+            this.kernel = kernel;
+            this.multiplier = multiplier;
+            this.taps = RasterConvolution.flatten(kernel);
+        }
+
+        // Multiply-adds per pixel of the path the engines would pick for this kernel
+        int cost() {
+            int len = kernel.length;
+            return SeparableKernel.detect(kernel) != null ? 2 * len : len * len;
+        }
+
+        // True if every 0..255 input maps into 0..255 with no clamping
+        boolean neverClamps() {
+            double total = 0;
+            for (float[] row : kernel) {
+                for (float w : row) {
+                    if (w * multiplier < 0) return false;
+                    total += (double) w * multiplier;
+                }
+            }
+            return total <= 1 + SUM_TOLERANCE;
+        }
+    }
+}
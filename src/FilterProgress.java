@@ -0,0 +1,135 @@
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Progress and cancellation handle for one filter call. The engine counts
+ * the pixels of every finished tile (from whichever ForkJoin worker ran it)
+ * and checks the cancel flag before starting the next one, so a cancelled
+ * call stops within one tile and throws CancellationException from
+ * ConvolutionEngine.apply.
+ *
+ * One handle serves one call at a time; engines accept null where no
+ * tracking is wanted.
+ */
+public class FilterProgress {
+
+    private final IntConsumer listener;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicLong completed = new AtomicLong();
+    private volatile long total;
+
+    // Last percentage passed to the listener, so it hears each value at most once
+    private final AtomicLong reported = new AtomicLong(-1);
+
+    /**
+     * Creates a handle that is only polled.
+     */
+    public FilterProgress() {
+        this(null);
+    }
+
+    /**
+     * Creates a handle that also reports every new whole percentage.
+     *
+     * @param listener Called with 0..100 on the worker thread that finished
+     *                 the tile; must be fast and thread-safe. May be null.
+     */
+    public FilterProgress(IntConsumer listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Resets the counters for a call covering the given number of pixels.
+     * Called by the engine before the first tile.
+     *
+     * @param totalPixels Pixels the call will convolve.
+     */
+    public void start(long totalPixels) {
+        completed.set(0);
+        reported.set(-1);
+        total = totalPixels;
+        report(0);
+    }
+
+    /**
+     * Wraps a tile operation so it checks for cancellation before each tile
+     * and counts the tile's pixels after it.
+     *
+     * @param progress The handle, or null for no tracking.
+     * @param op       The operation to wrap.
+     * @return The wrapped operation, or op itself if progress is null.
+     */
+    public static TileOperation track(FilterProgress progress, TileOperation op) {
+        if (progress == null) {
+            return op;
+        }
+        return (x0, y0, x1, y1) -> {
+            progress.checkCancelled();
+            op.apply(x0, y0, x1, y1);
+            progress.add((long) (x1 - x0) * (y1 - y0));
+        };
+    }
+
+    /**
+     * Counts finished pixels.
+     *
+     * @param pixels Number of pixels just completed.
+     */
+    public void add(long pixels) {
+        long done = completed.addAndGet(pixels);
+        long all = total;
+        report(all > 0 ? (int) Math.min(100, done * 100 / all) : 100);
+    }
+
+    private void report(int percent) {
+        if (listener == null) {
+            return;
+        }
+        long last = reported.get();
+        while (percent > last) {
+            if (reported.compareAndSet(last, percent)) {
+                listener.accept(percent);
+                return;
+            }
+            last = reported.get();
+        }
+    }
+
+    /**
+     * Asks the call to stop; it does so before its next tile.
+     */
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    /**
+     * Throws CancellationException if cancel() has been called.
+     */
+    public void checkCancelled() {
+        if (cancelled.get()) {
+            throw new CancellationException("Filter cancelled");
+        }
+    }
+
+    public long getCompletedPixels() {
+        return completed.get();
+    }
+
+    public long getTotalPixels() {
+        return total;
+    }
+
+    /**
+     * Returns the completed fraction, 0 to 1.
+     */
+    public double getFraction() {
+        long all = total;
+        return all > 0 ? Math.min(1.0, (double) completed.get() / all) : 0;
+    }
+}
@@ -0,0 +1,37 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * The outcome of one filter call: the output image, the engine that produced
+ * it and the time each step took.
+ */
+public class FilterResult {
+
+    private final BufferedImage image;
+    private final String engineName;
+    private final FilterTiming timing;
+
+    public FilterResult(BufferedImage image, String engineName, FilterTiming timing) {
+        this.image = image;
+        this.engineName = engineName;
+        this.timing = timing;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public String getEngineName() {
+        return engineName;
+    }
+
+    public FilterTiming getTiming() {
+        return timing;
+    }
+
+    /**
+     * Returns the total processing time in milliseconds.
+     */
+    public long getElapsedMillis() {
+        return timing.getTotalMillis();
+    }
+}
@@ -0,0 +1,430 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+/**
+ * Headless HTTP front end for the filters, on the JDK's built-in server and
+ * bound to the loopback interface.
+ *
+ * <pre>
+ * POST /filter?filter=sharpen&amp;intensity=5&amp;border=clamp&amp;format=png   body: the image
+ * POST /filter?kernel=0,-1,0,-1,5,-1,0,-1,0&amp;multiplier=1                body: the image
+ * GET  /metrics            server counters and PipelineMetrics as JSON (?format=csv for CSV)
+ * </pre>
+ *
+ * The response is the filtered image in the requested format (PNG by
+ * default), with the stage timings in an X-Filter-Timing header.
+ *
+ * Each exchange is handled on its own virtual thread when the JDK has them
+ * (21+) and on a pooled platform thread otherwise; those threads only read
+ * the request and write the response. Decoding, filtering and encoding run
+ * as one task on the shared ForkJoin pool of the configured size, so the
+ * CPU work of all requests together never uses more than that many threads.
+ *
+ * Admission control: at most threads + queue requests are admitted at once.
+ * Beyond that the server answers 503 with Retry-After straight away instead
+ * of queueing without bound, which gives clients backpressure and keeps
+ * latency of the admitted requests bounded.
+ *
+ * Usage: java FilterServer [--port N] [--threads N] [--queue N]
+ */
+public class FilterServer implements AutoCloseable {
+
+    private static final int DEFAULT_PORT = 8080;
+
+    // Requests that may wait for the pool, on top of one running per thread
+    private static final int DEFAULT_QUEUE = 8;
+
+    // Largest accepted request body; larger uploads get 413
+    private static final int MAX_BODY_BYTES = 256 << 20;
+
+    // Intensity used when a named filter is requested without one (the UI slider's default)
+    private static final int DEFAULT_INTENSITY = 5;
+
+    private static final String RETRY_AFTER_SECONDS = "1";
+
+    private final HttpServer server;
+    private final ExecutorService connections;
+    private final ForkJoinPool pool;
+    private final ConvolutionEngine engine;
+    private final Semaphore admission;
+    private final int capacity;
+
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final PipelineMetrics.Histogram latency = new PipelineMetrics.Histogram();
+
+    /**
+     * Binds the server to a loopback port; call {@link #start()} to accept requests.
+     *
+     * @param port    Port to listen on, or 0 for any free port.
+     * @param threads Size of the ForkJoin pool doing the CPU work (at least 1).
+     * @param queue   Admitted requests that may wait for the pool (at least 0).
+     * @throws IOException if the port cannot be bound
+     */
+    public FilterServer(int port, int threads, int queue) throws IOException {
+        if (queue < 0) {
+            throw new IllegalArgumentException("Queue length must not be negative: " + queue);
+        }
+        this.pool = PoolManager.getPool(threads);
+        this.engine = new Parallel(threads);
+        this.capacity = threads + queue;
+        this.admission = new Semaphore(capacity);
+        this.connections = connectionExecutor();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(connections);
+        server.createContext("/filter", this::handleFilter);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    // Virtual threads where the JDK has them, otherwise a cached pool of daemon threads
+    private static ExecutorService connectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            AtomicInteger count = new AtomicInteger();
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "filter-server-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Starts accepting requests.
+     *
+     * @return This server.
+     */
+    public FilterServer start() {
+        server.start();
+        return this;
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public long getCompletedCount() {
+        return completed.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the latency of completed requests, from admission to the last response byte.
+     */
+    public PipelineMetrics.Histogram getLatency() {
+        return latency;
+    }
+
+    /**
+     * Stops accepting requests, waits up to a second for running exchanges
+     * and releases the connection threads. The shared pool stays up.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        connections.shutdown();
+    }
+
+    private void handleFilter(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendText(exchange, 405, "Use POST with the image as the request body");
+                return;
+            }
+            if (!admission.tryAcquire()) {
+                rejected.incrementAndGet();
+                exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+                sendText(exchange, 503, "Server busy, " + capacity + " requests in progress");
+                return;
+            }
+            long start = System.nanoTime();
+            inFlight.incrementAndGet();
+            try {
+                FilterRequest request = FilterRequest.parse(exchange.getRequestURI());
+                byte[] body = readBody(exchange.getRequestBody());
+
+                // All CPU work for the request runs as one task on the shared pool
+                Encoded result = pool.submit(() -> request.run(body, engine, pool)).get();
+
+                exchange.getResponseHeaders().set("Content-Type", "image/" + request.mimeSubtype());
+                exchange.getResponseHeaders().set("X-Filter-Timing", result.timing.toString());
+                exchange.sendResponseHeaders(200, result.bytes.length);
+                exchange.getResponseBody().write(result.bytes);
+                completed.incrementAndGet();
+                latency.record(System.nanoTime() - start);
+            } catch (BadRequestException e) {
+                failed.incrementAndGet();
+                sendText(exchange, e.status, e.getMessage());
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    sendText(exchange, 415, "Could not decode the image: " + cause.getMessage());
+                } else if (cause instanceof IllegalArgumentException) {
+                    sendText(exchange, 400, cause.getMessage());
+                } else {
+                    sendText(exchange, 500, "Filter failed: " + cause);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                failed.incrementAndGet();
+                sendText(exchange, 503, "Interrupted");
+            } finally {
+                inFlight.decrementAndGet();
+                admission.release();
+            }
+        } finally {
+            // Read what is left of an upload we answered early, so the client gets the
+            // response instead of a reset connection
+            exchange.getRequestBody().transferTo(OutputStream.nullOutputStream());
+            exchange.close();
+        }
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            boolean csv = "csv".equalsIgnoreCase(query(exchange.getRequestURI()).get("format"));
+            byte[] text = (csv ? metricsCsv() : metricsJson()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", csv ? "text/csv" : "application/json");
+            exchange.sendResponseHeaders(200, text.length);
+            exchange.getResponseBody().write(text);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Returns the server counters and request latency percentiles (in
+     * milliseconds) together with PipelineMetrics as one JSON object.
+     */
+    public String metricsJson() {
+        return String.format(Locale.ROOT, "{%n\"server\": {\"completed\": %d, \"rejected\": %d, \"failed\": %d, "
+                        + "\"inFlight\": %d, \"capacity\": %d, \"threads\": %d, \"latency\": {\"count\": %d, "
+                        + "\"p50Millis\": %.3f, \"p90Millis\": %.3f, \"p99Millis\": %.3f, \"maxMillis\": %.3f}},%n"
+                        + "\"pipeline\": %s}%n",
+                completed.get(), rejected.get(), failed.get(), inFlight.get(), capacity, pool.getParallelism(),
+                latency.getCount(), latency.getValueAtPercentile(50) / 1e6, latency.getValueAtPercentile(90) / 1e6,
+                latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6,
+                PipelineMetrics.global().toJson().trim());
+    }
+
+    // PipelineMetrics' CSV plus rows for the server counters and request latency
+    private String metricsCsv() {
+        StringBuilder csv = new StringBuilder(PipelineMetrics.global().toCsv());
+        csv.append(String.format(Locale.ROOT, "server,latency,%d,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%n",
+                latency.getCount(), latency.getTotalNanos() / 1e6, latency.getMean() / 1e3,
+                latency.getValueAtPercentile(50) / 1e3, latency.getValueAtPercentile(90) / 1e3,
+                latency.getValueAtPercentile(99) / 1e3, latency.getValueAtPercentile(99.9) / 1e3, latency.getMax() / 1e3));
+        csv.append(String.format("server,completed,%d,,,,,,,,%n", completed.get()));
+        csv.append(String.format("server,rejected,%d,,,,,,,,%n", rejected.get()));
+        csv.append(String.format("server,failed,%d,,,,,,,,%n", failed.get()));
+        return csv.toString();
+    }
+
+    private static byte[] readBody(InputStream in) throws IOException, BadRequestException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if (body.size() + n > MAX_BODY_BYTES) {
+                throw new BadRequestException(413, "Image larger than " + (MAX_BODY_BYTES >> 20) + " MB");
+            }
+            body.write(buffer, 0, n);
+        }
+        if (body.size() == 0) {
+            throw new BadRequestException(400, "Send the image as the request body");
+        }
+        return body.toByteArray();
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] text = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, text.length);
+        exchange.getResponseBody().write(text);
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> params = new HashMap<>();
+        String raw = uri.getRawQuery();
+        if (raw == null) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(key, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * A client error, answered with the given status and message.
+     */
+    private static class BadRequestException extends Exception {
+        final int status;
+
+        BadRequestException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    private static final class Encoded {
+        final byte[] bytes;
+        final FilterTiming timing;
+
+        Encoded(byte[] bytes, FilterTiming timing) {
+            this.bytes = bytes;
+            this.timing = timing;
+        }
+    }
+
+    /**
+     * The kernel, multiplier, border mode and output format of one request.
+     */
+    private static final class FilterRequest {
+        final float[][] kernel;
+        final float multiplier;
+        final BorderMode border;
+        final String format;
+
+        private FilterRequest(float[][] kernel, float multiplier, BorderMode border, String format) {
+            this.kernel = kernel;
+            this.multiplier = multiplier;
+            this.border = border;
+            this.format = format;
+        }
+
+        static FilterRequest parse(URI uri) throws BadRequestException {
+            Map<String, String> params = query(uri);
+            try {
+                float[][] kernel;
+                float multiplier;
+                if (params.containsKey("kernel")) {
+                    kernel = parseKernel(params.get("kernel"));
+                    multiplier = Float.parseFloat(params.getOrDefault("multiplier", "1"));
+                } else {
+                    String name = params.get("filter");
+                    FilterCatalog.Filter filter = name == null ? null : FilterCatalog.get(name);
+                    if (filter == null) {
+                        throw new BadRequestException(400, "Give kernel=... or one of filter="
+                                + String.join(", ", FilterCatalog.getNames()));
+                    }
+                    kernel = filter.getKernel();
+                    multiplier = filter.getMultiplier(Integer.parseInt(
+                            params.getOrDefault("intensity", Integer.toString(DEFAULT_INTENSITY))));
+                }
+                BorderMode border = BorderMode.valueOf(params.getOrDefault("border", "clamp").toUpperCase(Locale.ROOT));
+                String format = params.getOrDefault("format", "png").toLowerCase(Locale.ROOT);
+                if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+                    throw new BadRequestException(400, "Cannot encode format " + format);
+                }
+                return new FilterRequest(kernel, multiplier, border, format);
+            } catch (IllegalArgumentException e) {
+                // NumberFormatException and unknown border modes
+                throw new BadRequestException(400, "Bad parameter: " + e.getMessage());
+            }
+        }
+
+        // n * n comma-separated weights, row by row, n odd; stored as kernel[x][y] like the engines read it
+        private static float[][] parseKernel(String text) throws BadRequestException {
+            String[] values = text.split(",");
+            int n = (int) Math.round(Math.sqrt(values.length));
+            if (n * n != values.length || n % 2 == 0) {
+                throw new BadRequestException(400, "Kernel needs n*n values with n odd, got " + values.length);
+            }
+            float[][] kernel = new float[n][n];
+            for (int i = 0; i < values.length; i++) {
+                kernel[i % n][i / n] = Float.parseFloat(values[i].trim());
+            }
+            return kernel;
+        }
+
+        String mimeSubtype() {
+            return format.equals("jpg") ? "jpeg" : format;
+        }
+
+        Encoded run(byte[] body, ConvolutionEngine engine, ForkJoinPool pool) throws IOException {
+            long start = System.nanoTime();
+            BufferedImage input = ParallelImageIO.read(body, pool);
+            long decoded = System.nanoTime();
+
+            // The output goes back to the pool once encoded (an image too small for the kernel gets
+            // no destination, so the engine reports it)
+            BufferPool buffers = BufferPool.global();
+            int outWidth = border.outputSize(input.getWidth(), kernel.length);
+            int outHeight = border.outputSize(input.getHeight(), kernel.length);
+            BufferedImage output = outWidth > 0 && outHeight > 0
+                    ? buffers.acquireOutput(input, outWidth, outHeight) : null;
+            FilterResult result = engine.apply(input, kernel, multiplier, border, null, output);
+
+            long encodeStart = System.nanoTime();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                ParallelImageIO.write(result.getImage(), format, out, pool);
+            } finally {
+                buffers.release(result.getImage());
+            }
+            return new Encoded(out.toByteArray(),
+                    result.getTiming().withIo(decoded - start, System.nanoTime() - encodeStart));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        int threads = PoolManager.getDefaultParallelism();
+        int queue = DEFAULT_QUEUE;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            int value = Integer.parseInt(args[i + 1]);
+            switch (args[i]) {
+                case "--port" -> port = value;
+                case "--threads" -> threads = value;
+                case "--queue" -> queue = value;
+                default -> {
+                    System.err.println("Usage: java FilterServer [--port N] [--threads N] [--queue N]");
+                    System.exit(1);
+                }
+            }
+        }
+        FilterServer server = new FilterServer(port, threads, queue).start();
+        System.out.println("Filtering on http://localhost:" + server.getPort() + "/filter with " + threads
+                + " threads, " + queue + " queued requests; metrics at /metrics");
+    }
+}
@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load generator for FilterServer: concurrent clients post the ten sample
+ * images and the latency percentiles are reported, then a burst beyond the
+ * admission limit must be answered with 503 rather than queued.
+ */
+public class FilterServerLoadTest {
+
+    // Concurrent clients, each sending its share of the samples
+    private static final int CLIENTS = 4;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+    private static File[] samples() {
+        File[] files = new File("Samples").listFiles((dir, name) -> name.endsWith(".jpg"));
+        assertTrue(files != null && files.length == 10, "the ten Samples/ images");
+        return files;
+    }
+
+    private HttpResponse<byte[]> post(FilterServer server, String query, byte[] image) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost:" + server.getPort() + "/filter?" + query))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(image))
+                .build();
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    @Test
+    public void testLatencyOverSamples() throws Exception {
+        File[] samples = samples();
+        PipelineMetrics.Histogram latency = new PipelineMetrics.Histogram();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        try (FilterServer server = new FilterServer(0, 2, 2 * CLIENTS).start()) {
+            List<Future<Integer>> statuses = new ArrayList<>();
+            for (File sample : samples) {
+                byte[] image = Files.readAllBytes(sample.toPath());
+                statuses.add(clients.submit(() -> {
+                    long start = System.nanoTime();
+                    HttpResponse<byte[]> response = post(server, "filter=sharpen&intensity=1&format=jpg", image);
+                    latency.record(System.nanoTime() - start);
+                    return response.statusCode();
+                }));
+            }
+            for (Future<Integer> status : statuses) {
+                assertEquals(200, (int) status.get(), "every request is admitted");
+            }
+            System.out.printf("FilterServer, %d clients, %d samples: p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                    CLIENTS, samples.length, latency.getValueAtPercentile(50) / 1e6,
+                    latency.getValueAtPercentile(99) / 1e6, latency.getMax() / 1e6);
+
+            // The server's own view of the same requests
+            assertEquals(samples.length, server.getCompletedCount());
+            HttpResponse<String> metrics = client.send(HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + server.getPort() + "/metrics")).build(), HttpResponse.BodyHandlers.ofString());
+            assertTrue(metrics.body().contains("\"completed\": " + samples.length), metrics.body());
+
+            // A response is the same image the engine produces locally
+            File small = new File("Samples/s1-300x300.jpg");
+            HttpResponse<byte[]> response = post(server, "kernel=0,-1,0,-1,5,-1,0,-1,0&multiplier=1&border=clamp&format=png",
+                    Files.readAllBytes(small.toPath()));
+            assertEquals(200, response.statusCode());
+            BufferedImage expected = new Sequential().apply(ImageIO.read(small),
+                    new float[][]{{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}}, 1f, BorderMode.CLAMP).getImage();
+            assertArrayEquals(RasterConvolution.readPixels(expected),
+                    RasterConvolution.readPixels(ImageIO.read(new ByteArrayInputStream(response.body()))));
+
+            // Weights are given row by row: this is the horizontal Sobel, which the engines index as kernel[x][y]
+            response = post(server, "kernel=-1,0,1,-2,0,2,-1,0,1&border=clamp&format=png", Files.readAllBytes(small.toPath()));
+            assertEquals(200, response.statusCode());
+            expected = new Sequential().apply(ImageIO.read(small),
+                    new float[][]{{-1, -2, -1}, {0, 0, 0}, {1, 2, 1}}, 1f, BorderMode.CLAMP).getImage();
+            assertArrayEquals(RasterConvolution.readPixels(expected),
+                    RasterConvolution.readPixels(ImageIO.read(new ByteArrayInputStream(response.body()))));
+
+            assertEquals(400, post(server, "filter=no-such-filter", Files.readAllBytes(small.toPath())).statusCode());
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    @Test
+    public void testAdmissionControl() throws Exception {
+        // One request at a time and no queue: a simultaneous burst must be turned away, not queued
+        int burst = 6;
+        byte[] image = Files.readAllBytes(new File("Samples/s5-2192x2192.jpg").toPath());
+        ExecutorService clients = Executors.newFixedThreadPool(burst);
+        try (FilterServer server = new FilterServer(0, 1, 0).start()) {
+            CountDownLatch go = new CountDownLatch(1);
+            List<Future<HttpResponse<byte[]>>> responses = new ArrayList<>();
+            for (int i = 0; i < burst; i++) {
+                responses.add(clients.submit(() -> {
+                    go.await();
+                    return post(server, "filter=soft-blur", image);
+                }));
+            }
+            go.countDown();
+
+            int ok = 0, busy = 0;
+            for (Future<HttpResponse<byte[]>> future : responses) {
+                HttpResponse<byte[]> response = future.get();
+                if (response.statusCode() == 200) {
+                    ok++;
+                } else {
+                    assertEquals(503, response.statusCode());
+                    assertTrue(response.headers().firstValue("Retry-After").isPresent(), "503 says when to retry");
+                    busy++;
+                }
+            }
+            assertTrue(ok >= 1 && busy >= 1, ok + " admitted, " + busy + " rejected");
+            assertEquals(busy, server.getRejectedCount());
+        } finally {
+            clients.shutdown();
+        }
+    }
+}
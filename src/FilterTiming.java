@@ -0,0 +1,77 @@
+/**
+ * Timing record for one filter call, split into the steps every engine goes
+ * through: unpacking the input, the convolution itself, and packing the
+ * result into the output image. Callers that also read and write the image
+ * file can add the decode and encode time around it with {@link #withIo}.
+ */
+public class FilterTiming {
+
+    private final long decodeNanos;
+    private final long prepareNanos;
+    private final long convolveNanos;
+    private final long packNanos;
+    private final long encodeNanos;
+
+    public FilterTiming(long prepareNanos, long convolveNanos, long packNanos) {
+        this(0, prepareNanos, convolveNanos, packNanos, 0);
+    }
+
+    public FilterTiming(long decodeNanos, long prepareNanos, long convolveNanos, long packNanos, long encodeNanos) {
+        this.decodeNanos = decodeNanos;
+        this.prepareNanos = prepareNanos;
+        this.convolveNanos = convolveNanos;
+        this.packNanos = packNanos;
+        this.encodeNanos = encodeNanos;
+    }
+
+    /**
+     * Returns a copy with the given file decode and encode times.
+     *
+     * @param decodeNanos Time spent reading the input image.
+     * @param encodeNanos Time spent writing the output image.
+     */
+    public FilterTiming withIo(long decodeNanos, long encodeNanos) {
+        return new FilterTiming(decodeNanos, prepareNanos, convolveNanos, packNanos, encodeNanos);
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getPrepareNanos() {
+        return prepareNanos;
+    }
+
+    public long getConvolveNanos() {
+        return convolveNanos;
+    }
+
+    public long getPackNanos() {
+        return packNanos;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    public long getTotalNanos() {
+        return decodeNanos + prepareNanos + convolveNanos + packNanos + encodeNanos;
+    }
+
+    /**
+     * Returns the total time in milliseconds, the unit shown in the UI.
+     */
+    public long getTotalMillis() {
+        return getTotalNanos() / 1_000_000;
+    }
+
+    @Override
+    public String toString() {
+        String stages = String.format("prepare=%.2f ms, convolve=%.2f ms, pack=%.2f ms",
+                prepareNanos / 1e6, convolveNanos / 1e6, packNanos / 1e6);
+        if (decodeNanos != 0 || encodeNanos != 0) {
+            stages = String.format("decode=%.2f ms, %s, encode=%.2f ms", decodeNanos / 1e6, stages, encodeNanos / 1e6);
+        }
+        return String.format("%s, total=%.2f ms", stages, getTotalNanos() / 1e6);
+    }
+}
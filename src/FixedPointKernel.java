@@ -0,0 +1,226 @@
+/**
+ * An integer (or rational) convolution kernel evaluated in fixed point.
+ * The channel sums are accumulated exactly in int, and the final scaling
+ * by the multiplier is one integer multiply and shift per channel,
+ * (sum * scale) >> shift, instead of float multiply-adds per tap.
+ *
+ * The scale and shift are chosen when the kernel is detected and checked
+ * against a reference for every sum the kernel can produce, so the output
+ * is bit-exact:
+ * - integer kernels match the float path exactly ((int) (sum * multiplier)
+ *   in float, which is exact for integer sums below 2^24);
+ * - rational kernels such as the 1/9 box are rescaled to integers n / d
+ *   and match the exact result (int) (sum * multiplier / d) computed in
+ *   double, which float accumulation of the fractional taps can miss by one.
+ */
+public class FixedPointKernel implements WindowConvolution {
+
+    // Largest denominator tried when looking for a rational form of the taps
+    private static final int MAX_DENOMINATOR = 1024;
+
+    // How close k * d must be to an integer to count as one
+    private static final double RATIONAL_TOLERANCE = 1e-4;
+
+    // Channel sums must stay exact in float for the integer reference to be exact
+    private static final long MAX_ABS_SUM = 1 << 24;
+
+    // Fewest fraction bits worth trying before giving up on fixed point
+    private static final int MIN_SHIFT = 8;
+
+    private final int kernelLen;
+    private final int denominator;
+
+    // Non-zero taps only: kernel row (y offset), column (x offset) and integer weight
+    private final int[] tapRow, tapCol, tapWeight;
+
+    private final int scale, shift;
+
+    private FixedPointKernel(int kernelLen, int denominator, int[] tapRow, int[] tapCol, int[] tapWeight,
+                             int scale, int shift) {
+        this.kernelLen = kernelLen;
+        this.denominator = denominator;
+        this.tapRow = tapRow;
+        this.tapCol = tapCol;
+        this.tapWeight = tapWeight;
+        this.scale = scale;
+        this.shift = shift;
+    }
+
+    /**
+     * Checks whether the kernel has integer or small-denominator rational
+     * taps and, if so, finds a scale and shift that reproduce the reference
+     * exactly for every possible channel sum.
+     *
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by (must be positive).
+     * @return The fixed-point kernel, or null if no exact fixed-point form exists.
+     */
+    public static FixedPointKernel detect(float[][] kernel, float multiplier) {
+        if (!(multiplier > 0)) {
+            return null;
+        }
+        int kernelLen = kernel.length;
+        int denominator = findDenominator(kernel);
+        if (denominator == 0) {
+            return null;
+        }
+
+        // Integer weights, kept in the order the direct loop visits them (row by row)
+        int count = 0;
+        long positive = 0, negative = 0;
+        int[] weights = new int[kernelLen * kernelLen];
+        for (int j = 0; j < kernelLen; j++) {
+            for (int i = 0; i < kernelLen; i++) {
+                long w = Math.round((double) kernel[i][j] * denominator);
+                if (Math.abs(w) > Short.MAX_VALUE) {
+                    return null;
+                }
+                weights[j * kernelLen + i] = (int) w;
+                if (w > 0) positive += w;
+                if (w < 0) negative -= w;
+                if (w != 0) count++;
+            }
+        }
+        long maxSum = 255 * positive;
+        long minSum = -255 * negative;
+        long maxAbsSum = Math.max(maxSum, -minSum);
+        if (count == 0 || maxAbsSum >= MAX_ABS_SUM) {
+            return null;
+        }
+
+        int[] tapRow = new int[count], tapCol = new int[count], tapWeight = new int[count];
+        for (int t = 0, n = 0; t < weights.length; t++) {
+            if (weights[t] != 0) {
+                tapRow[n] = t / kernelLen;
+                tapCol[n] = t % kernelLen;
+                tapWeight[n] = weights[t];
+                n++;
+            }
+        }
+
+        // Both the reference and (sum * scale) >> shift are non-decreasing in the sum, and both
+        // are clamped to 0..255, so agreeing on the sums where the reference leaves 0 and
+        // reaches 255 is enough: outside that window both are pinned to the same bound
+        double factor = (double) multiplier / denominator;
+        long low = Math.max(minSum, -1);
+        long high = Math.min(maxSum, (long) Math.ceil(256 / factor) + 1);
+
+        for (int shift = 30; shift >= MIN_SHIFT; shift--) {
+            long base = (long) Math.ceil(factor * (1L << shift));
+            for (long scale = base; scale <= base + 1; scale++) {
+                // The product has to fit in an int for every sum the kernel can produce
+                if (scale <= 0 || scale > Integer.MAX_VALUE || maxAbsSum * scale > Integer.MAX_VALUE) {
+                    continue;
+                }
+                if (matchesReference((int) scale, shift, low, high, multiplier, denominator)) {
+                    return new FixedPointKernel(kernelLen, denominator, tapRow, tapCol, tapWeight,
+                            (int) scale, shift);
+                }
+            }
+        }
+        return null;
+    }
+
+    // Smallest d such that every tap times d is an integer, 0 if there is none up to MAX_DENOMINATOR
+    private static int findDenominator(float[][] kernel) {
+        for (int d = 1; d <= MAX_DENOMINATOR; d++) {
+            boolean integral = true;
+            for (float[] row : kernel) {
+                for (float k : row) {
+                    double scaled = (double) k * d;
+                    double tolerance = d == 1 ? 0 : RATIONAL_TOLERANCE;
+                    if (Math.abs(scaled - Math.rint(scaled)) > tolerance) {
+                        integral = false;
+                        break;
+                    }
+                }
+                if (!integral) break;
+            }
+            if (integral) {
+                return d;
+            }
+        }
+        return 0;
+    }
+
+    private static boolean matchesReference(int scale, int shift, long low, long high,
+                                            float multiplier, int denominator) {
+        for (long sum = low; sum <= high; sum++) {
+            if (channel((int) sum, scale, shift) != reference(sum, multiplier, denominator)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The value the fixed-point result must reproduce for a channel sum of
+     * integer weights: the float path for integer kernels, the exact
+     * rational result otherwise.
+     */
+    static int reference(long sum, float multiplier, int denominator) {
+        int value = denominator == 1
+                ? (int) ((float) sum * multiplier)
+                : (int) (sum * ((double) multiplier / denominator));
+        return Math.min(Math.max(value, 0), 255);
+    }
+
+    private static int channel(int sum, int scale, int shift) {
+        int value = (sum * scale) >> shift;
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+
+    public int length() {
+        return kernelLen;
+    }
+
+    /**
+     * Returns the denominator the taps were scaled by (1 for integer kernels).
+     */
+    public int getDenominator() {
+        return denominator;
+    }
+
+    /**
+     * Returns the number of non-zero taps, the multiply-adds per pixel and channel.
+     */
+    public int getTapCount() {
+        return tapWeight.length;
+    }
+
+    /**
+     * Applies the kernel to a block whose taps all lie inside src (see
+     * {@link WindowConvolution}). Each tap's source offset is fixed for the
+     * block, so the pixel loop is one indexed read per non-zero tap.
+     */
+    @Override
+    public void convolve(int[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int dstStride,
+                         int cols, int rows) {
+        int taps = tapWeight.length;
+        // Offset of each tap from the top-left of the output pixel's neighbourhood
+        int[] tapOffset = new int[taps];
+        for (int t = 0; t < taps; t++) {
+            tapOffset[t] = tapRow[t] * srcStride + tapCol[t];
+        }
+
+        for (int r = 0; r < rows; r++) {
+            int in = srcOffset + r * srcStride;
+            int out = dstOffset + r * dstStride;
+            for (int c = 0; c < cols; c++) {
+                int p = in + c;
+                int redSum = 0, greenSum = 0, blueSum = 0;
+                for (int t = 0; t < taps; t++) {
+                    int rgb = src[p + tapOffset[t]];
+                    int w = tapWeight[t];
+
+                    redSum += ((rgb >> 16) & 0xFF) * w;
+                    greenSum += ((rgb >> 8) & 0xFF) * w;
+                    blueSum += (rgb & 0xFF) * w;
+                }
+                dst[out + c] = (channel(redSum, scale, shift) << 16)
+                        | (channel(greenSum, scale, shift) << 8)
+                        | channel(blueSum, scale, shift);
+            }
+        }
+    }
+}
@@ -1,11 +1,27 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import org.junit.jupiter.api.Test;
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Test class to verify that the Sequential and Parallel image processing
@@ -36,19 +52,52 @@ public class ImageProcessorTest {
         float multiplier = 1.0f;
 
         // Run sequential processing and get output image
-        long elapsedSeq = Sequential.process(input, kernel, multiplier);
-        BufferedImage seqOut = Sequential.getOutput();
+        BufferedImage seqOut = new Sequential().apply(input, kernel, multiplier).getImage();
 
         // Run parallel processing and get output image
-        long elapsedPar = Parallel.process(input, kernel, multiplier);
-        BufferedImage parOut = Parallel.getOutput();
+        BufferedImage parOut = new Parallel().apply(input, kernel, multiplier).getImage();
 
-        // Defensive: If parallel output is null, run again (should not happen normally)
-        if (parOut == null) {
-            Parallel.process(input, kernel, multiplier);
-            parOut = Parallel.getOutput();
+        assertPixelsClose(seqOut, parOut);
+    }
+
+    /**
+     * Tests that one shared engine instance can serve many threads at once,
+     * with every caller getting its own, correct result.
+     *
+     * @throws Exception if the test image cannot be loaded or a worker fails
+     */
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        BufferedImage input = ImageIO.read(new File("Temp/temp.jpg"));
+        float[][] sharpen = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        float[][] blur = {{1, 2, 1}, {2, 4, 2}, {1, 2, 1}};
+
+        BufferedImage expectedSharpen = new Sequential().apply(input, sharpen, 1f).getImage();
+        BufferedImage expectedBlur = new Sequential().apply(input, blur, 1f / 16f).getImage();
+
+        // Alternate two different filters across threads sharing one engine
+        ConvolutionEngine shared = new Parallel(4);
+        ExecutorService requests = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<BufferedImage>> results = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                boolean even = i % 2 == 0;
+                results.add(requests.submit(() -> even
+                        ? shared.apply(input, sharpen, 1f).getImage()
+                        : shared.apply(input, blur, 1f / 16f).getImage()));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertPixelsClose(i % 2 == 0 ? expectedSharpen : expectedBlur, results.get(i).get());
+            }
+        } finally {
+            requests.shutdown();
         }
+    }
 
+    /**
+     * Fails if the images differ in size or any channel differs by more than the tolerance.
+     */
+    private static void assertPixelsClose(BufferedImage seqOut, BufferedImage parOut) {
         // Assert image dimensions match exactly
         assertEquals(seqOut.getWidth(), parOut.getWidth(), "Width mismatch");
         assertEquals(seqOut.getHeight(), parOut.getHeight(), "Height mismatch");
@@ -79,4 +128,333 @@ public class ImageProcessorTest {
             }
         }
     }
+
+    /**
+     * Tests that streaming an image through in strips writes exactly the
+     * in-memory result with the same border mode, whether the strips are
+     * split inside a kernel halo or not.
+     *
+     * @throws IOException if the test image cannot be read or the output written
+     */
+    @Test
+    public void testStreamingMatchesInMemory() throws IOException {
+        File input = new File("Temp/temp.jpg");
+        File output = new File("Temp/streamed.tif");
+        float[][] emboss = {{-2, -1, 0}, {-1, 1, 1}, {0, 1, 2}};
+        float[][] blur = new float[5][5];
+        for (float[] row : blur) {
+            Arrays.fill(row, 1f);
+        }
+
+        BufferedImage image = ImageIO.read(input);
+        float[][][] kernels = {emboss, blur};
+        BorderMode[] borders = {BorderMode.WRAP, BorderMode.MIRROR};
+        for (int k = 0; k < kernels.length; k++) {
+            float[][] kernel = kernels[k];
+            float multiplier = 1f / kernel.length;
+            BufferedImage expected = new Sequential().apply(image, kernel, multiplier, borders[k]).getImage();
+
+            for (int stripHeight : new int[]{1, 37, image.getHeight()}) {
+                new StreamingProcessor(stripHeight, borders[k], stripHeight == 37 ? 2 : 0)
+                        .process(input, output, kernel, multiplier);
+                assertPixelsClose(expected, ImageIO.read(output));
+            }
+        }
+        output.delete();
+    }
+
+    /**
+     * Tests the result cache: repeated sources and parameter combinations
+     * hit, a changed file or kernel misses, and the byte budget evicts the
+     * least recently used output.
+     *
+     * @throws IOException if the test image cannot be read or written
+     */
+    @Test
+    public void testResultCache() throws IOException {
+        File file = new File("Temp/cached.png");
+        BufferedImage image = ImageIO.read(new File("Temp/temp.jpg"));
+        ImageIO.write(image, "png", file);
+        float[][] sharpen = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        float[][] blur = {{1, 1, 1}, {1, 1, 1}, {1, 1, 1}};
+
+        // Room for exactly two outputs
+        ResultCache cache = new ResultCache(Long.MAX_VALUE, 2 * ResultCache.imageBytes(image));
+        BufferedImage source = cache.getSource(file);
+        assertSame(source, cache.getSource(file));
+
+        FilterResult first = cache.apply(new Sequential(), source, sharpen, 1f, BorderMode.WRAP);
+        FilterResult again = cache.apply(new Parallel(2), source, sharpen.clone(), 1f, BorderMode.WRAP);
+        assertSame(first.getImage(), again.getImage());
+        assertEquals("Cache", again.getEngineName());
+
+        // An equal copy of the pixels hits as well; other parameters miss
+        BufferedImage copy = new BufferedImage(source.getColorModel(), source.copyData(null), false, null);
+        assertSame(first.getImage(), cache.apply(new Sequential(), copy, sharpen, 1f, BorderMode.WRAP).getImage());
+        assertNotSame(first.getImage(), cache.apply(new Sequential(), source, sharpen, 0.5f, BorderMode.WRAP).getImage());
+        assertNotSame(first.getImage(), cache.apply(new Sequential(), source, sharpen, 1f, BorderMode.CLAMP).getImage());
+
+        // Two newer outputs pushed the first one out
+        assertNotSame(first.getImage(), cache.apply(new Sequential(), source, sharpen, 1f, BorderMode.WRAP).getImage());
+        cache.apply(new Sequential(), source, blur, 1f / 9, BorderMode.WRAP);
+
+        ResultCache.LevelStats results = cache.getStats().getResults();
+        assertEquals(2, results.getHits());
+        assertEquals(5, results.getMisses());
+        assertEquals(2, results.getEntries());
+        assertEquals(3, results.getEvictions());
+        assertEquals(2 * ResultCache.imageBytes(image), results.getBytes());
+
+        // Rewriting the file invalidates its decoded source
+        ImageIO.write(first.getImage(), "png", file);
+        file.setLastModified(file.lastModified() + 2000);
+        assertNotSame(source, cache.getSource(file));
+        ResultCache.LevelStats sources = cache.getStats().getSources();
+        assertEquals(1, sources.getHits());
+        assertEquals(2, sources.getMisses());
+        file.delete();
+    }
+
+    /**
+     * Tests that each pyramid level averages 2x2 blocks of the one below and
+     * that the chosen level is the smallest still covering the target size.
+     */
+    @Test
+    public void testPreviewPyramid() {
+        BufferedImage image = new BufferedImage(40, 21, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 21; y++) {
+            for (int x = 0; x < 40; x++) {
+                image.setRGB(x, y, (x * 6) << 16 | (y * 12) << 8 | (x + y) % 2 * 255);
+            }
+        }
+
+        BufferedImage half = PreviewPyramid.halve(image);
+        assertEquals(20, half.getWidth());
+        assertEquals(10, half.getHeight());
+        // Red (12x + 3) and green (24y + 6) are exact means; blue averages two 0s and two 255s
+        assertEquals((12 * 7 + 3) << 16 | (24 * 4 + 6) << 8 | 128, half.getRGB(7, 4) & 0xFFFFFF);
+
+        PreviewPyramid pyramid = new PreviewPyramid();
+        assertSame(image, pyramid.level(image, 21, 5));
+        assertEquals(10, pyramid.level(image, 10, 5).getWidth());
+        assertEquals(2, pyramid.level(image, 1, 1).getWidth());
+        assertSame(pyramid.level(image, 10, 5), pyramid.level(image, 9, 4));
+    }
+
+    /**
+     * Tests that every engine reports all of its pixels through a progress
+     * handle, and stops with CancellationException part-way through once the
+     * handle is cancelled.
+     */
+    @Test
+    public void testProgressAndCancellation() {
+        BufferedImage image = new BufferedImage(700, 500, BufferedImage.TYPE_INT_RGB);
+        float[][] kernel = {{1, 1, 1}, {1, 1, 1}, {1, 1, 1}};
+        ConvolutionEngine[] engines = {new Sequential(), new Parallel(2), new FFTEngine(2)};
+
+        for (ConvolutionEngine engine : engines) {
+            List<Integer> percents = new ArrayList<>();
+            FilterProgress progress = new FilterProgress(percent -> {
+                synchronized (percents) {
+                    percents.add(percent);
+                }
+            });
+            engine.apply(image, kernel, 1f / 9, BorderMode.CLAMP, progress);
+            assertEquals(700L * 500, progress.getCompletedPixels(), engine.getName());
+            assertEquals(100, (int) percents.get(percents.size() - 1), engine.getName());
+
+            FilterProgress[] cancelling = new FilterProgress[1];
+            cancelling[0] = new FilterProgress(percent -> {
+                if (percent > 0) {
+                    cancelling[0].cancel();
+                }
+            });
+            assertThrows(CancellationException.class,
+                    () -> engine.apply(image, kernel, 1f / 9, BorderMode.CLAMP, cancelling[0]));
+            assertTrue(cancelling[0].getCompletedPixels() < 700L * 500, engine.getName());
+        }
+    }
+
+    /**
+     * Tests that a converted raw file holds exactly the decoded pixels and
+     * that streaming from one raw file into another gives the in-memory result.
+     *
+     * @throws IOException if the test image cannot be read or the raw files written
+     */
+    @Test
+    public void testRawImageFile() throws IOException {
+        File raw = new File("Temp/temp.raw");
+        File filtered = new File("Temp/filtered.raw");
+        RawImageFile.convert(new File("Temp/temp.jpg"), raw);
+
+        BufferedImage image = ImageIO.read(new File("Temp/temp.jpg"));
+        BufferedImage mapped = RawImageFile.read(raw);
+        assertArrayEquals(RasterConvolution.readPixels(image), RasterConvolution.readPixels(mapped));
+
+        float[][] kernel = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        new StreamingProcessor(50, BorderMode.CLAMP, 2).process(raw, filtered, kernel, 1f);
+        BufferedImage expected = new Sequential().apply(image, kernel, 1f, BorderMode.CLAMP).getImage();
+        assertArrayEquals(RasterConvolution.readPixels(expected), RasterConvolution.readPixels(RawImageFile.read(filtered)));
+
+        raw.delete();
+        filtered.delete();
+    }
+
+    @Test
+    public void testParallelImageIO() throws IOException {
+        BufferedImage image = ImageIO.read(new File("Temp/temp.jpg"));
+        int[] pixels = RasterConvolution.readPixels(image);
+        ForkJoinPool pool = PoolManager.getPool(4);
+
+        // PNG strips are deflated separately but must form one lossless stream
+        File png = new File("Temp/parallel.png");
+        ParallelImageIO.write(image, "png", png, pool);
+        assertArrayEquals(pixels, RasterConvolution.readPixels(ImageIO.read(png)));
+
+        // Stitched JPEG strips decode exactly like a single-threaded encode, with or without splitting
+        File jpg = new File("Temp/parallel.jpg");
+        ByteArrayOutputStream whole = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", whole);
+        ParallelImageIO.write(image, "jpg", jpg, pool);
+        int[] expected = RasterConvolution.readPixels(ImageIO.read(new ByteArrayInputStream(whole.toByteArray())));
+        assertArrayEquals(expected, RasterConvolution.readPixels(ImageIO.read(jpg)));
+        assertArrayEquals(expected, RasterConvolution.readPixels(ParallelImageIO.read(jpg, pool)));
+
+        png.delete();
+        jpg.delete();
+    }
+
+    @Test
+    public void testPipelineMetrics() throws IOException {
+        PipelineMetrics metrics = new PipelineMetrics();
+        for (int i = 1; i <= 1000; i++) {
+            metrics.record(PipelineMetrics.Stage.CONVOLVE, i * 1000L);
+        }
+        PipelineMetrics.Histogram convolve = metrics.getHistogram(PipelineMetrics.Stage.CONVOLVE);
+        assertEquals(1000, convolve.getCount());
+        assertEquals(1_000_000, convolve.getMax());
+        assertEquals(500_000, convolve.getValueAtPercentile(50), 500_000 * 0.016, "p50 within histogram precision");
+        assertEquals(990_000, convolve.getValueAtPercentile(99), 990_000 * 0.016, "p99 within histogram precision");
+
+        File csv = new File("Temp/metrics.csv");
+        metrics.export(csv);
+        assertTrue(Files.readString(csv.toPath()).contains("stage,convolve,1000,"), "CSV has the convolve row");
+        csv.delete();
+
+        // Parallel tiles run on the shared pool's named workers, which record their busy time globally
+        new Parallel(2).apply(ImageIO.read(new File("Temp/temp.jpg")), new float[][]{{1, 1, 1}, {1, 1, 1}, {1, 1, 1}}, 1f / 9);
+        String json = PipelineMetrics.global().toJson();
+        assertTrue(json.contains("\"filter-p2-worker-"), "JSON has the pool's workers");
+        assertTrue(PipelineMetrics.global().getHistogram(PipelineMetrics.Stage.FILTER).getCount() > 0);
+    }
+
+    @Test
+    public void testAutoTuner() throws IOException {
+        File calibrationFile = new File("Temp/autotune.properties");
+        calibrationFile.delete();
+        AutoTuner tuner = new AutoTuner(calibrationFile, 4);
+        AutoTuner.Calibration calibration = tuner.getCalibration();
+        assertTrue(calibrationFile.isFile(), "calibration is saved");
+        assertEquals(calibration.getNanosPerTap(), new AutoTuner(calibrationFile, 4).getCalibration().getNanosPerTap(), 0,
+                "a new tuner loads the saved calibration");
+
+        // Never more threads than cores, and the result is the same as any other engine's
+        float[][] kernel = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        AutoTuner.Decision large = tuner.choose(4800, 3200, kernel);
+        assertTrue(large.getThreads() >= 1 && large.getThreads() <= 4, "thread count within the core count");
+        assertEquals(1, new AutoTuner(calibrationFile, 1).choose(4800, 3200, kernel).getThreads(),
+                "one core means sequential");
+
+        BufferedImage image = ImageIO.read(new File("Temp/temp.jpg"));
+        FilterResult auto = tuner.apply(image, kernel, 1f, BorderMode.CLAMP);
+        assertTrue(auto.getEngineName().startsWith("Auto: "), auto.getEngineName());
+        assertArrayEquals(RasterConvolution.readPixels(new Sequential().apply(image, kernel, 1f, BorderMode.CLAMP).getImage()),
+                RasterConvolution.readPixels(auto.getImage()));
+
+        // A calibration from a different machine is measured again
+        Files.writeString(calibrationFile.toPath(), "environment=elsewhere\nnanosPerTap=99\nforkNanos=1\nwakeNanos=1\ntasksPerThread=4\n");
+        assertTrue(new AutoTuner(calibrationFile, 4).getCalibration().getNanosPerTap() < 99, "stale calibration ignored");
+        calibrationFile.delete();
+    }
+
+    /**
+     * Tests that released buffers are reused by size and type within the
+     * pool's budget, and that an engine writing into a pooled destination
+     * gives the same pixels without allocating once the pool is warm.
+     *
+     * @throws IOException if the test image cannot be loaded
+     */
+    @Test
+    public void testBufferPool() throws IOException {
+        // Room for one 1000-pixel array and one 10x10 image
+        BufferPool pool = new BufferPool(4 * 1000 + 4 * 100);
+        int[] pixels = pool.acquirePixels(1000);
+        pool.release(pixels);
+        assertSame(pixels, pool.acquirePixels(1000));
+        assertNotSame(pixels, pool.acquirePixels(999));
+
+        // Over the budget: the second array is dropped
+        pool.release(pixels);
+        pool.release(new int[1000]);
+        BufferedImage image = pool.acquireImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        pool.release(image);
+        assertNotSame(image, pool.acquireImage(10, 10, BufferedImage.TYPE_INT_ARGB));
+        assertSame(image, pool.acquireImage(10, 10, BufferedImage.TYPE_INT_RGB));
+        BufferPool.Stats stats = pool.getStats();
+        assertEquals(2, stats.getHits());
+        assertEquals(4, stats.getMisses());
+        assertEquals(1, stats.getDiscards());
+        assertEquals(4 * 1000, stats.getRetainedBytes());
+
+        BufferedImage input = ImageIO.read(new File("Temp/temp.jpg"));
+        float[][] sharpen = {{0, -1, 0}, {-1, 5, -1}, {0, -1, 0}};
+        int[] expected = RasterConvolution.readPixels(new Sequential().apply(input, sharpen, 1f).getImage());
+        BufferPool buffers = BufferPool.global();
+        BufferedImage destination = buffers.acquireOutput(input, input.getWidth(), input.getHeight());
+        long misses = buffers.getStats().getMisses();
+        FilterResult result = new Parallel(2).apply(input, sharpen, 1f, BorderMode.WRAP, null, destination);
+        assertSame(destination, result.getImage());
+        assertArrayEquals(expected, RasterConvolution.readPixels(destination));
+        assertEquals(misses, buffers.getStats().getMisses(), "work arrays come from the pool");
+        assertTrue(PipelineMetrics.global().toJson().contains("\"buffers\": {\"hits\": "), "JSON has the pool counters");
+        buffers.release(destination);
+
+        assertThrows(IllegalArgumentException.class, () -> new Sequential().apply(input, sharpen, 1f,
+                BorderMode.CROP_VALID, null, new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB)));
+    }
+
+    /**
+     * Tests that batch mode only picks up files with an extension it can
+     * read and writes each result in the format its extension names.
+     *
+     * @throws Exception if the test files cannot be written or the batch is interrupted
+     */
+    @Test
+    public void testBatchProcessorExtensions() throws Exception {
+        File in = new File("Temp/batch-in");
+        File out = new File("Temp/batch-out");
+        in.mkdirs();
+        BufferedImage image = new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(5, 5, 0xff8040);
+        ImageIO.write(image, "bmp", new File(in, "b.bmp"));
+        ImageIO.write(image, "jpg", new File(in, "photo"));
+        Files.writeString(new File(in, "notes.txt").toPath(), "not an image");
+
+        BatchProcessor batch = new BatchProcessor(new Sequential(), List.of(FilterCatalog.get("Sharpen")), 5, 1, 1, 2);
+        BatchProcessor.Report report = batch.run(in, out);
+        assertEquals(1, report.getInputs(), "only b.bmp is listed");
+        assertTrue(report.getFailures().isEmpty(), report.getFailures().toString());
+
+        File result = new File(out, "b-sharpen.bmp");
+        byte[] bytes = Files.readAllBytes(result.toPath());
+        assertEquals("BM", new String(bytes, 0, 2), "written as BMP");
+        assertEquals(1, out.list().length);
+
+        for (File dir : new File[]{in, out}) {
+            for (File f : dir.listFiles()) {
+                f.delete();
+            }
+            dir.delete();
+        }
+    }
 }
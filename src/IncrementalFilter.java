@@ -0,0 +1,259 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Re-filters only the part of an output image that a change to its source
+ * can reach. Given the rectangles of the source that changed, every output
+ * pixel whose kernel window covers one of them is recomputed and written
+ * into the previous output in place; the rest of it is left alone, so the
+ * cost follows the size of the change rather than the size of the image.
+ *
+ * A changed rectangle reaches kernelLen / 2 pixels further on every side.
+ * With WRAP that band crosses the image edges and continues on the
+ * opposite side, so one edit near a corner can touch all four corners.
+ * Overlapping regions are merged, then every region is cut into tiles that
+ * run as ForkJoin tasks. Each tile copies its source window plus halo
+ * through the border mode and runs the same inner loop as the spatial
+ * paths, so the patched pixels are identical to filtering the whole new
+ * source again (for kernels that Sequential sends to the FFT or the
+ * summed-area tables, within one level like those paths).
+ */
+public class IncrementalFilter {
+
+    private final float[][] kernel;
+    private final float multiplier;
+    private final BorderMode border;
+    private final WindowConvolution loop;
+
+    /**
+     * Creates an incremental filter for one kernel, multiplier and border mode.
+     *
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     */
+    public IncrementalFilter(float[][] kernel, float multiplier, BorderMode border) {
+        this.kernel = kernel;
+        this.multiplier = multiplier;
+        this.border = border;
+        this.loop = RasterConvolution.createLoop(kernel, multiplier);
+    }
+
+    /**
+     * Returns the output rectangles that changes to the given source
+     * rectangles can reach, in output coordinates (which differ from source
+     * coordinates only for CROP_VALID), wrapped around the edges for WRAP
+     * and merged so that no two overlap.
+     *
+     * @param dirty  Changed source rectangles.
+     * @param width  Source image width.
+     * @param height Source image height.
+     * @return The output regions to recompute.
+     */
+    public List<Rectangle> affectedRegions(List<Rectangle> dirty, int width, int height) {
+        Rectangle image = new Rectangle(0, 0, width, height);
+        List<Rectangle> regions = new ArrayList<>();
+        for (Rectangle rect : dirty) {
+            Rectangle changed = rect.intersection(image);
+            if (changed.isEmpty()) {
+                continue;
+            }
+            for (int[] xs : reach(changed.x, changed.x + changed.width, width)) {
+                for (int[] ys : reach(changed.y, changed.y + changed.height, height)) {
+                    add(regions, new Rectangle(xs[0], ys[0], xs[1] - xs[0], ys[1] - ys[0]));
+                }
+            }
+        }
+        return regions;
+    }
+
+    // Output intervals along one axis whose windows read any of the source coordinates [lo, hi)
+    private List<int[]> reach(int lo, int hi, int size) {
+        int kernelLen = kernel.length;
+        int half = kernelLen / 2;
+        int after = kernelLen - 1 - half;
+        // Output x reads x - half .. x + after, so source s is read by x in [s - after, s + half]
+        int from = lo - after, to = hi + half;
+
+        List<int[]> intervals = new ArrayList<>();
+        switch (border) {
+            case WRAP -> {
+                if (to - from >= size) {
+                    intervals.add(new int[]{0, size});
+                } else {
+                    int start = Math.floorMod(from, size), end = start + (to - from);
+                    intervals.add(new int[]{start, Math.min(end, size)});
+                    if (end > size) {
+                        intervals.add(new int[]{0, end - size});
+                    }
+                }
+            }
+            case CROP_VALID -> {
+                // Only outputs whose window is inside the image exist, shifted half a kernel left
+                int start = Math.max(from, half), end = Math.min(to, size - after);
+                if (start < end) {
+                    intervals.add(new int[]{start - half, end - half});
+                }
+            }
+            default -> {
+                // Edge pixels are only read again from within half a kernel of the edge, except by
+                // MIRROR windows wider than the image, which bounce and can read anything
+                if (border == BorderMode.MIRROR && kernelLen > size) {
+                    intervals.add(new int[]{0, size});
+                } else {
+                    intervals.add(new int[]{Math.max(from, 0), Math.min(to, size)});
+                }
+            }
+        }
+        return intervals;
+    }
+
+    // Adds a region, merging it with every region it overlaps into their bounding box
+    private static void add(List<Rectangle> regions, Rectangle region) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size(); i++) {
+                if (regions.get(i).intersects(region)) {
+                    region = region.union(regions.remove(i));
+                    merged = true;
+                    break;
+                }
+            }
+        }
+        regions.add(region);
+    }
+
+    /**
+     * Recomputes the output pixels that changes to the source rectangles can
+     * reach and writes them into the output in place.
+     *
+     * @param source The changed source image.
+     * @param output The output filtered from the source before the change
+     *               (same kernel, multiplier and border mode); updated in place.
+     * @param dirty  Source rectangles that changed.
+     * @param pool   Pool to run the tiles on, or null to run on the calling thread.
+     * @return The output regions that were recomputed.
+     */
+    public List<Rectangle> update(BufferedImage source, BufferedImage output, List<Rectangle> dirty,
+                                  ForkJoinPool pool) {
+        int width = source.getWidth();
+        int height = source.getHeight();
+        if (output.getWidth() != border.outputSize(width, kernel.length)
+                || output.getHeight() != border.outputSize(height, kernel.length)) {
+            throw new IllegalArgumentException("Output is " + output.getWidth() + "x" + output.getHeight()
+                    + ", not the " + border + " output of a " + width + "x" + height + " image");
+        }
+
+        List<Rectangle> regions = affectedRegions(dirty, width, height);
+        List<RecursiveAction> tasks = new ArrayList<>();
+        for (Rectangle region : regions) {
+            TileScheduler tiles = new TileScheduler(region.width, region.height, kernel.length);
+            TileOperation op = (x0, y0, x1, y1) -> patch(source, output,
+                    region.x + x0, region.y + y0, region.x + x1, region.y + y1);
+            tasks.add(tiles.createTask(op, pool == null ? 1 : pool.getParallelism()));
+        }
+
+        if (pool == null) {
+            tasks.forEach(RecursiveAction::invoke);
+        } else if (!tasks.isEmpty()) {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+        }
+        return regions;
+    }
+
+    // Recomputes the output rectangle [x0, x1) x [y0, y1) from the source window under it
+    private void patch(BufferedImage source, BufferedImage output, int x0, int y0, int x1, int y1) {
+        int kernelLen = kernel.length;
+        int half = kernelLen / 2;
+        int width = source.getWidth();
+        int height = source.getHeight();
+        // Output coordinates are source coordinates shifted by half a kernel under CROP_VALID
+        int shift = border == BorderMode.CROP_VALID ? half : 0;
+        int cols = x1 - x0, rows = y1 - y0;
+        int paddedWidth = cols + kernelLen - 1;
+        int paddedRows = rows + kernelLen - 1;
+
+        // Source coordinates of the window, through the border mode (-1 reads as black under ZERO)
+        int[] columns = new int[paddedWidth];
+        int[] sourceRows = new int[paddedRows];
+        for (int c = 0; c < paddedWidth; c++) {
+            columns[c] = border.index(x0 + shift - half + c, width);
+        }
+        for (int r = 0; r < paddedRows; r++) {
+            sourceRows[r] = border.index(y0 + shift - half + r, height);
+        }
+
+        // Read each block of consecutive source columns and rows once, then gather the padded
+        // window from the blocks; a WRAP window across an edge reads two short runs, not all in between
+        int[][] xRuns = runs(columns), yRuns = runs(sourceRows);
+        int[][][] blocks = new int[yRuns[0].length][xRuns[0].length][];
+        for (int j = 0; j < blocks.length; j++) {
+            for (int i = 0; i < blocks[j].length; i++) {
+                blocks[j][i] = RasterConvolution.readPixels(source.getSubimage(xRuns[0][i], yRuns[0][j],
+                        xRuns[1][i] - xRuns[0][i], yRuns[1][j] - yRuns[0][j]));
+            }
+        }
+        int[] columnRun = new int[paddedWidth];
+        for (int c = 0; c < paddedWidth; c++) {
+            columnRun[c] = run(xRuns, columns[c]);
+        }
+        int[] padded = new int[paddedWidth * paddedRows];
+        for (int r = 0; r < paddedRows; r++) {
+            int j = run(yRuns, sourceRows[r]);
+            if (j < 0) {
+                continue;
+            }
+            for (int c = 0; c < paddedWidth; c++) {
+                int i = columnRun[c];
+                if (i >= 0) {
+                    int runWidth = xRuns[1][i] - xRuns[0][i];
+                    padded[r * paddedWidth + c] =
+                            blocks[j][i][(sourceRows[r] - yRuns[0][j]) * runWidth + columns[c] - xRuns[0][i]];
+                }
+            }
+        }
+
+        int[] pixels = new int[cols * rows];
+        loop.convolve(padded, 0, paddedWidth, pixels, 0, cols, cols, rows);
+        RasterConvolution.writePixels(output.getSubimage(x0, y0, cols, rows), pixels);
+    }
+
+    // Splits the distinct source coordinates (ignoring -1) into runs of consecutive ones,
+    // returned as {starts, ends}
+    private static int[][] runs(int[] coords) {
+        int[] sorted = Arrays.stream(coords).filter(c -> c >= 0).sorted().distinct().toArray();
+        List<Integer> starts = new ArrayList<>(), ends = new ArrayList<>();
+        for (int k = 0; k < sorted.length; k++) {
+            if (k == 0 || sorted[k] != sorted[k - 1] + 1) {
+                starts.add(sorted[k]);
+                ends.add(sorted[k] + 1);
+            } else {
+                ends.set(ends.size() - 1, sorted[k] + 1);
+            }
+        }
+        return new int[][]{starts.stream().mapToInt(Integer::intValue).toArray(),
+                ends.stream().mapToInt(Integer::intValue).toArray()};
+    }
+
+    // Index of the run holding a source coordinate, or -1 for a coordinate that reads as black
+    private static int run(int[][] runs, int coord) {
+        for (int k = 0; k < runs[0].length; k++) {
+            if (coord >= runs[0][k] && coord < runs[1][k]) {
+                return k;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * Median of each colour channel over a square (2r+1) x (2r+1) window, in
+ * constant time per pixel whatever the radius (Perreault and Hebert,
+ * "Median Filtering in Constant Time", 2007).
+ *
+ * A tile keeps one histogram per column of its halo, covering the 2r+1
+ * rows around the current row; moving down a row removes one value from
+ * each column histogram and adds one. The window histogram is the sum of
+ * 2r+1 column histograms and slides right by adding the column entering it
+ * and subtracting the one leaving it. Every histogram has two levels, 16
+ * coarse bins over 256 fine ones: the coarse bins are kept current at every
+ * step, and a run of 16 fine bins is only brought up to date when the
+ * median falls into it, so a step costs a few dozen operations, not 256.
+ */
+public class MedianFilter implements NonLinearFilter {
+
+    // Column histogram counts (at most 2r+1) are kept in shorts
+    public static final int MAX_RADIUS = 255;
+
+    // Tall tiles spread each column histogram's 2r+1 row start-up over many rows
+    private static final int TILE_SIZE = 256;
+
+    private final int radius;
+
+    /**
+     * Creates a median filter.
+     *
+     * @param radius Window radius; the window is 2 * radius + 1 pixels across.
+     */
+    public MedianFilter(int radius) {
+        if (radius < 1 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Median radius must be between 1 and " + MAX_RADIUS + ": " + radius);
+        }
+        this.radius = radius;
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    @Override
+    public int getWindowSize() {
+        return 2 * radius + 1;
+    }
+
+    @Override
+    public double getTapsPerPixel() {
+        // Measured: about seven 3x3 convolutions, whatever the radius
+        return 40;
+    }
+
+    @Override
+    public TileScheduler createTiles(int width, int height) {
+        return new TileScheduler(width, height, TILE_SIZE, TILE_SIZE);
+    }
+
+    @Override
+    public TileOperation createOperation(int[] src, int[] dst, int width, int height, BorderMode border) {
+        return (x0, y0, x1, y1) -> filterTile(src, dst, width, height, border, x0, y0, x1, y1);
+    }
+
+    private void filterTile(int[] src, int[] dst, int width, int height, BorderMode border,
+                            int x0, int y0, int x1, int y1) {
+        int span = 2 * radius + 1;
+        int columns = x1 - x0 + 2 * radius;
+
+        // Source column behind every halo column (-1 reads as black under ZERO)
+        int[] sourceColumn = new int[columns];
+        for (int j = 0; j < columns; j++) {
+            sourceColumn[j] = border.index(x0 - radius + j, width);
+        }
+
+        // One channel at a time over the whole tile, so only its histograms need to stay in cache
+        Channel channel = new Channel(columns, span);
+        for (int shift = 16; shift >= 0; shift -= 8) {
+            channel.clear();
+            for (int dy = -radius; dy <= radius; dy++) {
+                addRow(channel, src, width, sourceColumn, border.index(y0 + dy, height), shift, 1);
+            }
+
+            for (int y = y0; y < y1; y++) {
+                if (y > y0) {
+                    // Slide every column histogram down one row
+                    addRow(channel, src, width, sourceColumn, border.index(y - radius - 1, height), shift, -1);
+                    addRow(channel, src, width, sourceColumn, border.index(y + radius, height), shift, 1);
+                }
+                channel.startRow();
+                int out = y * width + x0;
+                for (int i = 0; i < x1 - x0; i++) {
+                    int median = channel.median(i) << shift;
+                    dst[out + i] = shift == 16 ? median : dst[out + i] | median;
+                }
+            }
+        }
+    }
+
+    // Adds (delta 1) or removes (delta -1) one channel of a source row in every column histogram
+    private static void addRow(Channel channel, int[] src, int width, int[] sourceColumn, int row, int shift,
+                               int delta) {
+        short[] fine = channel.fine, coarse = channel.coarse;
+        for (int j = 0; j < sourceColumn.length; j++) {
+            int value = row < 0 || sourceColumn[j] < 0 ? 0 : (src[row * width + sourceColumn[j]] >> shift) & 0xFF;
+            fine[j * 256 + value] += delta;
+            coarse[j * 16 + (value >> 4)] += delta;
+        }
+    }
+
+    /**
+     * Column histograms and the sliding window histogram of the channel
+     * being filtered.
+     */
+    private static final class Channel {
+        // Marks a fine segment that has to be summed from scratch
+        private static final int STALE = Integer.MIN_VALUE / 2;
+
+        final short[] fine, coarse;
+        private final int span, half;
+        private final int[] windowFine = new int[256];
+        private final int[] windowCoarse = new int[16];
+
+        // First column of the window each fine segment of windowFine was last summed for
+        private final int[] segmentStart = new int[16];
+
+        Channel(int columns, int span) {
+            this.fine = new short[columns * 256];
+            this.coarse = new short[columns * 16];
+            this.span = span;
+            this.half = span * span / 2;
+        }
+
+        void clear() {
+            Arrays.fill(fine, (short) 0);
+            Arrays.fill(coarse, (short) 0);
+        }
+
+        // Sums the coarse bins of the row's first window and marks every fine segment stale
+        void startRow() {
+            Arrays.fill(windowCoarse, 0);
+            for (int j = 0; j < span; j++) {
+                for (int b = 0; b < 16; b++) {
+                    windowCoarse[b] += coarse[j * 16 + b];
+                }
+            }
+            Arrays.fill(segmentStart, STALE);
+        }
+
+        // Median of the window over columns i .. i + span - 1; windows must come left to right
+        int median(int i) {
+            if (i > 0) {
+                int in = (i + span - 1) * 16, out = (i - 1) * 16;
+                for (int b = 0; b < 16; b++) {
+                    windowCoarse[b] += coarse[in + b] - coarse[out + b];
+                }
+            }
+
+            int count = 0, b = 0;
+            while (count + windowCoarse[b] <= half) {
+                count += windowCoarse[b++];
+            }
+            updateSegment(b, i);
+            int value = b * 16;
+            while (count + windowFine[value] <= half) {
+                count += windowFine[value++];
+            }
+            return value;
+        }
+
+        // Brings fine segment b up to the window starting at column i
+        private void updateSegment(int b, int i) {
+            int base = b * 16;
+            int last = segmentStart[b];
+            if (i - last >= span) {
+                // No columns in common with the last sum: start over
+                Arrays.fill(windowFine, base, base + 16, 0);
+                for (int j = i; j < i + span; j++) {
+                    for (int k = 0; k < 16; k++) {
+                        windowFine[base + k] += fine[j * 256 + base + k];
+                    }
+                }
+            } else {
+                for (int j = last; j < i; j++) {
+                    int in = (j + span) * 256 + base, out = j * 256 + base;
+                    for (int k = 0; k < 16; k++) {
+                        windowFine[base + k] += fine[in + k] - fine[out + k];
+                    }
+                }
+            }
+            segmentStart[b] = i;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "Median (radius " + radius + ")";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof MedianFilter m && radius == m.radius;
+    }
+
+    @Override
+    public int hashCode() {
+        return radius;
+    }
+}
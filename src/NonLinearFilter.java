@@ -0,0 +1,51 @@
+/**
+ * A neighbourhood filter that is not a weighted sum of its inputs, such as
+ * a median. The filter supplies the tiling that suits its algorithm and an
+ * operation over one tile; the engines decide how the tiles are run, so it
+ * plugs into the same Sequential and Parallel modes as the kernels.
+ *
+ * Implementations keep no per-call state and compare equal when their
+ * parameters are equal, so ResultCache can key results on them.
+ */
+public interface NonLinearFilter {
+
+    /**
+     * Returns the side of the square neighbourhood one output pixel depends
+     * on; CROP_VALID trims half of it from every edge.
+     */
+    int getWindowSize();
+
+    /**
+     * Returns the rough cost of one output pixel in convolution kernel taps,
+     * so AutoTuner can weigh it against thread start-up the same way.
+     */
+    double getTapsPerPixel();
+
+    /**
+     * Creates the tiling this filter works best with for an image size.
+     *
+     * @param width  Image width.
+     * @param height Image height.
+     * @return The tiling the engines should run the operation over.
+     */
+    TileScheduler createTiles(int width, int height);
+
+    /**
+     * Creates the operation that filters one tile of src into dst. Tiles
+     * only write their own pixels, so they may run in any order and on any
+     * thread.
+     *
+     * @param src    Packed RGB input pixels.
+     * @param dst    Packed RGB output pixels (same size as src).
+     * @param width  Image width.
+     * @param height Image height.
+     * @param border How pixels beyond the image border are read.
+     * @return The tile operation.
+     */
+    TileOperation createOperation(int[] src, int[] dst, int width, int height, BorderMode border);
+
+    /**
+     * Returns the filter name with its parameters, e.g. "Median (radius 3)".
+     */
+    String getName();
+}
@@ -1,111 +1,87 @@
-import java.awt.Color;
-import java.awt.image.BufferedImage;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.RecursiveAction;
 
 /**
  * Parallel image processing using Java's ForkJoin framework.
- * Applies a convolution filter to an image by dividing the work
- * across multiple threads for better performance.
+ * Applies a convolution filter to an image by dividing it into
+ * cache-sized tiles that are processed across multiple threads.
  */
-public class Parallel {
+public class Parallel extends AbstractConvolutionEngine {
 
-    private static BufferedImage processedImage;
-    private static final int THRESHOLD = 100;
+    // Fixed thread count, or 0 to follow PoolManager's default at call time
+    private final int numThreads;
 
-    private static class ConvolutionTask extends RecursiveAction {
-        private final int startCol, endCol;
-        private final BufferedImage inputImg, outputImg;
-        private final float[][] kernel;
-        private final float multiplier;
-        private final int kernelLen, width, height;
+    // ForkJoin leaves per thread (see TileScheduler.splitThreshold)
+    private final int tasksPerThread;
 
-        ConvolutionTask(int startCol, int endCol,
-                        BufferedImage inputImg, BufferedImage outputImg,
-                        float[][] kernel, float multiplier,
-                        int kernelLen, int width, int height) {
-            this.startCol = startCol;
-            this.endCol = endCol;
-            this.inputImg = inputImg;
-            this.outputImg = outputImg;
-            this.kernel = kernel;
-            this.multiplier = multiplier;
-            this.kernelLen = kernelLen;
-            this.width = width;
-            this.height = height;
-        }
-
-        @Override
-        protected void compute() {
-            int range = endCol - startCol + 1;
-            if (range <= THRESHOLD) {
-                processChunk();
-            } else {
-                int mid = startCol + range / 2;
-                invokeAll(
-                    new ConvolutionTask(startCol, mid - 1, inputImg, outputImg, kernel, multiplier, kernelLen, width, height),
-                    new ConvolutionTask(mid, endCol, inputImg, outputImg, kernel, multiplier, kernelLen, width, height)
-                );
-            }
-        }
-
-        private void processChunk() {
-            for (int x = startCol; x <= endCol; x++) {
-                for (int y = 0; y < height; y++) {
-                    float redAcc = 0, greenAcc = 0, blueAcc = 0;
-
-                    for (int i = 0; i < kernelLen; i++) {
-                        for (int j = 0; j < kernelLen; j++) {
-                            int xCoord = (x - kernelLen / 2 + i + width) % width;
-                            int yCoord = (y - kernelLen / 2 + j + height) % height;
-
-                            int rgb = inputImg.getRGB(xCoord, yCoord);
-
-                            redAcc += ((rgb >> 16) & 0xFF) * kernel[i][j];
-                            greenAcc += ((rgb >> 8) & 0xFF) * kernel[i][j];
-                            blueAcc += (rgb & 0xFF) * kernel[i][j];
-                        }
-                    }
-
-                    int r = Math.min(Math.max((int) (redAcc * multiplier), 0), 255);
-                    int g = Math.min(Math.max((int) (greenAcc * multiplier), 0), 255);
-                    int b = Math.min(Math.max((int) (blueAcc * multiplier), 0), 255);
-
-                    outputImg.setRGB(x, y, new Color(r, g, b).getRGB());
-                }
-            }
-        }
+    /**
+     * Creates an engine using the default shared pool (see PoolManager).
+     */
+    public Parallel() {
+        this.numThreads = 0;
+        this.tasksPerThread = TileScheduler.getDefaultTasksPerThread();
     }
 
     /**
-     * Process using default commonPool (all available processors)
+     * Creates an engine using the specified number of threads. The pool for
+     * that thread count is shared across calls and engines.
+     *
+     * @param numThreads Number of worker threads (at least 1).
      */
-    public static long process(BufferedImage inputImg, float[][] kernel, float multiplier) {
-        return process(inputImg, kernel, multiplier, Runtime.getRuntime().availableProcessors());
+    public Parallel(int numThreads) {
+        this(numThreads, TileScheduler.getDefaultTasksPerThread());
     }
 
     /**
-     * Process using specified number of threads.
+     * Creates an engine with an explicit split granularity, as chosen by AutoTuner.
+     *
+     * @param numThreads     Number of worker threads (at least 1).
+     * @param tasksPerThread ForkJoin leaves per thread (at least 1); more leaves
+     *                       balance better, fewer cost less to fork.
      */
-    public static long process(BufferedImage inputImg, float[][] kernel, float multiplier, int numThreads) {
-        long start = System.currentTimeMillis();
-
-        int width = inputImg.getWidth();
-        int height = inputImg.getHeight();
-        int kernelLen = kernel.length;
+    public Parallel(int numThreads, int tasksPerThread) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1: " + numThreads);
+        }
+        if (tasksPerThread < 1) {
+            throw new IllegalArgumentException("Tasks per thread must be at least 1: " + tasksPerThread);
+        }
+        this.numThreads = numThreads;
+        this.tasksPerThread = tasksPerThread;
+    }
 
-        BufferedImage outputImg = new BufferedImage(width, height, inputImg.getType());
+    @Override
+    protected void convolve(int[] src, int[] dst, int width, int height, float[][] kernel, float multiplier,
+                            BorderMode border, FilterProgress progress) {
+        ForkJoinPool pool = PoolManager.getPool(getThreadCount());
+        if (SummedAreaTable.isPreferred(kernel)) {
+            SummedAreaTable.convolve(src, dst, width, height, kernel, multiplier, border, pool, progress);
+        } else if (FFTConvolution.isPreferred(kernel)) {
+            FFTConvolution.convolve(src, dst, width, height, kernel, multiplier, border, pool, progress);
+        } else {
+            TileScheduler tiles = new TileScheduler(width, height, kernel.length);
+            TileOperation op = FilterProgress.track(progress,
+                    RasterConvolution.createOperation(src, dst, width, height, kernel, multiplier, border));
+            pool.invoke(tiles.createTask(op, pool.getParallelism(), tasksPerThread));
+        }
+    }
 
-        ForkJoinPool pool = new ForkJoinPool(numThreads);
-        ConvolutionTask mainTask = new ConvolutionTask(0, width - 1, inputImg, outputImg, kernel, multiplier, kernelLen, width, height);
-        pool.invoke(mainTask);
-        pool.shutdown();
+    @Override
+    protected void filter(int[] src, int[] dst, int width, int height, NonLinearFilter filter, BorderMode border,
+                          FilterProgress progress) {
+        ForkJoinPool pool = PoolManager.getPool(getThreadCount());
+        TileOperation op = FilterProgress.track(progress, filter.createOperation(src, dst, width, height, border));
+        pool.invoke(filter.createTiles(width, height).createTask(op, pool.getParallelism(), tasksPerThread));
+    }
 
-        processedImage = outputImg;
-        return System.currentTimeMillis() - start;
+    /**
+     * Returns the number of worker threads the next call will use.
+     */
+    public int getThreadCount() {
+        return numThreads > 0 ? numThreads : PoolManager.getDefaultParallelism();
     }
 
-    public static BufferedImage getOutput() {
-        return processedImage;
+    @Override
+    public String getName() {
+        return "Parallel (" + getThreadCount() + " threads)";
     }
 }
@@ -0,0 +1,799 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Decodes and encodes single large images on several threads.
+ *
+ * Decoding:
+ * <ul>
+ *   <li>Formats whose reader reports easy random access (TIFF, BMP, ...) are
+ *       read as horizontal strips, one ImageReader per strip, each with
+ *       ImageReadParam.setSourceRegion and writing into a shared destination.</li>
+ *   <li>JPEG readers decode from the top of the file for every source
+ *       region, so strips would cost quadratic time. Baseline JPEGs whose
+ *       restart interval covers whole MCU rows (such as the ones written
+ *       here) are instead cut at their restart markers into independent
+ *       smaller JPEGs, decoded in parallel with one interval of overlap so
+ *       chroma upsampling sees the same neighbours.</li>
+ *   <li>Anything else (including PNG, whose single deflate stream cannot be
+ *       entered in the middle) is decoded by ImageIO on the calling thread.</li>
+ * </ul>
+ * Most JPEGs in the wild do not qualify: progressive files and files
+ * without a restart interval, which includes every photo in Samples/,
+ * always decode on one thread. Writing a source once with this class (or
+ * converting it to .raw with RawImageFile) makes later reads splittable.
+ * Splitting also decodes the overlap twice, so it only pays off with
+ * several free cores.
+ *
+ * Encoding:
+ * <ul>
+ *   <li>PNG: each strip of rows is filtered and deflated on its own and
+ *       ends on a byte boundary (sync flush), so the strips concatenate into
+ *       one zlib stream; each goes into its own IDAT chunk and the Adler-32
+ *       checksums are combined.</li>
+ *   <li>JPEG: each strip of whole MCU rows is encoded by its own ImageIO
+ *       writer, and the entropy-coded segments are stitched behind one header
+ *       with a restart interval of one strip, so the file decodes to exactly
+ *       what a single-threaded write would.</li>
+ * </ul>
+ *
+ * Images with alpha and other formats go through ImageIO unchanged, as
+ * does everything when the pool has a single thread.
+ */
+public class ParallelImageIO {
+
+    // Strips per worker for PNG, so a slow strip does not hold up the rest
+    private static final int PNG_STRIPS_PER_THREAD = 2;
+
+    // Fewer rows than this per strip cost more in setup than they save
+    private static final int MIN_STRIP_ROWS = 64;
+
+    // Same compression level as the JDK's PNG writer
+    private static final int PNG_LEVEL = 4;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * Reads an image with the default pool (see PoolManager).
+     *
+     * @param file The image file (any ImageIO format, or .raw).
+     * @return The decoded image.
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public static BufferedImage read(File file) throws IOException {
+        return read(file, PoolManager.getPool(PoolManager.getDefaultParallelism()));
+    }
+
+    /**
+     * Reads an image, decoding parts of it in parallel where the format allows.
+     *
+     * @param file The image file (any ImageIO format, or .raw).
+     * @param pool Pool to decode on.
+     * @return The decoded image.
+     * @throws IOException if the file cannot be read or decoded
+     */
+    public static BufferedImage read(File file, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = decode(file, pool);
+        PipelineMetrics.global().record(PipelineMetrics.Stage.DECODE, System.nanoTime() - start);
+        return image;
+    }
+
+    /**
+     * Decodes an image held in memory, such as a request body. JPEGs are
+     * split at their restart markers as for files; other formats are
+     * decoded by ImageIO.
+     *
+     * @param data The encoded image.
+     * @param pool Pool to decode on.
+     * @return The decoded image.
+     * @throws IOException if the data cannot be decoded
+     */
+    public static BufferedImage read(byte[] data, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = null;
+        if (pool.getParallelism() > 1 && data.length > 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8) {
+            image = decodeJpeg(data, pool.getParallelism(), pool);
+        }
+        if (image == null) {
+            image = ImageIO.read(new ByteArrayInputStream(data));
+            if (image == null) {
+                throw new IOException("Unsupported image format");
+            }
+        }
+        PipelineMetrics.global().record(PipelineMetrics.Stage.DECODE, System.nanoTime() - start);
+        return image;
+    }
+
+    private static BufferedImage decode(File file, ForkJoinPool pool) throws IOException {
+        if (RawImageFile.isRaw(file)) {
+            return RawImageFile.read(file);
+        }
+        int parallelism = pool.getParallelism();
+        if (parallelism > 1) {
+            String suffix = suffix(file.getName());
+            if (suffix.equals("jpg") || suffix.equals("jpeg")) {
+                BufferedImage image = decodeJpeg(Files.readAllBytes(file.toPath()), parallelism, pool);
+                if (image != null) {
+                    return image;
+                }
+            } else {
+                BufferedImage image = readRegions(file, parallelism, pool);
+                if (image != null) {
+                    return image;
+                }
+            }
+        }
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Unsupported image format: " + file);
+        }
+        return image;
+    }
+
+    /**
+     * Writes an image with the default pool (see PoolManager).
+     *
+     * @param image  The image to write.
+     * @param format Format name, e.g. "png" or "jpg" (or "raw").
+     * @param file   The output file (replaced if it exists).
+     * @throws IOException if there is no writer for the format or writing fails
+     */
+    public static void write(BufferedImage image, String format, File file) throws IOException {
+        write(image, format, file, PoolManager.getPool(PoolManager.getDefaultParallelism()));
+    }
+
+    /**
+     * Writes an image, encoding strips of it in parallel for PNG and JPEG.
+     *
+     * @param image  The image to write.
+     * @param format Format name, e.g. "png" or "jpg" (or "raw").
+     * @param file   The output file (replaced if it exists).
+     * @param pool   Pool to encode on.
+     * @throws IOException if there is no writer for the format or writing fails
+     */
+    public static void write(BufferedImage image, String format, File file, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        String name = format.toLowerCase(Locale.ROOT);
+        if (name.equals(RawImageFile.EXTENSION)) {
+            RawImageFile.write(image, file);
+        } else {
+            checkWriter(name);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                encode(image, name, out, pool);
+            }
+        }
+        PipelineMetrics.global().record(PipelineMetrics.Stage.ENCODE, System.nanoTime() - start);
+    }
+
+    /**
+     * Encodes an image to a stream, such as a response body, encoding strips
+     * in parallel for PNG and JPEG.
+     *
+     * @param image  The image to write.
+     * @param format Format name, e.g. "png" or "jpg".
+     * @param out    Stream the encoded image is written to (not closed).
+     * @param pool   Pool to encode on.
+     * @throws IOException if there is no writer for the format or writing fails
+     */
+    public static void write(BufferedImage image, String format, OutputStream out, ForkJoinPool pool) throws IOException {
+        long start = System.nanoTime();
+        String name = format.toLowerCase(Locale.ROOT);
+        checkWriter(name);
+        encode(image, name, out, pool);
+        out.flush();
+        PipelineMetrics.global().record(PipelineMetrics.Stage.ENCODE, System.nanoTime() - start);
+    }
+
+    // Fails before any output is created if ImageIO cannot write the format at all
+    private static void checkWriter(String name) throws IOException {
+        if (!ImageIO.getImageWritersByFormatName(name).hasNext()) {
+            throw new IOException("No writer for " + name);
+        }
+    }
+
+    private static void encode(BufferedImage image, String name, OutputStream out, ForkJoinPool pool) throws IOException {
+        int parallelism = pool.getParallelism();
+        if (parallelism > 1 && isOpaqueRgb(image)) {
+            if (name.equals("png")) {
+                encodePng(image, parallelism * PNG_STRIPS_PER_THREAD, pool, out);
+                return;
+            }
+            if (name.equals("jpg") || name.equals("jpeg")) {
+                byte[] jpeg = encodeJpeg(image, parallelism, pool);
+                if (jpeg != null) {
+                    out.write(jpeg);
+                    return;
+                }
+            }
+        }
+        if (!ImageIO.write(image, name, out)) {
+            throw new IOException("No writer for " + name + " images of type " + image.getType());
+        }
+    }
+
+    // Image types whose pixels are fully described by readPixels' 0xRRGGBB values
+    private static boolean isOpaqueRgb(BufferedImage image) {
+        return switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_BGR, BufferedImage.TYPE_3BYTE_BGR -> true;
+            default -> false;
+        };
+    }
+
+    private static String suffix(String name) {
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    // ---- Region decoding ----
+
+    // Strips read by separate readers into one destination, or null if the format has no cheap random access
+    private static BufferedImage readRegions(File file, int parallelism, ForkJoinPool pool) throws IOException {
+        int width, height;
+        BufferedImage destination;
+        try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            ImageReader reader = firstReader(in);
+            if (reader == null) {
+                return null;
+            }
+            try {
+                reader.setInput(in, true, true);
+                if (!reader.isRandomAccessEasy(0)) {
+                    return null;
+                }
+                width = reader.getWidth(0);
+                height = reader.getHeight(0);
+                Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                if (!types.hasNext() || height < 2 * MIN_STRIP_ROWS) {
+                    return null;
+                }
+                destination = types.next().createBufferedImage(width, height);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        int strips = Math.min(parallelism, height / MIN_STRIP_ROWS);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (int s = 0; s < strips; s++) {
+            int y0 = (int) ((long) height * s / strips);
+            int y1 = (int) ((long) height * (s + 1) / strips);
+            tasks.add(() -> {
+                try (ImageInputStream in = ImageIO.createImageInputStream(file)) {
+                    ImageReader reader = firstReader(in);
+                    try {
+                        reader.setInput(in, true, true);
+                        ImageReadParam param = reader.getDefaultReadParam();
+                        param.setSourceRegion(new Rectangle(0, y0, width, y1 - y0));
+                        param.setDestination(destination);
+                        param.setDestinationOffset(new Point(0, y0));
+                        reader.read(0, param);
+                    } finally {
+                        reader.dispose();
+                    }
+                }
+                return null;
+            });
+        }
+        invokeAll(pool, tasks);
+        return destination;
+    }
+
+    private static ImageReader firstReader(ImageInputStream in) {
+        if (in == null) {
+            return null;
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        return readers.hasNext() ? readers.next() : null;
+    }
+
+    // ---- JPEG ----
+
+    /**
+     * Decodes a JPEG in up to the given number of pieces cut at its restart
+     * markers. Returns null if the file is not a single-scan baseline JPEG
+     * whose restart interval is a whole number of MCU rows.
+     *
+     * @param jpeg   The complete file.
+     * @param pieces Maximum number of pieces decoded in parallel.
+     * @param pool   Pool to decode on.
+     * @return The image, identical to ImageIO.read of the same bytes, or null.
+     * @throws IOException if a piece cannot be decoded
+     */
+    static BufferedImage decodeJpeg(byte[] jpeg, int pieces, ForkJoinPool pool) throws IOException {
+        JpegLayout layout = JpegLayout.parse(jpeg);
+        if (layout == null || layout.restartInterval == 0 || layout.restartInterval % layout.mcusPerRow() != 0) {
+            return null;
+        }
+        int rowsPerInterval = layout.restartInterval / layout.mcusPerRow() * layout.mcuHeight;
+        List<int[]> intervals = layout.intervals(jpeg);
+        int count = intervals.size();
+        if (count != (layout.height + rowsPerInterval - 1) / rowsPerInterval) {
+            return null;
+        }
+        pieces = Math.min(pieces, count);
+        if (pieces < 2) {
+            return null;
+        }
+
+        // Each piece also decodes one interval above and below it, for the upsampler's context rows
+        List<Callable<BufferedImage>> tasks = new ArrayList<>();
+        int[] firstRow = new int[pieces], rowCount = new int[pieces], skip = new int[pieces];
+        for (int p = 0; p < pieces; p++) {
+            int i0 = count * p / pieces, i1 = count * (p + 1) / pieces;
+            int d0 = Math.max(0, i0 - 1), d1 = Math.min(count, i1 + 1);
+            firstRow[p] = i0 * rowsPerInterval;
+            rowCount[p] = Math.min(layout.height, i1 * rowsPerInterval) - firstRow[p];
+            skip[p] = (i0 - d0) * rowsPerInterval;
+            int pieceHeight = Math.min(layout.height, d1 * rowsPerInterval) - d0 * rowsPerInterval;
+            tasks.add(() -> {
+                byte[] piece = layout.piece(jpeg, intervals.subList(d0, d1), pieceHeight);
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(piece));
+                if (image == null) {
+                    throw new IOException("Restart segment did not decode");
+                }
+                return image;
+            });
+        }
+        List<BufferedImage> decoded = invokeAll(pool, tasks);
+
+        BufferedImage first = decoded.get(0);
+        BufferedImage image = first.getType() != BufferedImage.TYPE_CUSTOM
+                ? new BufferedImage(layout.width, layout.height, first.getType())
+                : new BufferedImage(first.getColorModel(),
+                first.getColorModel().createCompatibleWritableRaster(layout.width, layout.height), false, null);
+        for (int p = 0; p < pieces; p++) {
+            image.getRaster().setDataElements(0, firstRow[p],
+                    decoded.get(p).getRaster().createChild(0, skip[p], layout.width, rowCount[p], 0, 0, null));
+        }
+        return image;
+    }
+
+    /**
+     * Encodes a JPEG (ImageIO's default quality) as strips of whole MCU rows
+     * on separate writers and stitches them with restart markers. Returns
+     * null if the writer's output cannot be stitched.
+     *
+     * @param image  The image to encode.
+     * @param strips Number of strips encoded in parallel.
+     * @param pool   Pool to encode on.
+     * @return The JPEG file contents, or null.
+     * @throws IOException if encoding fails
+     */
+    static byte[] encodeJpeg(BufferedImage image, int strips, ForkJoinPool pool) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+
+        // 16 rows covers the tallest MCU ImageIO writes (4:2:0 chroma)
+        int mcuRows = (height + 15) / 16;
+        int mcusPerRow = (width + 15) / 16;
+        int stripMcuRows = Math.max(MIN_STRIP_ROWS / 16, (mcuRows + strips - 1) / strips);
+        stripMcuRows = Math.min(stripMcuRows, 0xFFFF / Math.max(1, mcusPerRow));
+        if (stripMcuRows < 1 || stripMcuRows >= mcuRows) {
+            return null;
+        }
+        int stripRows = stripMcuRows * 16;
+
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (int y0 = 0; y0 < height; y0 += stripRows) {
+            BufferedImage strip = image.getSubimage(0, y0, width, Math.min(stripRows, height - y0));
+            tasks.add(() -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ImageOutputStream out = ImageIO.createImageOutputStream(bytes)) {
+                    ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+                    try {
+                        writer.setOutput(out);
+                        writer.write(strip);
+                    } finally {
+                        writer.dispose();
+                    }
+                }
+                return bytes.toByteArray();
+            });
+        }
+        List<byte[]> encoded = invokeAll(pool, tasks);
+
+        // The header of the first strip describes them all; only the height and restart interval change
+        byte[] first = encoded.get(0);
+        JpegLayout layout = JpegLayout.parse(first);
+        if (layout == null || layout.restartInterval != 0 || stripRows % layout.mcuHeight != 0) {
+            return null;
+        }
+        int interval = stripRows / layout.mcuHeight * layout.mcusPerRow();
+        if (interval > 0xFFFF) {
+            return null;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(first, 0, layout.sosOffset);
+        out.write(new byte[]{(byte) 0xFF, (byte) 0xDD, 0, 4, (byte) (interval >> 8), (byte) interval});
+        out.write(first, layout.sosOffset, layout.dataStart - layout.sosOffset);
+        for (int s = 0; s < encoded.size(); s++) {
+            byte[] strip = encoded.get(s);
+            JpegLayout stripLayout = s == 0 ? layout : JpegLayout.parse(strip);
+            if (stripLayout == null) {
+                return null;
+            }
+            if (s > 0) {
+                out.write(0xFF);
+                out.write(0xD0 + (s - 1) % 8);
+            }
+            out.write(strip, stripLayout.dataStart, stripLayout.dataEnd - stripLayout.dataStart);
+        }
+        out.write(0xFF);
+        out.write(0xD9);
+
+        byte[] jpeg = out.toByteArray();
+        JpegLayout.putShort(jpeg, layout.sofOffset + 5, height);
+        return jpeg;
+    }
+
+    /**
+     * Where the parts of a single-scan baseline JPEG are. Offsets index the
+     * file's bytes.
+     */
+    private static final class JpegLayout {
+        int sofOffset, sosOffset, dataStart, dataEnd;
+        int width, height, mcuWidth, mcuHeight;
+        int restartInterval;
+
+        int mcusPerRow() {
+            return (width + mcuWidth - 1) / mcuWidth;
+        }
+
+        // Returns null for progressive, lossless, arithmetic-coded or multi-scan files
+        static JpegLayout parse(byte[] b) {
+            if (b.length < 4 || (b[0] & 0xFF) != 0xFF || (b[1] & 0xFF) != 0xD8) {
+                return null;
+            }
+            JpegLayout layout = new JpegLayout();
+            int p = 2;
+            while (p + 4 <= b.length) {
+                if ((b[p] & 0xFF) != 0xFF) {
+                    return null;
+                }
+                int marker = b[p + 1] & 0xFF;
+                if (marker == 0xFF) {
+                    p++;
+                    continue;
+                }
+                int length = getShort(b, p + 2);
+                switch (marker) {
+                    case 0xC0, 0xC1 -> {
+                        layout.sofOffset = p;
+                        layout.height = getShort(b, p + 5);
+                        layout.width = getShort(b, p + 7);
+                        int components = b[p + 9] & 0xFF;
+                        int hMax = 1, vMax = 1;
+                        for (int c = 0; c < components; c++) {
+                            int sampling = b[p + 11 + 3 * c] & 0xFF;
+                            hMax = Math.max(hMax, sampling >> 4);
+                            vMax = Math.max(vMax, sampling & 0xF);
+                        }
+                        layout.mcuWidth = 8 * hMax;
+                        layout.mcuHeight = 8 * vMax;
+                    }
+                    case 0xC2, 0xC3, 0xC5, 0xC6, 0xC7, 0xC9, 0xCA, 0xCB, 0xCD, 0xCE, 0xCF -> {
+                        return null;
+                    }
+                    case 0xDD -> layout.restartInterval = getShort(b, p + 4);
+                    case 0xDA -> {
+                        if (layout.mcuHeight == 0) {
+                            return null;
+                        }
+                        layout.sosOffset = p;
+                        layout.dataStart = p + 2 + length;
+                        layout.dataEnd = scanEnd(b, layout.dataStart);
+                        return layout.dataEnd < 0 ? null : layout;
+                    }
+                    default -> {
+                    }
+                }
+                p += 2 + length;
+            }
+            return null;
+        }
+
+        // Offset of the EOI marker ending the scan, or -1 if another marker (a second scan) comes first
+        private static int scanEnd(byte[] b, int start) {
+            for (int q = start; q + 1 < b.length; q++) {
+                if ((b[q] & 0xFF) != 0xFF) {
+                    continue;
+                }
+                int next = b[q + 1] & 0xFF;
+                if (next == 0xD9) {
+                    return q;
+                }
+                if (next != 0x00 && next != 0xFF && (next < 0xD0 || next > 0xD7)) {
+                    return -1;
+                }
+            }
+            return -1;
+        }
+
+        // [start, end) of each restart interval's entropy-coded data
+        List<int[]> intervals(byte[] b) {
+            List<int[]> list = new ArrayList<>();
+            int start = dataStart;
+            for (int q = dataStart; q + 1 < dataEnd; q++) {
+                if ((b[q] & 0xFF) == 0xFF && (b[q + 1] & 0xFF) >= 0xD0 && (b[q + 1] & 0xFF) <= 0xD7) {
+                    list.add(new int[]{start, q});
+                    start = q + 2;
+                    q++;
+                }
+            }
+            list.add(new int[]{start, dataEnd});
+            return list;
+        }
+
+        // A complete JPEG holding the given intervals, restart markers renumbered from RST0
+        byte[] piece(byte[] b, List<int[]> parts, int pieceHeight) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            out.write(b, 0, dataStart);
+            for (int i = 0; i < parts.size(); i++) {
+                if (i > 0) {
+                    out.write(0xFF);
+                    out.write(0xD0 + (i - 1) % 8);
+                }
+                int[] part = parts.get(i);
+                out.write(b, part[0], part[1] - part[0]);
+            }
+            out.write(0xFF);
+            out.write(0xD9);
+            byte[] piece = out.toByteArray();
+            putShort(piece, sofOffset + 5, pieceHeight);
+            return piece;
+        }
+
+        static int getShort(byte[] b, int at) {
+            return (b[at] & 0xFF) << 8 | (b[at + 1] & 0xFF);
+        }
+
+        static void putShort(byte[] b, int at, int value) {
+            b[at] = (byte) (value >> 8);
+            b[at + 1] = (byte) value;
+        }
+    }
+
+    // ---- PNG ----
+
+    /**
+     * Encodes an opaque RGB image as an 8-bit RGB PNG, filtering and
+     * deflating strips of rows in parallel.
+     *
+     * @param image  The image to encode (alpha, if any, is dropped).
+     * @param strips Number of strips compressed independently.
+     * @param pool   Pool to encode on.
+     * @param out    Stream the PNG is written to (not closed).
+     * @throws IOException if writing fails
+     */
+    static void encodePng(BufferedImage image, int strips, ForkJoinPool pool, OutputStream out) throws IOException {
+        int width = image.getWidth(), height = image.getHeight();
+        int[] pixels = RasterConvolution.readPixels(image);
+        strips = Math.max(1, Math.min(strips, height / MIN_STRIP_ROWS));
+
+        List<Callable<PngStrip>> tasks = new ArrayList<>();
+        for (int s = 0; s < strips; s++) {
+            int y0 = (int) ((long) height * s / strips);
+            int y1 = (int) ((long) height * (s + 1) / strips);
+            boolean last = s == strips - 1;
+            tasks.add(() -> PngStrip.encode(pixels, width, y0, y1, last));
+        }
+        List<PngStrip> encoded = invokeAll(pool, tasks);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(PNG_SIGNATURE);
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        DataOutputStream ihdr = new DataOutputStream(header);
+        ihdr.writeInt(width);
+        ihdr.writeInt(height);
+        ihdr.write(new byte[]{8, 2, 0, 0, 0}); // 8-bit RGB, deflate, adaptive filtering, no interlace
+        writeChunk(data, "IHDR", header.toByteArray());
+
+        // zlib header (deflate, 32K window, default level), the strips, then the combined Adler-32
+        long adler = 1;
+        for (int s = 0; s < encoded.size(); s++) {
+            PngStrip strip = encoded.get(s);
+            adler = combineAdler32(adler, strip.adler32, strip.rawLength);
+            ByteArrayOutputStream idat = new ByteArrayOutputStream(strip.deflated.length + 6);
+            if (s == 0) {
+                idat.write(0x78);
+                idat.write(0x9C);
+            }
+            idat.write(strip.deflated);
+            if (s == encoded.size() - 1) {
+                new DataOutputStream(idat).writeInt((int) adler);
+            }
+            writeChunk(data, "IDAT", idat.toByteArray());
+        }
+        writeChunk(data, "IEND", new byte[0]);
+        data.flush();
+    }
+
+    private static void writeChunk(DataOutputStream out, String type, byte[] body) throws IOException {
+        byte[] name = type.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(body);
+        out.writeInt(body.length);
+        out.write(name);
+        out.write(body);
+        out.writeInt((int) crc.getValue());
+    }
+
+    // Adler-32 of A followed by B from the checksums of each (zlib's adler32_combine)
+    static long combineAdler32(long adlerA, long adlerB, long lengthB) {
+        final long base = 65521;
+        long rem = lengthB % base;
+        long sum1 = adlerA & 0xFFFF;
+        long sum2 = rem * sum1 % base;
+        sum1 += (adlerB & 0xFFFF) + base - 1;
+        sum2 += ((adlerA >> 16) & 0xFFFF) + ((adlerB >> 16) & 0xFFFF) + base - rem;
+        if (sum1 >= base) sum1 -= base;
+        if (sum1 >= base) sum1 -= base;
+        if (sum2 >= base << 1) sum2 -= base << 1;
+        if (sum2 >= base) sum2 -= base;
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * One strip of filtered, deflated scanlines and the checksum of its
+     * uncompressed bytes.
+     */
+    private static final class PngStrip {
+        final byte[] deflated;
+        final long adler32;
+        final long rawLength;
+
+        private PngStrip(byte[] deflated, long adler32, long rawLength) {
+            this.deflated = deflated;
+            this.adler32 = adler32;
+            this.rawLength = rawLength;
+        }
+
+        static PngStrip encode(int[] pixels, int width, int y0, int y1, boolean last) {
+            int rowBytes = 3 * width;
+            byte[] previous = new byte[rowBytes];
+            byte[] current = new byte[rowBytes];
+            if (y0 > 0) {
+                toBytes(pixels, (y0 - 1) * width, width, previous);
+            }
+
+            // Candidate rows for filter types 0..4, each with its filter byte in front
+            byte[][] candidates = new byte[5][rowBytes + 1];
+            Deflater deflater = new Deflater(PNG_LEVEL, true);
+            Adler32 adler = new Adler32();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(rowBytes * (y1 - y0) / 3);
+            byte[] buffer = new byte[64 * 1024];
+
+            for (int y = y0; y < y1; y++) {
+                toBytes(pixels, y * width, width, current);
+                byte[] row = filterRow(current, previous, candidates);
+                adler.update(row);
+                deflater.setInput(row);
+                while (!deflater.needsInput()) {
+                    out.write(buffer, 0, deflater.deflate(buffer, 0, buffer.length, Deflater.NO_FLUSH));
+                }
+                byte[] swap = previous;
+                previous = current;
+                current = swap;
+            }
+
+            // A sync flush ends the strip on a byte boundary without closing the stream
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    out.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    out.write(buffer, 0, n);
+                } while (n == buffer.length);
+            }
+            deflater.end();
+            return new PngStrip(out.toByteArray(), adler.getValue(), (long) (rowBytes + 1) * (y1 - y0));
+        }
+
+        private static void toBytes(int[] pixels, int offset, int width, byte[] row) {
+            for (int x = 0, i = 0; x < width; x++) {
+                int rgb = pixels[offset + x];
+                row[i++] = (byte) (rgb >> 16);
+                row[i++] = (byte) (rgb >> 8);
+                row[i++] = (byte) rgb;
+            }
+        }
+
+        // Adaptive filtering: the filter type with the smallest sum of absolute (signed) bytes
+        private static byte[] filterRow(byte[] row, byte[] above, byte[][] candidates) {
+            int length = row.length;
+            long[] cost = new long[5];
+            for (int f = 0; f < 5; f++) {
+                candidates[f][0] = (byte) f;
+            }
+            for (int i = 0; i < length; i++) {
+                int raw = row[i] & 0xFF;
+                int left = i >= 3 ? row[i - 3] & 0xFF : 0;
+                int up = above[i] & 0xFF;
+                int upLeft = i >= 3 ? above[i - 3] & 0xFF : 0;
+
+                int p = left + up - upLeft;
+                int pa = Math.abs(p - left), pb = Math.abs(p - up), pc = Math.abs(p - upLeft);
+                int paeth = pa <= pb && pa <= pc ? left : pb <= pc ? up : upLeft;
+
+                byte none = (byte) raw;
+                byte sub = (byte) (raw - left);
+                byte vertical = (byte) (raw - up);
+                byte average = (byte) (raw - ((left + up) >> 1));
+                byte predicted = (byte) (raw - paeth);
+                candidates[0][i + 1] = none;
+                candidates[1][i + 1] = sub;
+                candidates[2][i + 1] = vertical;
+                candidates[3][i + 1] = average;
+                candidates[4][i + 1] = predicted;
+                cost[0] += Math.abs(none);
+                cost[1] += Math.abs(sub);
+                cost[2] += Math.abs(vertical);
+                cost[3] += Math.abs(average);
+                cost[4] += Math.abs(predicted);
+            }
+            int best = 0;
+            for (int f = 1; f < 5; f++) {
+                if (cost[f] < cost[best]) {
+                    best = f;
+                }
+            }
+            return candidates[best];
+        }
+    }
+
+    // Runs the tasks on the pool and returns their results in order, unwrapping I/O failures
+    private static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        for (Future<T> future : pool.invokeAll(tasks)) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) {
+                    throw io;
+                }
+                if (cause instanceof RuntimeException runtime) {
+                    throw runtime;
+                }
+                throw new IOException(cause);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,340 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide metrics of the filter pipeline: a latency histogram per
+ * stage (decode, prepare, convolve, pack, encode, display scaling and the
+ * whole filter call), the busy time of every thread that ran tiles, and the
+ * steal counts of the shared pools. Engines, ParallelImageIO and the UI
+ * record into {@link #global()}. The exports also carry the counters of
+ * BufferPool.global(), so steady-state allocation can be checked.
+ *
+ * Exported as JSON or CSV with {@link #export(File)}; when the JVM is
+ * started with -Dmetrics.file=path (.csv for CSV, anything else for JSON)
+ * the metrics are written there on exit.
+ */
+public class PipelineMetrics {
+
+    /**
+     * Timed stages. FILTER is one whole engine call (prepare + convolve + pack).
+     */
+    public enum Stage {
+        DECODE, PREPARE, CONVOLVE, PACK, ENCODE, DISPLAY, FILTER
+    }
+
+    private static final PipelineMetrics GLOBAL = new PipelineMetrics();
+
+    static {
+        String file = System.getProperty("metrics.file");
+        if (file != null) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    GLOBAL.export(new File(file));
+                } catch (IOException e) {
+                    System.err.println("Could not write metrics to " + file + ": " + e.getMessage());
+                }
+            }, "pipeline-metrics-export"));
+        }
+    }
+
+    private final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private final Map<String, WorkerTime> workers = new ConcurrentHashMap<>();
+
+    // Last pool counters seen, so they survive the pools being shut down before export
+    private final Map<Integer, PoolManager.PoolStats> pools = new ConcurrentHashMap<>();
+
+    private volatile long startNanos = System.nanoTime();
+
+    public PipelineMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * Returns the instance the pipeline records into.
+     */
+    public static PipelineMetrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records one measurement of a stage.
+     *
+     * @param stage The stage.
+     * @param nanos Its duration in nanoseconds.
+     */
+    public void record(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Records every stage of a filter call that took time, the call as a
+     * whole, and the current pool counters.
+     *
+     * @param timing The call's timing.
+     */
+    public void record(FilterTiming timing) {
+        recordIfTimed(Stage.DECODE, timing.getDecodeNanos());
+        recordIfTimed(Stage.PREPARE, timing.getPrepareNanos());
+        recordIfTimed(Stage.CONVOLVE, timing.getConvolveNanos());
+        recordIfTimed(Stage.PACK, timing.getPackNanos());
+        recordIfTimed(Stage.ENCODE, timing.getEncodeNanos());
+        recordIfTimed(Stage.FILTER, timing.getPrepareNanos() + timing.getConvolveNanos() + timing.getPackNanos());
+        for (PoolManager.PoolStats stats : PoolManager.getAllStats()) {
+            pools.put(stats.getParallelism(), stats);
+        }
+    }
+
+    private void recordIfTimed(Stage stage, long nanos) {
+        if (nanos > 0) {
+            record(stage, nanos);
+        }
+    }
+
+    /**
+     * Adds busy time to the calling thread, e.g. after it ran a batch of tiles.
+     *
+     * @param nanos Time the thread spent working.
+     */
+    public void addBusy(long nanos) {
+        WorkerTime worker = workers.computeIfAbsent(Thread.currentThread().getName(), name -> new WorkerTime());
+        worker.busy.add(nanos);
+        worker.batches.increment();
+    }
+
+    public Histogram getHistogram(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     * Returns the busy time of every thread that ran tiles, in nanoseconds, by thread name.
+     */
+    public Map<String, Long> getBusyNanos() {
+        Map<String, Long> busy = new TreeMap<>();
+        workers.forEach((name, worker) -> busy.put(name, worker.busy.sum()));
+        return busy;
+    }
+
+    /**
+     * Clears all histograms and counters and restarts the utilization clock.
+     */
+    public void reset() {
+        stages.values().forEach(Histogram::reset);
+        workers.clear();
+        pools.clear();
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Writes the metrics to a file, as CSV if its name ends in .csv and as JSON otherwise.
+     *
+     * @param file The file to write (replaced if it exists).
+     * @throws IOException if the file cannot be written
+     */
+    public void export(File file) throws IOException {
+        String text = file.getName().toLowerCase(Locale.ROOT).endsWith(".csv") ? toCsv() : toJson();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Fresh counters for live pools, the last seen ones for pools already shut down
+    private Map<Integer, PoolManager.PoolStats> poolSnapshot() {
+        for (PoolManager.PoolStats stats : PoolManager.getAllStats()) {
+            pools.put(stats.getParallelism(), stats);
+        }
+        return new TreeMap<>(pools);
+    }
+
+    /**
+     * Returns the metrics as a JSON object: "stages" (count, total and
+     * percentiles in microseconds), "workers" (busy time and utilization
+     * since the last reset), "pools" (steal counts) and "buffers" (buffer
+     * pool hits, misses and bytes allocated since the pool was cleared).
+     */
+    public String toJson() {
+        long elapsed = Math.max(1, System.nanoTime() - startNanos);
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        out.printf(Locale.ROOT, "{%n  \"elapsedMillis\": %.3f,%n  \"stages\": {", elapsed / 1e6);
+        String separator = "";
+        for (Stage stage : Stage.values()) {
+            Histogram h = stages.get(stage);
+            out.printf(Locale.ROOT, "%s%n    \"%s\": {\"count\": %d, \"totalMillis\": %.3f, \"meanMicros\": %.1f, "
+                            + "\"p50Micros\": %.1f, \"p90Micros\": %.1f, \"p99Micros\": %.1f, \"p999Micros\": %.1f, \"maxMicros\": %.1f}",
+                    separator, stage.name().toLowerCase(Locale.ROOT), h.getCount(), h.getTotalNanos() / 1e6,
+                    h.getMean() / 1e3, h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3, h.getMax() / 1e3);
+            separator = ",";
+        }
+        out.printf("%n  },%n  \"workers\": {");
+        separator = "";
+        for (Map.Entry<String, WorkerTime> entry : new TreeMap<>(workers).entrySet()) {
+            long busy = entry.getValue().busy.sum();
+            out.printf(Locale.ROOT, "%s%n    \"%s\": {\"busyMillis\": %.3f, \"batches\": %d, \"utilization\": %.4f}",
+                    separator, entry.getKey(), busy / 1e6, entry.getValue().batches.sum(), (double) busy / elapsed);
+            separator = ",";
+        }
+        out.printf("%n  },%n  \"pools\": [");
+        separator = "";
+        for (PoolManager.PoolStats stats : poolSnapshot().values()) {
+            out.printf("%s%n    {\"parallelism\": %d, \"threads\": %d, \"steals\": %d}",
+                    separator, stats.getParallelism(), stats.getPoolSize(), stats.getStealCount());
+            separator = ",";
+        }
+        BufferPool.Stats buffers = BufferPool.global().getStats();
+        out.printf("%n  ],%n  \"buffers\": {\"hits\": %d, \"misses\": %d, \"allocatedBytes\": %d, \"releases\": %d, "
+                        + "\"discards\": %d, \"retainedBytes\": %d, \"maxBytes\": %d}%n}%n",
+                buffers.getHits(), buffers.getMisses(), buffers.getAllocatedBytes(), buffers.getReleases(),
+                buffers.getDiscards(), buffers.getRetainedBytes(), buffers.getMaxBytes());
+        out.flush();
+        return text.toString();
+    }
+
+    /**
+     * Returns the metrics as CSV with one row per stage, worker, pool and
+     * buffer pool counter. Columns: kind, name, count (measurements, tile
+     * batches, steals or the counter's value), total_ms, mean_us, p50_us,
+     * p90_us, p99_us, p999_us, max_us, utilization; fields that do not
+     * apply are empty.
+     */
+    public String toCsv() {
+        long elapsed = Math.max(1, System.nanoTime() - startNanos);
+        StringBuilder csv = new StringBuilder("kind,name,count,total_ms,mean_us,p50_us,p90_us,p99_us,p999_us,max_us,utilization\n");
+        for (Stage stage : Stage.values()) {
+            Histogram h = stages.get(stage);
+            csv.append(String.format(Locale.ROOT, "stage,%s,%d,%.3f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%n",
+                    stage.name().toLowerCase(Locale.ROOT), h.getCount(), h.getTotalNanos() / 1e6, h.getMean() / 1e3,
+                    h.getValueAtPercentile(50) / 1e3, h.getValueAtPercentile(90) / 1e3,
+                    h.getValueAtPercentile(99) / 1e3, h.getValueAtPercentile(99.9) / 1e3, h.getMax() / 1e3));
+        }
+        for (Map.Entry<String, WorkerTime> entry : new TreeMap<>(workers).entrySet()) {
+            long busy = entry.getValue().busy.sum();
+            csv.append(String.format(Locale.ROOT, "worker,%s,%d,%.3f,,,,,,,%.4f%n",
+                    entry.getKey(), entry.getValue().batches.sum(), busy / 1e6, (double) busy / elapsed));
+        }
+        for (PoolManager.PoolStats stats : poolSnapshot().values()) {
+            csv.append(String.format("pool,p%d,%d,,,,,,,,%n", stats.getParallelism(), stats.getStealCount()));
+        }
+        BufferPool.Stats buffers = BufferPool.global().getStats();
+        long[] counters = {buffers.getHits(), buffers.getMisses(), buffers.getAllocatedBytes(), buffers.getReleases(),
+                buffers.getDiscards(), buffers.getRetainedBytes()};
+        String[] names = {"hits", "misses", "allocated_bytes", "releases", "discards", "retained_bytes"};
+        for (int i = 0; i < names.length; i++) {
+            csv.append(String.format("buffers,%s,%d,,,,,,,,%n", names[i], counters[i]));
+        }
+        return csv.toString();
+    }
+
+    private static final class WorkerTime {
+        final LongAdder busy = new LongAdder();
+        final LongAdder batches = new LongAdder();
+    }
+
+    /**
+     * Lock-free latency histogram in the style of HdrHistogram: values up to
+     * 127 ns are counted exactly, larger ones in 64 linear sub-buckets per
+     * power of two, so any recorded value is reported within 1.6%.
+     */
+    public static final class Histogram {
+
+        private static final int SUB_BUCKETS = 64;
+
+        // 128 exact slots, then 64 per power of two up to 2^63
+        private final AtomicLongArray counts = new AtomicLongArray(2 * SUB_BUCKETS + 57 * SUB_BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        /**
+         * Records one value.
+         *
+         * @param nanos The value (negative values count as 0).
+         */
+        public void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts.incrementAndGet(indexOf(value));
+            count.incrementAndGet();
+            total.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+
+        // Slot of a value: exact below 128, else (exponent, top 7 bits)
+        static int indexOf(long value) {
+            if (value < 2 * SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - 6;
+            return SUB_BUCKETS * shift + (int) (value >>> shift);
+        }
+
+        // Largest value that falls in the same slot
+        static long highestInSlot(int index) {
+            if (index < 2 * SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long sub = index - (long) SUB_BUCKETS * shift;
+            return ((sub + 1) << shift) - 1;
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getTotalNanos() {
+            return total.get();
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public double getMean() {
+            long n = count.get();
+            return n == 0 ? 0 : (double) total.get() / n;
+        }
+
+        /**
+         * Returns the value at or below which the given percentage of
+         * recorded values fall (0 if nothing was recorded).
+         *
+         * @param percentile 0 to 100.
+         */
+        public long getValueAtPercentile(double percentile) {
+            long n = count.get();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank) {
+                    return Math.min(highestInSlot(i), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        void reset() {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.set(i, 0);
+            }
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+    }
+}
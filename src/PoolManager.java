@@ -0,0 +1,173 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps one ForkJoinPool per parallelism level and hands the same pool out to
+ * every caller, so repeated filter calls reuse warm worker threads instead of
+ * creating and shutting down a pool each time. All pools are shut down when
+ * the JVM exits, or earlier through {@link #shutdown()}.
+ */
+public class PoolManager {
+
+    // How long the exit hook waits for running tasks before giving up
+    private static final long SHUTDOWN_TIMEOUT_MS = 2000;
+
+    private static final Map<Integer, ForkJoinPool> pools = new ConcurrentHashMap<>();
+
+    private static volatile int defaultParallelism = Runtime.getRuntime().availableProcessors();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(PoolManager::shutdown, "pool-manager-shutdown"));
+    }
+
+    /**
+     * Returns the shared pool for a parallelism level, creating it on first use.
+     *
+     * @param parallelism Number of worker threads (at least 1).
+     * @return The pool for that level.
+     */
+    public static ForkJoinPool getPool(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        return pools.computeIfAbsent(parallelism, PoolManager::createPool);
+    }
+
+    /**
+     * Returns the pool for the current default parallelism.
+     */
+    public static ForkJoinPool getDefaultPool() {
+        return getPool(defaultParallelism);
+    }
+
+    public static int getDefaultParallelism() {
+        return defaultParallelism;
+    }
+
+    /**
+     * Sets the parallelism used when a caller does not pass a thread count.
+     *
+     * @param parallelism Number of worker threads (at least 1).
+     */
+    public static void setDefaultParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+        }
+        defaultParallelism = parallelism;
+    }
+
+    /**
+     * Returns a utilization snapshot of one pool, or null if it was never created.
+     *
+     * @param parallelism The pool's parallelism level.
+     * @return Current counters of that pool.
+     */
+    public static PoolStats getStats(int parallelism) {
+        ForkJoinPool pool = pools.get(parallelism);
+        return pool == null ? null : new PoolStats(pool);
+    }
+
+    /**
+     * Returns utilization snapshots of every live pool.
+     */
+    public static List<PoolStats> getAllStats() {
+        List<PoolStats> stats = new ArrayList<>();
+        for (ForkJoinPool pool : pools.values()) {
+            stats.add(new PoolStats(pool));
+        }
+        stats.sort((a, b) -> Integer.compare(a.getParallelism(), b.getParallelism()));
+        return stats;
+    }
+
+    /**
+     * Shuts down every pool, waiting briefly for running tasks. Pools requested
+     * afterwards are created fresh.
+     */
+    public static void shutdown() {
+        List<ForkJoinPool> closing = new ArrayList<>(pools.values());
+        pools.clear();
+        for (ForkJoinPool pool : closing) {
+            pool.shutdown();
+        }
+        for (ForkJoinPool pool : closing) {
+            try {
+                pool.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static ForkJoinPool createPool(int parallelism) {
+        // Named workers make the pools easy to tell apart in thread dumps and profilers
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("filter-p" + parallelism + "-worker-" + thread.getPoolIndex());
+            return thread;
+        };
+        return new ForkJoinPool(parallelism, factory, null, false);
+    }
+
+    /**
+     * Point-in-time counters of one pool.
+     */
+    public static class PoolStats {
+        private final int parallelism;
+        private final int poolSize;
+        private final int activeThreads;
+        private final int runningThreads;
+        private final long queuedTasks;
+        private final int queuedSubmissions;
+        private final long stealCount;
+
+        PoolStats(ForkJoinPool pool) {
+            this.parallelism = pool.getParallelism();
+            this.poolSize = pool.getPoolSize();
+            this.activeThreads = pool.getActiveThreadCount();
+            this.runningThreads = pool.getRunningThreadCount();
+            this.queuedTasks = pool.getQueuedTaskCount();
+            this.queuedSubmissions = pool.getQueuedSubmissionCount();
+            this.stealCount = pool.getStealCount();
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        public int getPoolSize() {
+            return poolSize;
+        }
+
+        public int getActiveThreads() {
+            return activeThreads;
+        }
+
+        public int getRunningThreads() {
+            return runningThreads;
+        }
+
+        public long getQueuedTasks() {
+            return queuedTasks;
+        }
+
+        public int getQueuedSubmissions() {
+            return queuedSubmissions;
+        }
+
+        public long getStealCount() {
+            return stealCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("parallelism=%d, threads=%d, active=%d, running=%d, queued=%d, submissions=%d, steals=%d",
+                    parallelism, poolSize, activeThreads, runningThreads, queuedTasks, queuedSubmissions, stealCount);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Downsampled copies of an image for previews. Level 0 is the image itself
+ * and every further level halves both sides with a 2x2 box average, so an
+ * image of any size can be shown (or filtered) at about the size of its
+ * on-screen label instead of at full resolution.
+ *
+ * Levels are built on first use and remembered while their source image
+ * is alive: only the reduced levels are stored, never the source itself,
+ * so the weak key can be collected once nothing else uses the image. A
+ * filter run on a reduced level only approximates the full result: the
+ * kernel covers a neighbourhood 2^level times wider.
+ */
+public class PreviewPyramid {
+
+    // Levels 1, 2, ... of each image; a value must not refer to its key, or the entry is never dropped
+    private final Map<BufferedImage, List<BufferedImage>> levels =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Returns the smallest level that is still at least the target size in
+     * both directions, or the image itself if it is no larger than that.
+     *
+     * @param image        The full-resolution image.
+     * @param targetWidth  Width the result will be displayed at.
+     * @param targetHeight Height the result will be displayed at.
+     * @return The image or one of its downsampled levels (shared; do not modify).
+     */
+    public BufferedImage level(BufferedImage image, int targetWidth, int targetHeight) {
+        List<BufferedImage> reduced = levels.computeIfAbsent(image, img -> new ArrayList<>());
+
+        synchronized (reduced) {
+            BufferedImage current = image;
+            for (int i = 0; ; i++) {
+                if (current.getWidth() / 2 < targetWidth || current.getHeight() / 2 < targetHeight) {
+                    return current;
+                }
+                if (i == reduced.size()) {
+                    reduced.add(halve(current));
+                }
+                current = reduced.get(i);
+            }
+        }
+    }
+
+    /**
+     * Halves both sides of an image, averaging each 2x2 block per channel
+     * (rounded). An odd last row or column is dropped.
+     *
+     * @param image The image to downsample (at least 2x2).
+     * @return A new image of the same type and half the size.
+     */
+    public static BufferedImage halve(BufferedImage image) {
+        int width = image.getWidth();
+        int outWidth = width / 2;
+        int outHeight = image.getHeight() / 2;
+        int[] src = RasterConvolution.readPixels(image);
+        int[] dst = new int[outWidth * outHeight];
+
+        for (int y = 0; y < outHeight; y++) {
+            int top = 2 * y * width;
+            int bottom = top + width;
+            for (int x = 0; x < outWidth; x++) {
+                int a = src[top + 2 * x], b = src[top + 2 * x + 1];
+                int c = src[bottom + 2 * x], d = src[bottom + 2 * x + 1];
+                // Red and blue side by side in one int, green separately; each sum fits in 10 bits
+                int redBlue = (a & 0xFF00FF) + (b & 0xFF00FF) + (c & 0xFF00FF) + (d & 0xFF00FF) + 0x20002;
+                int green = (a & 0xFF00) + (b & 0xFF00) + (c & 0xFF00) + (d & 0xFF00) + 0x200;
+                dst[y * outWidth + x] = ((redBlue >> 2) & 0xFF00FF) | ((green >> 2) & 0xFF00);
+            }
+        }
+
+        BufferedImage out = RasterConvolution.createOutput(image, outWidth, outHeight);
+        RasterConvolution.writePixels(out, dst);
+        return out;
+    }
+}
@@ -0,0 +1,500 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Convolution core shared by the Sequential and Parallel entry points.
+ * Works on packed 0xRRGGBB int arrays taken straight from the image's
+ * backing DataBuffer instead of calling getRGB/setRGB per pixel.
+ */
+public class RasterConvolution {
+
+    /**
+     * Reads the pixels of an image into a packed 0xRRGGBB int array.
+     * TYPE_INT_RGB / TYPE_INT_ARGB and TYPE_3BYTE_BGR are unpacked directly from
+     * the backing array; any other type goes through a single bulk getRGB call.
+     *
+     * @param img The image to read.
+     * @return Row-major array of width * height packed RGB values.
+     */
+    public static int[] readPixels(BufferedImage img) {
+        return readPixels(img, new int[img.getWidth() * img.getHeight()]);
+    }
+
+    /**
+     * Same as {@link #readPixels(BufferedImage)}, into an array the caller
+     * supplies (e.g. from BufferPool).
+     *
+     * @param img    The image to read.
+     * @param pixels Array of at least width * height entries to fill.
+     * @return The pixels array.
+     */
+    public static int[] readPixels(BufferedImage img, int[] pixels) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int count = width * height;
+        Raster raster = img.getRaster();
+
+        switch (img.getType()) {
+            case BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB -> {
+                if (isPlainPacked(raster, width)) {
+                    int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                    int offset = raster.getDataBuffer().getOffset();
+                    // Drop the alpha byte so every entry is plain 0xRRGGBB
+                    for (int i = 0; i < count; i++) {
+                        pixels[i] = data[offset + i] & 0xFFFFFF;
+                    }
+                    return pixels;
+                }
+            }
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                if (isPlainInterleaved(raster, width, 3)) {
+                    byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                    int offset = raster.getDataBuffer().getOffset();
+                    // Each pixel is stored as three bytes in B, G, R order
+                    for (int i = 0, p = offset; i < count; i++, p += 3) {
+                        pixels[i] = ((data[p + 2] & 0xFF) << 16) | ((data[p + 1] & 0xFF) << 8) | (data[p] & 0xFF);
+                    }
+                    return pixels;
+                }
+            }
+            default -> {
+            }
+        }
+
+        // Fallback for other image types: one bulk conversion through the color model
+        img.getRGB(0, 0, width, height, pixels, 0, width);
+        for (int i = 0; i < count; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+
+    /**
+     * Writes packed 0xRRGGBB values into an image, using the backing array
+     * when the layout is known and a single bulk setRGB call otherwise.
+     *
+     * @param img    Destination image (same dimensions as the pixel array).
+     * @param pixels Row-major packed RGB values.
+     */
+    public static void writePixels(BufferedImage img, int[] pixels) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        Raster raster = img.getRaster();
+
+        switch (img.getType()) {
+            case BufferedImage.TYPE_INT_RGB -> {
+                if (isPlainPacked(raster, width)) {
+                    int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                    System.arraycopy(pixels, 0, data, raster.getDataBuffer().getOffset(), pixels.length);
+                    return;
+                }
+            }
+            case BufferedImage.TYPE_INT_ARGB -> {
+                if (isPlainPacked(raster, width)) {
+                    int[] data = ((DataBufferInt) raster.getDataBuffer()).getData();
+                    int offset = raster.getDataBuffer().getOffset();
+                    // Output pixels are always fully opaque
+                    for (int i = 0; i < pixels.length; i++) {
+                        data[offset + i] = 0xFF000000 | pixels[i];
+                    }
+                    return;
+                }
+            }
+            case BufferedImage.TYPE_3BYTE_BGR -> {
+                if (isPlainInterleaved(raster, width, 3)) {
+                    byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+                    int offset = raster.getDataBuffer().getOffset();
+                    for (int i = 0, p = offset; i < pixels.length; i++, p += 3) {
+                        int rgb = pixels[i];
+                        data[p] = (byte) rgb;
+                        data[p + 1] = (byte) (rgb >> 8);
+                        data[p + 2] = (byte) (rgb >> 16);
+                    }
+                    return;
+                }
+            }
+            default -> {
+            }
+        }
+
+        img.setRGB(0, 0, width, height, pixels, 0, width);
+    }
+
+    /**
+     * Creates an output image with the same dimensions as the input. The input
+     * type is kept whenever it can be instantiated (TYPE_CUSTOM cannot).
+     *
+     * @param inputImg The image being filtered.
+     * @return A new, empty output image.
+     */
+    public static BufferedImage createOutput(BufferedImage inputImg) {
+        return createOutput(inputImg, inputImg.getWidth(), inputImg.getHeight());
+    }
+
+    /**
+     * Creates an output image of the given size with the input's type
+     * whenever it can be instantiated (TYPE_CUSTOM cannot).
+     *
+     * @param inputImg The image being filtered.
+     * @param width    Output width.
+     * @param height   Output height.
+     * @return A new, empty output image.
+     */
+    public static BufferedImage createOutput(BufferedImage inputImg, int width, int height) {
+        int type = inputImg.getType();
+        if (type == BufferedImage.TYPE_CUSTOM) {
+            type = BufferedImage.TYPE_INT_RGB;
+        }
+        return new BufferedImage(width, height, type);
+    }
+
+    // Per-thread padded copy of one border piece plus its halo, reused between pieces
+    private static final ThreadLocal<int[]> PATCH = ThreadLocal.withInitial(() -> new int[0]);
+
+    /**
+     * Same as {@link #createOperation(int[], int[], int, int, float[][], float, BorderMode)}
+     * with wraparound edges.
+     */
+    public static TileOperation createOperation(int[] src, int[] dst, int width, int height,
+                                                float[][] kernel, float multiplier) {
+        return createOperation(src, dst, width, height, kernel, multiplier, BorderMode.WRAP);
+    }
+
+    /**
+     * Picks the fastest available convolution path for the kernel and returns it
+     * as a tile operation writing into dst, with the given border handling.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     * @return An operation that convolves any tile of the image.
+     */
+    public static TileOperation createOperation(int[] src, int[] dst, int width, int height,
+                                                float[][] kernel, float multiplier, BorderMode border) {
+        return withBorder(createLoop(kernel, multiplier), kernel.length, src, dst, width, height, border);
+    }
+
+    /**
+     * Picks the fastest available inner loop for the kernel. The SIMD backend
+     * takes the kernel when it is available and expected to win (see
+     * VectorBackend). Otherwise integer and rational kernels run in fixed
+     * point unless they are rank-1 with fewer taps as two 1D passes, and
+     * everything else goes through the direct K x K float loop.
+     *
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @return The loop, to be run through {@link #withBorder} or on a padded buffer.
+     */
+    public static WindowConvolution createLoop(float[][] kernel, float multiplier) {
+        SeparableKernel separable = SeparableKernel.detect(kernel);
+        if (VectorBackend.isPreferred(kernel, separable != null)) {
+            return VectorBackend.createLoop(kernel, multiplier);
+        }
+        FixedPointKernel fixed = FixedPointKernel.detect(kernel, multiplier);
+        if (fixed != null && (separable == null || fixed.getTapCount() <= 2 * kernel.length)) {
+            return fixed;
+        }
+        if (separable != null) {
+            return separable.withMultiplier(multiplier);
+        }
+        return directLoop(kernel, multiplier);
+    }
+
+    /**
+     * Returns the direct K x K float loop for the kernel.
+     *
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @return The loop, to be run through {@link #withBorder} or on a padded buffer.
+     */
+    public static WindowConvolution directLoop(float[][] kernel, float multiplier) {
+        float[] taps = flatten(kernel);
+        int kernelLen = kernel.length;
+        return (src, srcOffset, srcStride, dst, dstOffset, dstStride, cols, rows) -> convolveDirect(
+                src, srcOffset, srcStride, dst, dstOffset, dstStride, cols, rows, taps, kernelLen, multiplier);
+    }
+
+    /**
+     * Turns an inner loop into a tile operation over the whole image. The
+     * part of each tile whose neighbourhood lies inside the image (more
+     * than 99% of pixels on the sample images) reads the source directly;
+     * the pieces in the kernelLen / 2 wide border band are copied with their
+     * halo into a small padded buffer, resolved through the border mode, and
+     * run through the same loop. CROP_VALID skips the border band entirely.
+     *
+     * @param loop      The inner loop of the convolution path.
+     * @param kernelLen Kernel size (e.g., 3 for 3x3).
+     * @param src       Packed RGB input pixels.
+     * @param dst       Packed RGB output pixels (same size as src).
+     * @param width     Image width.
+     * @param height    Image height.
+     * @param border    How pixels beyond the image border are read.
+     * @return An operation that convolves any tile of the image.
+     */
+    public static TileOperation withBorder(WindowConvolution loop, int kernelLen, int[] src, int[] dst,
+                                           int width, int height, BorderMode border) {
+        int half = kernelLen / 2;
+        // Taps reach half pixels up and left, and kernelLen - 1 - half down and right
+        int after = kernelLen - 1 - half;
+        return (x0, y0, x1, y1) -> {
+            // Interior part of the tile: every tap of these pixels is inside the image
+            int ix0 = Math.max(x0, half), ix1 = Math.min(x1, width - after);
+            int iy0 = Math.max(y0, half), iy1 = Math.min(y1, height - after);
+            if (ix0 >= ix1 || iy0 >= iy1) {
+                if (border != BorderMode.CROP_VALID) {
+                    convolvePadded(loop, kernelLen, src, dst, width, height, border, x0, y0, x1, y1);
+                }
+                return;
+            }
+            loop.convolve(src, (iy0 - half) * width + ix0 - half, width, dst, iy0 * width + ix0, width,
+                    ix1 - ix0, iy1 - iy0);
+            if (border == BorderMode.CROP_VALID) {
+                return;
+            }
+
+            // Border band: the full-width rows above and below the interior, then its left and right sides
+            if (y0 < iy0) convolvePadded(loop, kernelLen, src, dst, width, height, border, x0, y0, x1, iy0);
+            if (iy1 < y1) convolvePadded(loop, kernelLen, src, dst, width, height, border, x0, iy1, x1, y1);
+            if (x0 < ix0) convolvePadded(loop, kernelLen, src, dst, width, height, border, x0, iy0, ix0, iy1);
+            if (ix1 < x1) convolvePadded(loop, kernelLen, src, dst, width, height, border, ix1, iy0, x1, iy1);
+        };
+    }
+
+    // Copies [x0, x1) x [y0, y1) plus its halo into a padded buffer through the border mode, then convolves it
+    private static void convolvePadded(WindowConvolution loop, int kernelLen, int[] src, int[] dst,
+                                       int width, int height, BorderMode border,
+                                       int x0, int y0, int x1, int y1) {
+        int half = kernelLen / 2;
+        int cols = x1 - x0;
+        int paddedWidth = cols + kernelLen - 1;
+        int paddedRows = y1 - y0 + kernelLen - 1;
+
+        int[] patch = PATCH.get();
+        if (patch.length < paddedWidth * paddedRows) {
+            patch = new int[paddedWidth * paddedRows];
+            PATCH.set(patch);
+        }
+
+        int[] columns = new int[paddedWidth];
+        for (int c = 0; c < paddedWidth; c++) {
+            columns[c] = border.index(x0 - half + c, width);
+        }
+        for (int r = 0; r < paddedRows; r++) {
+            int row = border.index(y0 - half + r, height);
+            int base = r * paddedWidth;
+            for (int c = 0; c < paddedWidth; c++) {
+                // Index -1 (ZERO mode) reads as black
+                patch[base + c] = row < 0 || columns[c] < 0 ? 0 : src[row * width + columns[c]];
+            }
+        }
+        loop.convolve(patch, 0, paddedWidth, dst, y0 * width + x0, width, cols, y1 - y0);
+    }
+
+    /**
+     * Flattens a kernel into row-major tap order: entry j * kernelLen + i holds
+     * kernel[i][j], the weight of the pixel at offset (i - kernelLen / 2, j - kernelLen / 2).
+     *
+     * @param kernel The convolution kernel matrix (square).
+     * @return The kernel weights in the order the convolution loop reads them.
+     */
+    public static float[] flatten(float[][] kernel) {
+        int kernelLen = kernel.length;
+        float[] taps = new float[kernelLen * kernelLen];
+        for (int j = 0; j < kernelLen; j++) {
+            for (int i = 0; i < kernelLen; i++) {
+                taps[j * kernelLen + i] = kernel[i][j];
+            }
+        }
+        return taps;
+    }
+
+    /**
+     * Applies the kernel to the rectangle [x0, x1) x [y0, y1) of the image, one
+     * row at a time so reads and writes follow the row-major pixel layout.
+     * Edges use toroidal wraparound. Nothing is allocated inside the pixel loop.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param taps       The kernel flattened by {@link #flatten(float[][])}.
+     * @param kernelLen  Kernel size (e.g., 3 for 3x3).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param x0         First column (inclusive).
+     * @param y0         First row (inclusive).
+     * @param x1         Last column (exclusive).
+     * @param y1         Last row (exclusive).
+     */
+    public static void convolveRegion(int[] src, int[] dst, int width, int height,
+                                      float[] taps, int kernelLen, float multiplier,
+                                      int x0, int y0, int x1, int y1) {
+        convolveWindow(src, 0, height, dst, 0, width, taps, kernelLen, multiplier, x0, y0, x1, y1);
+    }
+
+    /**
+     * Like {@link #convolveRegion}, but the source and destination may be
+     * horizontal bands of the image rather than the whole of it. The source
+     * holds srcRows full-width rows starting at image row srcY0, and source
+     * rows are looked up modulo srcRows, so a whole image (srcY0 = 0,
+     * srcRows = height) wraps around. A band must already contain every row
+     * the kernel reaches. Output row y goes to dst row y - dstY0.
+     *
+     * @param src        Packed RGB source rows.
+     * @param srcY0      Image row held in the first source row (may be negative).
+     * @param srcRows    Number of rows in src.
+     * @param dst        Packed RGB destination rows.
+     * @param dstY0      Image row held in the first destination row.
+     * @param width      Image width (row length of src and dst).
+     * @param taps       The kernel flattened by {@link #flatten(float[][])}.
+     * @param kernelLen  Kernel size (e.g., 3 for 3x3).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param x0         First column (inclusive).
+     * @param y0         First image row (inclusive).
+     * @param x1         Last column (exclusive).
+     * @param y1         Last image row (exclusive).
+     */
+    public static void convolveWindow(int[] src, int srcY0, int srcRows, int[] dst, int dstY0, int width,
+                                      float[] taps, int kernelLen, float multiplier,
+                                      int x0, int y0, int x1, int y1) {
+        convolveWindow(src, srcY0, srcRows, dst, dstY0, width, taps, kernelLen, multiplier,
+                wrappedColumns(x0, x1, kernelLen, width), x0, y0, x1, y1);
+    }
+
+    /**
+     * Returns the wrapped source column behind every tap column of the
+     * output columns [x0, x1): entry c is the column of x0 + c - kernelLen / 2
+     * modulo width. Callers that convolve the same columns again and again,
+     * such as one row at a time, build it once and pass it to
+     * {@link #convolveWindow(int[], int, int, int[], int, int, float[], int, float, int[], int, int, int, int)}.
+     *
+     * @param x0        First column (inclusive).
+     * @param x1        Last column (exclusive).
+     * @param kernelLen Kernel size (e.g., 3 for 3x3).
+     * @param width     Image width.
+     * @return The x1 - x0 + kernelLen - 1 source columns.
+     */
+    public static int[] wrappedColumns(int x0, int x1, int kernelLen, int width) {
+        int half = kernelLen / 2;
+        int[] columns = new int[x1 - x0 + kernelLen - 1];
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = Math.floorMod(x0 - half + c, width);
+        }
+        return columns;
+    }
+
+    /**
+     * Same as {@link #convolveWindow(int[], int, int, int[], int, int, float[], int, float, int, int, int, int)}
+     * with the column table from {@link #wrappedColumns(int, int, int, int)} for the same x0, x1,
+     * kernel size and width.
+     */
+    public static void convolveWindow(int[] src, int srcY0, int srcRows, int[] dst, int dstY0, int width,
+                                      float[] taps, int kernelLen, float multiplier, int[] columns,
+                                      int x0, int y0, int x1, int y1) {
+        int half = kernelLen / 2;
+        // Start offsets of the kernelLen wrapped source rows feeding the current output row
+        int[] rowOffsets = new int[kernelLen];
+
+        for (int y = y0; y < y1; y++) {
+            int rowOffset = (y - dstY0) * width;
+            for (int j = 0; j < kernelLen; j++) {
+                rowOffsets[j] = Math.floorMod(y - half + j - srcY0, srcRows) * width;
+            }
+
+            for (int x = x0; x < x1; x++) {
+                float redAcc = 0, greenAcc = 0, blueAcc = 0;
+
+                // Taps are visited row by row so consecutive reads are adjacent in memory
+                for (int j = 0, t = 0; j < kernelLen; j++) {
+                    int yOffset = rowOffsets[j];
+                    for (int i = 0; i < kernelLen; i++, t++) {
+                        int rgb = src[yOffset + columns[x - x0 + i]];
+                        float k = taps[t];
+
+                        redAcc += ((rgb >> 16) & 0xFF) * k;
+                        greenAcc += ((rgb >> 8) & 0xFF) * k;
+                        blueAcc += (rgb & 0xFF) * k;
+                    }
+                }
+
+                dst[rowOffset + x] = pack(redAcc * multiplier, greenAcc * multiplier, blueAcc * multiplier);
+            }
+        }
+    }
+
+    /**
+     * The direct K x K float loop over a block whose taps all lie inside src
+     * (see {@link WindowConvolution}). Taps are visited row by row, the same
+     * order as {@link #convolveWindow}, so both give identical results.
+     *
+     * @param src        Packed RGB source pixels.
+     * @param srcOffset  Index of the top-left pixel the block's first tap reads.
+     * @param srcStride  Distance between source rows.
+     * @param dst        Packed RGB destination pixels.
+     * @param dstOffset  Index of the first output pixel.
+     * @param dstStride  Distance between destination rows.
+     * @param cols       Block width.
+     * @param rows       Block height.
+     * @param taps       The kernel flattened by {@link #flatten(float[][])}.
+     * @param kernelLen  Kernel size (e.g., 3 for 3x3).
+     * @param multiplier The factor to multiply the kernel result by.
+     */
+    public static void convolveDirect(int[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int dstStride,
+                                      int cols, int rows, float[] taps, int kernelLen, float multiplier) {
+        for (int r = 0; r < rows; r++) {
+            int in = srcOffset + r * srcStride;
+            int out = dstOffset + r * dstStride;
+            for (int c = 0; c < cols; c++) {
+                float redAcc = 0, greenAcc = 0, blueAcc = 0;
+
+                for (int j = 0, t = 0, p = in + c; j < kernelLen; j++, p += srcStride) {
+                    for (int i = 0; i < kernelLen; i++, t++) {
+                        int rgb = src[p + i];
+                        float k = taps[t];
+
+                        redAcc += ((rgb >> 16) & 0xFF) * k;
+                        greenAcc += ((rgb >> 8) & 0xFF) * k;
+                        blueAcc += (rgb & 0xFF) * k;
+                    }
+                }
+
+                dst[out + c] = pack(redAcc * multiplier, greenAcc * multiplier, blueAcc * multiplier);
+            }
+        }
+    }
+
+    /**
+     * Clamps three channel values to [0, 255] and packs them as 0xRRGGBB.
+     */
+    static int pack(float red, float green, float blue) {
+        int r = Math.min(Math.max((int) red, 0), 255);
+        int g = Math.min(Math.max((int) green, 0), 255);
+        int b = Math.min(Math.max((int) blue, 0), 255);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // True if the raster is a full-size, unshared SinglePixelPacked layout
+    private static boolean isPlainPacked(Raster raster, int width) {
+        return raster.getParent() == null
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel sm
+                && sm.getScanlineStride() == width;
+    }
+
+    // True if the raster is a full-size, unshared interleaved BGR layout
+    private static boolean isPlainInterleaved(Raster raster, int width, int bands) {
+        if (raster.getParent() != null || !(raster.getSampleModel() instanceof ComponentSampleModel sm)) {
+            return false;
+        }
+        int[] offsets = sm.getBandOffsets();
+        return sm.getPixelStride() == bands
+                && sm.getScanlineStride() == width * bands
+                && offsets.length == 3 && offsets[0] == 2 && offsets[1] == 1 && offsets[2] == 0;
+    }
+}
@@ -0,0 +1,250 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+/**
+ * Uncompressed image file that is memory-mapped rather than decoded.
+ *
+ * The layout is a 16-byte header (magic "RGBX", version, width, height,
+ * little-endian ints) followed by width * height little-endian ints, one
+ * packed 0x00RRGGBB pixel each, row by row. That is the layout every
+ * convolution path already works on, so rows move between the file and the
+ * engines' int arrays with bulk copies and no per-pixel conversion, and only
+ * the pages actually touched are read from disk.
+ *
+ * Convert a JPEG or PNG once with {@link #convert(File, File)} (or
+ * java RawImageFile in.jpg out.raw); after that every run maps the file
+ * instead of decoding it. StreamingProcessor and BatchProcessor accept
+ * .raw files for input and output.
+ *
+ * A mapping stays valid until it is garbage collected, even after close();
+ * a single file is limited to about 2 GB (roughly 23000 x 23000 pixels).
+ */
+public class RawImageFile implements AutoCloseable {
+
+    /** File extension recognised by the batch and streaming tools. */
+    public static final String EXTENSION = "raw";
+
+    private static final int MAGIC = 0x58424752; // "RGBX" read as a little-endian int
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final IntBuffer pixels;
+    private final int width, height;
+
+    private RawImageFile(FileChannel channel, MappedByteBuffer map, int width, int height) {
+        this.channel = channel;
+        this.map = map;
+        this.width = width;
+        this.height = height;
+        map.order(ByteOrder.LITTLE_ENDIAN);
+        this.pixels = map.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Creates (or replaces) a raw file of the given size, mapped for writing.
+     * Its pixels start out black.
+     *
+     * @param file   The file to create.
+     * @param width  Image width.
+     * @param height Image height.
+     * @return The mapped file; close it when done.
+     * @throws IOException if the file cannot be created or is too large to map
+     */
+    public static RawImageFile create(File file, int width, int height) throws IOException {
+        long size = fileSize(width, height);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            RawImageFile raw = new RawImageFile(channel, map, width, height);
+            map.putInt(0, MAGIC).putInt(4, VERSION).putInt(8, width).putInt(12, height);
+            return raw;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Maps an existing raw file.
+     *
+     * @param file     The file to open.
+     * @param writable Whether pixels may be written back into the file.
+     * @return The mapped file; close it when done.
+     * @throws IOException if the file cannot be read or is not a raw image
+     */
+    public static RawImageFile open(File file, boolean writable) throws IOException {
+        FileChannel channel = writable
+                ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() < HEADER_BYTES) {
+                throw new IOException("Not a raw image (too short): " + file);
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                throw new IOException("Not a raw image (bad header): " + file);
+            }
+            int width = header.getInt(8);
+            int height = header.getInt(12);
+            long size = fileSize(width, height);
+            if (channel.size() < size) {
+                throw new IOException("Raw image is truncated: " + file);
+            }
+            MappedByteBuffer map = channel.map(writable ? FileChannel.MapMode.READ_WRITE
+                    : FileChannel.MapMode.READ_ONLY, 0, size);
+            return new RawImageFile(channel, map, width, height);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // Header plus pixels, checked against the largest single mapping
+    private static long fileSize(int width, int height) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IOException("Invalid raw image size " + width + "x" + height);
+        }
+        long size = HEADER_BYTES + 4L * width * height;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Raw image " + width + "x" + height + " is too large to map");
+        }
+        return size;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the mapped pixels: pixel (x, y) is at index y * width + x.
+     * The view is independent of other callers' views, but shares the file.
+     */
+    public IntBuffer getPixels() {
+        return pixels.duplicate();
+    }
+
+    /**
+     * Copies whole rows out of the file. Safe to call from several threads.
+     *
+     * @param y0        First row.
+     * @param rows      Number of rows.
+     * @param dst       Destination array of packed RGB pixels.
+     * @param dstOffset Index in dst of the first pixel of row y0.
+     */
+    public void readRows(int y0, int rows, int[] dst, int dstOffset) {
+        pixels.get(y0 * width, dst, dstOffset, rows * width);
+    }
+
+    /**
+     * Copies whole rows into the file. Several threads may write disjoint rows at once.
+     *
+     * @param y0        First row.
+     * @param rows      Number of rows.
+     * @param src       Source array of packed RGB pixels.
+     * @param srcOffset Index in src of the first pixel of row y0.
+     */
+    public void writeRows(int y0, int rows, int[] src, int srcOffset) {
+        pixels.put(y0 * width, src, srcOffset, rows * width);
+    }
+
+    /**
+     * Copies the pixels into a new TYPE_INT_RGB image with one bulk copy.
+     */
+    public BufferedImage toImage() {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        readRows(0, height, ((DataBufferInt) image.getRaster().getDataBuffer()).getData(), 0);
+        return image;
+    }
+
+    /**
+     * Writes changed pages back to the file now rather than whenever the OS chooses.
+     */
+    public void flush() {
+        map.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Reads a raw file into an image.
+     *
+     * @param file The raw file.
+     * @return A new TYPE_INT_RGB image.
+     * @throws IOException if the file cannot be read or is not a raw image
+     */
+    public static BufferedImage read(File file) throws IOException {
+        try (RawImageFile raw = open(file, false)) {
+            return raw.toImage();
+        }
+    }
+
+    /**
+     * Writes an image as a raw file.
+     *
+     * @param image The image to write.
+     * @param file  The raw file (replaced if it exists).
+     * @throws IOException if the file cannot be written
+     */
+    public static void write(BufferedImage image, File file) throws IOException {
+        try (RawImageFile raw = create(file, image.getWidth(), image.getHeight())) {
+            raw.writeRows(0, image.getHeight(), RasterConvolution.readPixels(image), 0);
+        }
+    }
+
+    /**
+     * Returns true if the file name has the raw extension.
+     *
+     * @param file The file to check.
+     */
+    public static boolean isRaw(File file) {
+        return file.getName().toLowerCase(Locale.ROOT).endsWith("." + EXTENSION);
+    }
+
+    /**
+     * Converts between a raw file and any format ImageIO handles, in the
+     * direction given by the extensions: decodes a JPEG/PNG once into raw,
+     * or encodes a raw file back into a viewable format.
+     *
+     * @param input  The file to convert.
+     * @param output The converted file (replaced if it exists).
+     * @throws IOException if reading, decoding or writing fails
+     */
+    public static void convert(File input, File output) throws IOException {
+        BufferedImage image = ParallelImageIO.read(input);
+        if (isRaw(output)) {
+            write(image, output);
+        } else {
+            ParallelImageIO.write(image, ImageUtils.getExtension(output.getName()), output);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: java RawImageFile <input> <output>   (e.g. photo.jpg photo.raw, or photo.raw photo.png)");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        convert(new File(args[0]), new File(args[1]));
+        System.out.println("Converted " + args[0] + " -> " + args[1] + " in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
@@ -0,0 +1,477 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Two-level cache in front of the convolution engines.
+ *
+ * Level 1 holds decoded source images keyed by file path, modification
+ * time and length, so re-applying a filter does not decode the file again
+ * and an edited file is picked up. Level 2 holds filter outputs keyed by
+ * the input's pixel content hash, the kernel and multiplier (or the
+ * non-linear filter) and the border mode, so repeated parameter
+ * combinations return at once whichever engine asked.
+ *
+ * Each level is an LRU bounded by the bytes of the images it holds. When
+ * several threads miss on the same result at the same time, one computes
+ * it and the others wait for that result instead of repeating the work.
+ *
+ * Cached images are shared between callers and must not be modified.
+ */
+public class ResultCache {
+
+    // How often a caller waiting for someone else's computation checks its own cancel flag
+    private static final long CANCEL_POLL_MILLIS = 20;
+
+    private final Lru<SourceKey, BufferedImage> sources;
+    private final Lru<ResultKey, FilterResult> results;
+
+    // Results being computed right now, so concurrent identical misses share one computation
+    private final Map<ResultKey, CompletableFuture<FilterResult>> inFlight = new HashMap<>();
+
+    // Content hashes of images seen so far; weak, so dropping an image drops its hash
+    private final Map<BufferedImage, Long> hashes = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Creates a cache with separate byte budgets for the two levels.
+     *
+     * @param sourceBytes Maximum bytes of decoded source images held.
+     * @param resultBytes Maximum bytes of filter outputs held.
+     */
+    public ResultCache(long sourceBytes, long resultBytes) {
+        if (sourceBytes < 0 || resultBytes < 0) {
+            throw new IllegalArgumentException("Cache budgets must not be negative");
+        }
+        this.sources = new Lru<>(sourceBytes, ResultCache::imageBytes);
+        this.results = new Lru<>(resultBytes, result -> imageBytes(result.getImage()));
+    }
+
+    /**
+     * Returns the decoded image for a file, reading it only if it is not
+     * cached or has changed on disk since it was cached.
+     *
+     * @param file The image file.
+     * @return The decoded image (shared; do not modify).
+     * @throws IOException if the file cannot be decoded
+     */
+    public BufferedImage getSource(File file) throws IOException {
+        File canonical = file.getCanonicalFile();
+        SourceKey key = new SourceKey(canonical.getPath(), canonical.lastModified(), canonical.length());
+        BufferedImage image = sources.get(key);
+        if (image != null) {
+            return image;
+        }
+
+        image = ParallelImageIO.read(canonical);
+        sources.put(key, image);
+        return image;
+    }
+
+    /**
+     * Returns the filtered image, from the cache when the same input pixels
+     * were already filtered with the same kernel, multiplier and border mode,
+     * otherwise by running the engine and caching its result. A cache hit
+     * reports engine name "Cache" and the lookup time as its only timing.
+     *
+     * @param engine     Engine to run on a miss.
+     * @param inputImg   The input image (not modified).
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     * @return The engine's result, or the cached one.
+     */
+    public FilterResult apply(ConvolutionEngine engine, BufferedImage inputImg, float[][] kernel,
+                              float multiplier, BorderMode border) {
+        return apply(engine, inputImg, kernel, multiplier, border, null);
+    }
+
+    /**
+     * Same as {@link #apply(ConvolutionEngine, BufferedImage, float[][], float, BorderMode)},
+     * passing a progress handle to the engine on a miss. A hit completes it at once.
+     * If another caller's identical computation this call was waiting for is
+     * cancelled, this call computes the result itself.
+     *
+     * @param progress Progress and cancellation handle, or null.
+     * @throws CancellationException if progress is cancelled before the result is ready
+     */
+    public FilterResult apply(ConvolutionEngine engine, BufferedImage inputImg, float[][] kernel,
+                              float multiplier, BorderMode border, FilterProgress progress) {
+        long start = System.nanoTime();
+        ResultKey key = new ResultKey(contentHash(inputImg), inputImg.getWidth(), inputImg.getHeight(),
+                kernel, multiplier, null, border);
+        return lookup(start, key, progress,
+                () -> engine.apply(inputImg, kernel, multiplier, border, progress));
+    }
+
+    /**
+     * Returns the image filtered with a non-linear filter, from the cache
+     * when the same input pixels were already filtered with an equal filter
+     * and the same border mode, otherwise by running the engine. Hits,
+     * progress and cancellation behave as for kernels.
+     *
+     * @param engine   Engine to run on a miss.
+     * @param inputImg The input image (not modified).
+     * @param filter   The filter to apply.
+     * @param border   How pixels beyond the image border are read.
+     * @param progress Progress and cancellation handle, or null.
+     * @return The engine's result, or the cached one.
+     * @throws CancellationException if progress is cancelled before the result is ready
+     */
+    public FilterResult apply(ConvolutionEngine engine, BufferedImage inputImg, NonLinearFilter filter,
+                              BorderMode border, FilterProgress progress) {
+        long start = System.nanoTime();
+        ResultKey key = new ResultKey(contentHash(inputImg), inputImg.getWidth(), inputImg.getHeight(),
+                new float[0][], 0f, filter, border);
+        return lookup(start, key, progress, () -> engine.apply(inputImg, filter, border, progress));
+    }
+
+    // Returns the cached result for the key, waits for one being computed, or computes it here
+    private FilterResult lookup(long start, ResultKey key, FilterProgress progress, Supplier<FilterResult> work) {
+        FilterResult cached = results.get(key);
+        while (cached == null) {
+            CompletableFuture<FilterResult> future;
+            boolean owner = false;
+            synchronized (inFlight) {
+                future = inFlight.get(key);
+                if (future == null) {
+                    future = new CompletableFuture<>();
+                    inFlight.put(key, future);
+                    owner = true;
+                }
+            }
+            if (owner) {
+                return compute(key, future, work);
+            }
+
+            // Someone else is computing the same result; wait for theirs
+            try {
+                cached = await(future, progress);
+            } catch (CancellationException e) {
+                // Only their call was cancelled: try again, computing it here if nobody else is
+                if (progress != null) {
+                    progress.checkCancelled();
+                }
+            }
+        }
+
+        if (progress != null) {
+            progress.start(1);
+            progress.add(1);
+        }
+        return new FilterResult(cached.getImage(), "Cache", new FilterTiming(System.nanoTime() - start, 0, 0));
+    }
+
+    // Waits for another caller's computation, giving up if our own progress handle is cancelled
+    private static FilterResult await(CompletableFuture<FilterResult> future, FilterProgress progress) {
+        try {
+            if (progress == null) {
+                return future.join();
+            }
+            while (true) {
+                progress.checkCancelled();
+                try {
+                    return future.get(CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    // Still running: check our own cancel flag again
+                }
+            }
+        } catch (CompletionException | ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException r ? r : new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for a shared result");
+        }
+    }
+
+    // Runs the engine for a key this thread registered in inFlight, then publishes the result
+    private FilterResult compute(ResultKey key, CompletableFuture<FilterResult> future, Supplier<FilterResult> work) {
+        try {
+            FilterResult result = work.get();
+            results.put(key, result);
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            synchronized (inFlight) {
+                inFlight.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Returns a 64-bit hash of the image's size, type and pixel data. The
+     * hash of each image is computed once and remembered while the image
+     * is alive, so only the first lookup pays for reading its pixels.
+     *
+     * @param image The image to hash.
+     * @return The content hash.
+     */
+    public long contentHash(BufferedImage image) {
+        Long known = hashes.get(image);
+        if (known != null) {
+            return known;
+        }
+        long hash = hashPixels(image);
+        hashes.put(image, hash);
+        return hash;
+    }
+
+    // Hashes the backing array directly when the image owns all of it, the packed pixels otherwise
+    private static long hashPixels(BufferedImage image) {
+        long hash = mix(((long) image.getWidth() << 32) ^ image.getHeight() ^ ((long) image.getType() << 16));
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        if (image.getRaster().getParent() == null && buffer.getNumBanks() == 1 && buffer.getOffset() == 0) {
+            if (buffer instanceof DataBufferByte bytes) {
+                byte[] data = bytes.getData();
+                int i = 0;
+                for (; i + 4 <= data.length; i += 4) {
+                    hash = mix(hash ^ ((data[i] & 0xFF) | (data[i + 1] & 0xFF) << 8
+                            | (data[i + 2] & 0xFF) << 16 | (long) (data[i + 3] & 0xFF) << 24));
+                }
+                for (; i < data.length; i++) {
+                    hash = mix(hash ^ (data[i] & 0xFF));
+                }
+                return hash;
+            }
+            if (buffer instanceof DataBufferInt ints) {
+                for (int value : ints.getData()) {
+                    hash = mix(hash ^ (value & 0xFFFFFFFFL));
+                }
+                return hash;
+            }
+        }
+        for (int value : RasterConvolution.readPixels(image)) {
+            hash = mix(hash ^ value);
+        }
+        return hash;
+    }
+
+    // One multiply-xorshift round (from SplitMix64)
+    private static long mix(long value) {
+        value *= 0x9E3779B97F4A7C15L;
+        return value ^ (value >>> 29);
+    }
+
+    // Bytes held by an image's pixel data
+    static long imageBytes(BufferedImage image) {
+        DataBuffer buffer = image.getRaster().getDataBuffer();
+        return (long) buffer.getSize() * buffer.getNumBanks() * DataBuffer.getDataTypeSize(buffer.getDataType()) / 8;
+    }
+
+    /**
+     * Returns the hit and miss counters and current sizes of both levels.
+     */
+    public CacheStats getStats() {
+        return new CacheStats(sources.snapshot(), results.snapshot());
+    }
+
+    /**
+     * Drops every cached image and resets the counters.
+     */
+    public void clear() {
+        sources.clear();
+        results.clear();
+        hashes.clear();
+    }
+
+    /**
+     * Counters for the two levels.
+     */
+    public static class CacheStats {
+        private final LevelStats sources;
+        private final LevelStats results;
+
+        CacheStats(LevelStats sources, LevelStats results) {
+            this.sources = sources;
+            this.results = results;
+        }
+
+        public LevelStats getSources() {
+            return sources;
+        }
+
+        public LevelStats getResults() {
+            return results;
+        }
+
+        @Override
+        public String toString() {
+            return "sources " + sources + "; results " + results;
+        }
+    }
+
+    /**
+     * Counters and size of one level.
+     */
+    public static class LevelStats {
+        private final long hits, misses, evictions;
+        private final int entries;
+        private final long bytes, maxBytes;
+
+        LevelStats(long hits, long misses, long evictions, int entries, long bytes, long maxBytes) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.entries = entries;
+            this.bytes = bytes;
+            this.maxBytes = maxBytes;
+        }
+
+        public long getHits() {
+            return hits;
+        }
+
+        public long getMisses() {
+            return misses;
+        }
+
+        public long getEvictions() {
+            return evictions;
+        }
+
+        public int getEntries() {
+            return entries;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public long getMaxBytes() {
+            return maxBytes;
+        }
+
+        /**
+         * Returns hits / (hits + misses), or 0 before the first lookup.
+         */
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hits, %d misses (%.0f%%), %d entries, %.1f / %.1f MB",
+                    hits, misses, 100 * getHitRate(), entries, bytes / 1e6, maxBytes / 1e6);
+        }
+    }
+
+    /**
+     * LRU map bounded by the summed size of its values. Values larger than
+     * the whole budget are not stored. All methods are synchronized.
+     */
+    private static class Lru<K, V> {
+        private final long maxBytes;
+        private final ToLongFunction<V> sizer;
+        // Access order: iteration starts at the least recently used entry
+        private final LinkedHashMap<K, V> map = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes, hits, misses, evictions;
+
+        Lru(long maxBytes, ToLongFunction<V> sizer) {
+            this.maxBytes = maxBytes;
+            this.sizer = sizer;
+        }
+
+        synchronized V get(K key) {
+            V value = map.get(key);
+            if (value != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return value;
+        }
+
+        synchronized void put(K key, V value) {
+            long size = sizer.applyAsLong(value);
+            if (size > maxBytes) {
+                return;
+            }
+            V old = map.put(key, value);
+            if (old != null) {
+                bytes -= sizer.applyAsLong(old);
+            }
+            bytes += size;
+            for (Iterator<V> it = map.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+                bytes -= sizer.applyAsLong(it.next());
+                it.remove();
+                evictions++;
+            }
+        }
+
+        synchronized void clear() {
+            map.clear();
+            bytes = hits = misses = evictions = 0;
+        }
+
+        synchronized LevelStats snapshot() {
+            return new LevelStats(hits, misses, evictions, map.size(), bytes, maxBytes);
+        }
+    }
+
+    private record SourceKey(String path, long lastModified, long length) {
+    }
+
+    // The kernel is copied and compared by value; the multiplier by its exact bits. Non-linear
+    // filters have an empty kernel and compare with equals (null for kernels)
+    private static final class ResultKey {
+        private final long contentHash;
+        private final int width, height;
+        private final float[][] kernel;
+        private final int multiplierBits;
+        private final NonLinearFilter filter;
+        private final BorderMode border;
+        private final int hashCode;
+
+        ResultKey(long contentHash, int width, int height, float[][] kernel, float multiplier, NonLinearFilter filter,
+                  BorderMode border) {
+            this.contentHash = contentHash;
+            this.width = width;
+            this.height = height;
+            this.kernel = new float[kernel.length][];
+            for (int i = 0; i < kernel.length; i++) {
+                this.kernel[i] = kernel[i].clone();
+            }
+            this.multiplierBits = Float.floatToIntBits(multiplier);
+            this.filter = filter;
+            this.border = border;
+            this.hashCode = Long.hashCode(contentHash) * 31 * 31 * 31
+                    + Arrays.deepHashCode(this.kernel) * 31 * 31 + multiplierBits * 31 + border.hashCode()
+                    + Objects.hashCode(filter);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ResultKey k
+                    && contentHash == k.contentHash && width == k.width && height == k.height
+                    && multiplierBits == k.multiplierBits && border == k.border
+                    && Arrays.deepEquals(kernel, k.kernel) && Objects.equals(filter, k.filter);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
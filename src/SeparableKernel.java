@@ -0,0 +1,150 @@
+/**
+ * A rank-1 convolution kernel, kernel[i][j] = xWeights[i] * yWeights[j].
+ * Such kernels (box and Gaussian blurs among them) can be applied as a
+ * horizontal pass followed by a vertical pass, costing 2K instead of K*K
+ * multiply-adds per pixel.
+ */
+public class SeparableKernel {
+
+    // Relative tolerance used when checking that the kernel is an outer product
+    private static final float RANK_TOLERANCE = 1e-5f;
+
+    // Per-thread scratch buffer holding one tile's horizontal pass, reused between tiles
+    private static final ThreadLocal<float[]> SCRATCH = ThreadLocal.withInitial(() -> new float[0]);
+
+    private final float[] xWeights;
+    private final float[] yWeights;
+
+    private SeparableKernel(float[] xWeights, float[] yWeights) {
+        this.xWeights = xWeights;
+        this.yWeights = yWeights;
+    }
+
+    /**
+     * Checks whether the kernel is rank-1 and, if so, factors it.
+     *
+     * @param kernel The convolution kernel matrix (square).
+     * @return The factored kernel, or null if the kernel is not separable.
+     */
+    public static SeparableKernel detect(float[][] kernel) {
+        int kernelLen = kernel.length;
+
+        // Use the largest coefficient as pivot so the division below is well conditioned
+        int pivotI = 0, pivotJ = 0;
+        float maxAbs = 0;
+        for (int i = 0; i < kernelLen; i++) {
+            for (int j = 0; j < kernelLen; j++) {
+                if (Math.abs(kernel[i][j]) > maxAbs) {
+                    maxAbs = Math.abs(kernel[i][j]);
+                    pivotI = i;
+                    pivotJ = j;
+                }
+            }
+        }
+        if (maxAbs == 0) {
+            return null;
+        }
+
+        float[] xWeights = new float[kernelLen];
+        float[] yWeights = new float[kernelLen];
+        for (int i = 0; i < kernelLen; i++) {
+            xWeights[i] = kernel[i][pivotJ];
+        }
+        for (int j = 0; j < kernelLen; j++) {
+            yWeights[j] = kernel[pivotI][j] / kernel[pivotI][pivotJ];
+        }
+
+        // Every coefficient must be reproduced by the outer product
+        for (int i = 0; i < kernelLen; i++) {
+            for (int j = 0; j < kernelLen; j++) {
+                if (Math.abs(kernel[i][j] - xWeights[i] * yWeights[j]) > RANK_TOLERANCE * maxAbs) {
+                    return null;
+                }
+            }
+        }
+        return new SeparableKernel(xWeights, yWeights);
+    }
+
+    public int length() {
+        return xWeights.length;
+    }
+
+    /**
+     * Returns this kernel's two-pass loop with the multiplier applied to its results.
+     *
+     * @param multiplier The factor to multiply the kernel result by.
+     * @return The loop, to be run through RasterConvolution.withBorder or on a padded buffer.
+     */
+    public WindowConvolution withMultiplier(float multiplier) {
+        return (src, srcOffset, srcStride, dst, dstOffset, dstStride, cols, rows) ->
+                convolve(src, srcOffset, srcStride, dst, dstOffset, dstStride, cols, rows, multiplier);
+    }
+
+    /**
+     * Applies the kernel to a block whose taps all lie inside src (see
+     * {@link WindowConvolution}) in two passes. The horizontal pass covers
+     * the block plus kernelLen - 1 halo rows and goes into a per-thread
+     * scratch buffer; the vertical pass reads that buffer and writes the
+     * packed result.
+     *
+     * @param src        Packed RGB source pixels.
+     * @param srcOffset  Index of the top-left pixel the block's first tap reads.
+     * @param srcStride  Distance between source rows.
+     * @param dst        Packed RGB destination pixels.
+     * @param dstOffset  Index of the first output pixel.
+     * @param dstStride  Distance between destination rows.
+     * @param cols       Block width.
+     * @param rows       Block height.
+     * @param multiplier The factor to multiply the kernel result by.
+     */
+    public void convolve(int[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int dstStride,
+                         int cols, int rows, float multiplier) {
+        int kernelLen = xWeights.length;
+        int scratchRows = rows + kernelLen - 1;
+
+        float[] scratch = SCRATCH.get();
+        if (scratch.length < scratchRows * cols * 3) {
+            scratch = new float[scratchRows * cols * 3];
+            SCRATCH.set(scratch);
+        }
+
+        // Horizontal pass: scratch row r holds source row r of the window filtered along x
+        for (int r = 0; r < scratchRows; r++) {
+            int in = srcOffset + r * srcStride;
+            int out = r * cols * 3;
+            for (int c = 0; c < cols; c++, out += 3) {
+                float redAcc = 0, greenAcc = 0, blueAcc = 0;
+                for (int i = 0; i < kernelLen; i++) {
+                    int rgb = src[in + c + i];
+                    float k = xWeights[i];
+
+                    redAcc += ((rgb >> 16) & 0xFF) * k;
+                    greenAcc += ((rgb >> 8) & 0xFF) * k;
+                    blueAcc += (rgb & 0xFF) * k;
+                }
+                scratch[out] = redAcc;
+                scratch[out + 1] = greenAcc;
+                scratch[out + 2] = blueAcc;
+            }
+        }
+
+        // Vertical pass: output row r combines scratch rows r .. r + kernelLen - 1
+        int rowStride = cols * 3;
+        for (int r = 0; r < rows; r++) {
+            int out = dstOffset + r * dstStride;
+            int base = r * rowStride;
+            for (int c = 0; c < cols; c++) {
+                float redAcc = 0, greenAcc = 0, blueAcc = 0;
+                for (int j = 0, in = base + c * 3; j < kernelLen; j++, in += rowStride) {
+                    float k = yWeights[j];
+
+                    redAcc += scratch[in] * k;
+                    greenAcc += scratch[in + 1] * k;
+                    blueAcc += scratch[in + 2] * k;
+                }
+                dst[out + c] = RasterConvolution.pack(
+                        redAcc * multiplier, greenAcc * multiplier, blueAcc * multiplier);
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Filters images too large to hold in memory by streaming them through in
+ * horizontal strips. Each strip is read with ImageReadParam.setSourceRegion
+ * together with kernelLen / 2 halo rows above and below, convolved, and
+ * written straight into the output file, so memory grows with the strip
+ * height rather than the image height.
+ *
+ * Output is truly incremental only for writers that can write an empty
+ * image and replace its pixels afterwards (TIFF in the JDK). Other formats
+ * collect the output strips into one image that is encoded at the end;
+ * that still avoids holding the decoded input.
+ *
+ * Input cost depends on the codec: JPEG and PNG readers decode from the top
+ * of the file for every region, so taller strips are much cheaper there.
+ * RawImageFile (.raw) input and output skip the codecs: rows are copied
+ * straight out of and into the memory-mapped files.
+ */
+public class StreamingProcessor {
+
+    // Bytes per pixel held per strip row: padded source and result ints,
+    // the decoded strip (up to 4 bytes) and the 3-byte output strip
+    private static final int BYTES_PER_STRIP_PIXEL = 4 + 4 + 4 + 3;
+
+    private final int stripHeight;
+    private final BorderMode border;
+
+    // Thread count, or 0 to run on the calling thread
+    private final int numThreads;
+
+    /**
+     * Creates a streaming processor.
+     *
+     * @param stripHeight Output rows per strip (at least 1).
+     * @param border      How pixels beyond the border are filled in (any mode but CROP_VALID).
+     * @param numThreads  Number of threads convolving each strip, or 0 for the calling thread.
+     */
+    public StreamingProcessor(int stripHeight, BorderMode border, int numThreads) {
+        if (stripHeight < 1) {
+            throw new IllegalArgumentException("Strip height must be at least 1: " + stripHeight);
+        }
+        if (numThreads < 0) {
+            throw new IllegalArgumentException("Thread count must not be negative: " + numThreads);
+        }
+        if (border == BorderMode.CROP_VALID) {
+            throw new IllegalArgumentException("Streaming keeps the image size, so CROP_VALID is not supported");
+        }
+        this.stripHeight = stripHeight;
+        this.border = border;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Returns the tallest strip whose buffers fit in the given memory budget.
+     *
+     * @param width       Image width.
+     * @param kernelLen   Kernel size; its halo rows count against the budget.
+     * @param budgetBytes Memory the strip buffers may use.
+     * @return Strip height in rows, at least 1.
+     */
+    public static int stripHeightFor(int width, int kernelLen, long budgetBytes) {
+        int half = kernelLen / 2;
+        long rowBytes = (long) (width + 2 * half) * BYTES_PER_STRIP_PIXEL;
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetBytes / rowBytes - 2L * half));
+    }
+
+    /**
+     * Filters the input file into the output file. The output format is
+     * taken from the output file's extension.
+     *
+     * @param input      The image file to read.
+     * @param output     The image file to write (replaced if it exists).
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @return Time spent reading (decode), convolving and writing (encode).
+     * @throws IOException if the input cannot be decoded or the output cannot be written
+     */
+    public FilterTiming process(File input, File output, float[][] kernel, float multiplier) throws IOException {
+        long readNanos = 0, convolveNanos = 0, writeNanos = 0;
+
+        try (RowSource source = openSource(input)) {
+            int width = source.getWidth();
+            int height = source.getHeight();
+            int half = kernel.length / 2;
+            if (half > Math.min(width, height)) {
+                throw new IllegalArgumentException("Kernel of size " + kernel.length
+                        + " is larger than the " + width + "x" + height + " image");
+            }
+
+            // Rows above the first strip and below the last come from the opposite (WRAP)
+            // or the same (CLAMP, MIRROR) border; read both borders once up front
+            long start = System.nanoTime();
+            int[] head = source.read(0, half);
+            int[] tail = source.read(height - half, height);
+            readNanos += System.nanoTime() - start;
+
+            int paddedWidth = width + 2 * half;
+            WindowConvolution loop = RasterConvolution.createLoop(kernel, multiplier);
+            ForkJoinPool pool = numThreads == 0 ? null : PoolManager.getPool(numThreads);
+
+            try (StripWriter writer = new StripWriter(output, width, height)) {
+                for (int y0 = 0; y0 < height; y0 += stripHeight) {
+                    int rows = Math.min(stripHeight, height - y0);
+                    int paddedRows = rows + 2 * half;
+
+                    // Read the strip plus its in-range halo in one region
+                    start = System.nanoTime();
+                    int blockY0 = Math.max(0, y0 - half);
+                    int blockY1 = Math.min(height, y0 + rows + half);
+                    int[] block = source.read(blockY0, blockY1);
+                    readNanos += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    int[] padded = new int[paddedWidth * paddedRows];
+                    int[] columns = new int[paddedWidth];
+                    for (int c = 0; c < paddedWidth; c++) {
+                        columns[c] = border.index(c - half, width);
+                    }
+                    for (int pr = 0; pr < paddedRows; pr++) {
+                        int row = border.index(y0 - half + pr, height);
+                        if (row < 0) {
+                            // ZERO mode: the row stays black
+                            continue;
+                        }
+                        int[] rowSource;
+                        int rowStart;
+                        if (row >= blockY0 && row < blockY1) {
+                            rowSource = block;
+                            rowStart = (row - blockY0) * width;
+                        } else if (row < half) {
+                            rowSource = head;
+                            rowStart = row * width;
+                        } else {
+                            rowSource = tail;
+                            rowStart = (row - (height - half)) * width;
+                        }
+                        int base = pr * paddedWidth;
+                        System.arraycopy(rowSource, rowStart, padded, base + half, width);
+                        for (int c = 0; c < half; c++) {
+                            int left = columns[c], right = columns[half + width + c];
+                            padded[base + c] = left < 0 ? 0 : rowSource[rowStart + left];
+                            padded[base + half + width + c] = right < 0 ? 0 : rowSource[rowStart + right];
+                        }
+                    }
+
+                    // The padding holds every pixel the kernel reaches, so the strip is
+                    // convolved straight from it with no edge handling
+                    int[] strip = new int[width * rows];
+                    TileOperation op = (x0, ty0, x1, ty1) -> loop.convolve(padded, ty0 * paddedWidth + x0,
+                            paddedWidth, strip, ty0 * width + x0, width, x1 - x0, ty1 - ty0);
+                    TileScheduler tiles = new TileScheduler(width, rows, kernel.length);
+                    if (pool == null) {
+                        tiles.runSequential(op);
+                    } else {
+                        pool.invoke(tiles.createTask(op, pool.getParallelism()));
+                    }
+                    convolveNanos += System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    writer.write(strip, y0, rows);
+                    writeNanos += System.nanoTime() - start;
+                }
+
+                start = System.nanoTime();
+                writer.finish();
+                writeNanos += System.nanoTime() - start;
+            }
+        }
+        FilterTiming timing = new FilterTiming(readNanos, 0, convolveNanos, 0, writeNanos);
+        PipelineMetrics.global().record(timing);
+        return timing;
+    }
+
+    // Raw files are mapped, anything else goes through an ImageReader
+    private static RowSource openSource(File input) throws IOException {
+        return RawImageFile.isRaw(input) ? new RawRows(RawImageFile.open(input, false)) : new DecodedRows(input);
+    }
+
+    /**
+     * The input image, handed out as packed RGB row ranges.
+     */
+    private interface RowSource extends AutoCloseable {
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * Returns rows [y0, y1) as packed RGB, row by row (empty if y1 &lt;= y0).
+         */
+        int[] read(int y0, int y1) throws IOException;
+
+        @Override
+        void close() throws IOException;
+    }
+
+    /**
+     * Rows decoded region by region through ImageReadParam.setSourceRegion.
+     */
+    private static class DecodedRows implements RowSource {
+        private final ImageInputStream in;
+        private final ImageReader reader;
+        private final int width, height;
+
+        DecodedRows(File input) throws IOException {
+            this.in = ImageIO.createImageInputStream(input);
+            if (in == null) {
+                throw new IOException("Cannot open " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                in.close();
+                throw new IOException("No reader for " + input);
+            }
+            this.reader = readers.next();
+            reader.setInput(in, true, true);
+            try {
+                this.width = reader.getWidth(0);
+                this.height = reader.getHeight(0);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public int getWidth() {
+            return width;
+        }
+
+        @Override
+        public int getHeight() {
+            return height;
+        }
+
+        @Override
+        public int[] read(int y0, int y1) throws IOException {
+            if (y1 <= y0) {
+                return new int[0];
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(new Rectangle(0, y0, width, y1 - y0));
+            return RasterConvolution.readPixels(reader.read(0, param));
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.dispose();
+            in.close();
+        }
+    }
+
+    /**
+     * Rows bulk-copied out of a memory-mapped raw file; nothing is decoded.
+     */
+    private static class RawRows implements RowSource {
+        private final RawImageFile raw;
+
+        RawRows(RawImageFile raw) {
+            this.raw = raw;
+        }
+
+        @Override
+        public int getWidth() {
+            return raw.getWidth();
+        }
+
+        @Override
+        public int getHeight() {
+            return raw.getHeight();
+        }
+
+        @Override
+        public int[] read(int y0, int y1) {
+            int[] rows = new int[Math.max(0, y1 - y0) * raw.getWidth()];
+            if (y1 > y0) {
+                raw.readRows(y0, y1 - y0, rows, 0);
+            }
+            return rows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raw.close();
+        }
+    }
+
+    /**
+     * Writes output strips either straight into the file (raw files, and
+     * writers that support replacePixels) or into one image encoded by finish().
+     */
+    private static class StripWriter implements AutoCloseable {
+        private final RawImageFile raw;
+        private final ImageWriter writer;
+        private final ImageOutputStream out;
+        private final int width;
+        private final boolean incremental;
+        private final BufferedImage whole;
+
+        StripWriter(File file, int width, int height) throws IOException {
+            this.width = width;
+            if (RawImageFile.isRaw(file)) {
+                this.raw = RawImageFile.create(file, width, height);
+                this.writer = null;
+                this.out = null;
+                this.incremental = true;
+                this.whole = null;
+                return;
+            }
+            this.raw = null;
+
+            String name = file.getName();
+            String suffix = name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersBySuffix(suffix);
+            if (!writers.hasNext()) {
+                throw new IOException("No writer for ." + suffix);
+            }
+            this.writer = writers.next();
+
+            file.delete();
+            this.out = ImageIO.createImageOutputStream(file);
+            if (out == null) {
+                throw new IOException("Cannot create " + file);
+            }
+            writer.setOutput(out);
+
+            this.incremental = writer.canWriteEmpty();
+            if (incremental) {
+                ImageTypeSpecifier type = ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR);
+                writer.prepareWriteEmpty(null, type, width, height, null, null, writer.getDefaultWriteParam());
+                this.whole = null;
+            } else {
+                this.whole = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            }
+        }
+
+        void write(int[] pixels, int y0, int rows) throws IOException {
+            if (raw != null) {
+                raw.writeRows(y0, rows, pixels, 0);
+                return;
+            }
+            if (!incremental) {
+                whole.getRaster().setDataElements(0, y0, stripImage(pixels, rows).getRaster());
+                return;
+            }
+            writer.prepareReplacePixels(0, new Rectangle(0, y0, width, rows));
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setDestinationOffset(new Point(0, y0));
+            writer.replacePixels(stripImage(pixels, rows), param);
+            writer.endReplacePixels();
+        }
+
+        void finish() throws IOException {
+            if (raw != null) {
+                // Pages reach the file as the OS writes them back; nothing to encode
+                return;
+            }
+            if (incremental) {
+                writer.endWriteEmpty();
+            } else {
+                writer.write(whole);
+            }
+        }
+
+        private BufferedImage stripImage(int[] pixels, int rows) {
+            BufferedImage strip = new BufferedImage(width, rows, BufferedImage.TYPE_3BYTE_BGR);
+            RasterConvolution.writePixels(strip, pixels);
+            return strip;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (raw != null) {
+                raw.close();
+                return;
+            }
+            writer.dispose();
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: java StreamingProcessor <input> <output.tif|.raw> <filter>"
+                    + " [--intensity N] [--memory MB] [--edge wrap|clamp|mirror|zero] [--threads N]");
+            System.exit(1);
+        }
+        FilterCatalog.Filter filter = FilterCatalog.get(args[2]);
+        if (filter == null) {
+            System.err.println("Unknown filter: " + args[2]);
+            System.exit(1);
+        }
+
+        int intensity = 1;
+        long memoryMb = 64;
+        BorderMode edge = BorderMode.WRAP;
+        int threads = 0;
+        for (int i = 3; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--intensity" -> intensity = Integer.parseInt(args[i + 1]);
+                case "--memory" -> memoryMb = Long.parseLong(args[i + 1]);
+                case "--edge" -> edge = BorderMode.valueOf(args[i + 1].toUpperCase(Locale.ROOT));
+                case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(1);
+                }
+            }
+        }
+
+        // Strip height from the image width and the memory budget
+        int width;
+        try (RowSource source = openSource(new File(args[0]))) {
+            width = source.getWidth();
+        }
+        float[][] kernel = filter.getKernel();
+        int strip = stripHeightFor(width, kernel.length, memoryMb << 20);
+
+        StreamingProcessor processor = new StreamingProcessor(strip, edge, threads);
+        FilterTiming timing = processor.process(new File(args[0]), new File(args[1]), kernel,
+                filter.getMultiplier(intensity));
+        System.out.println("Strips of " + strip + " rows: read=" + timing.getDecodeNanos() / 1_000_000
+                + " ms, convolve=" + timing.getConvolveNanos() / 1_000_000
+                + " ms, write=" + timing.getEncodeNanos() / 1_000_000 + " ms");
+    }
+}
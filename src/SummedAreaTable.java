@@ -0,0 +1,234 @@
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Box (mean) filtering through summed-area tables. Each colour channel gets
+ * a table whose entry (X, Y) is the sum of every pixel above and to the
+ * left of it, so the sum over any rectangle takes four lookups and a box
+ * of any radius costs the same per pixel.
+ *
+ * The tables cover the image plus a margin read through the border mode,
+ * so boxes up to the margin in radius need no edge checks. They are built
+ * by a prefix sum along every row and then down every column; rows (then
+ * columns) are independent, so both passes are split into strips that run
+ * on the same TileScheduler / ForkJoinPool machinery as the convolution
+ * paths. One table answers any number of radii up to its margin, so
+ * multi-scale work builds it once for the largest.
+ *
+ * Entries are ints that wrap around: the difference of four of them is
+ * still exact as long as the true box sum fits in 32 unsigned bits, which
+ * MAX_RADIUS guarantees.
+ */
+public class SummedAreaTable {
+
+    // 255 * (2 * 2047 + 1)^2 is just below 2^32
+    public static final int MAX_RADIUS = 2047;
+
+    // 3x3 boxes stay on the spatial paths: about as fast, without 12 bytes of tables per pixel
+    private static final int MIN_KERNEL_SIZE = 5;
+
+    // Rows or columns per task while building
+    private static final int BUILD_STRIP = 64;
+
+    private final int width, height, margin;
+
+    // Table row length: the image and both margins plus the leading zero column
+    private final int stride;
+
+    // One table per channel, red, green, blue
+    private final int[][] tables;
+
+    /**
+     * Builds the tables for an image and a margin.
+     *
+     * @param src    Packed RGB pixels.
+     * @param width  Image width.
+     * @param height Image height.
+     * @param margin Largest box radius the tables will be asked for.
+     * @param border How pixels in the margin are read; CROP_VALID reads as CLAMP.
+     * @param pool   Pool to spread the prefix sums over, or null to run on the calling thread.
+     */
+    public SummedAreaTable(int[] src, int width, int height, int margin, BorderMode border, ForkJoinPool pool) {
+        if (margin < 0 || margin > MAX_RADIUS) {
+            throw new IllegalArgumentException("Margin must be between 0 and " + MAX_RADIUS + ": " + margin);
+        }
+        this.width = width;
+        this.height = height;
+        this.margin = margin;
+        int tableWidth = width + 2 * margin;
+        int tableHeight = height + 2 * margin;
+        this.stride = tableWidth + 1;
+        this.tables = new int[3][stride * (tableHeight + 1)];
+
+        // Source column behind every table column (-1 reads as black under ZERO)
+        int[] sourceColumn = new int[tableWidth];
+        for (int x = 0; x < tableWidth; x++) {
+            sourceColumn[x] = border.index(x - margin, width);
+        }
+
+        // Pass 1: running sums along each row, a strip of rows per task
+        run(new TileScheduler(tableWidth, tableHeight, tableWidth, BUILD_STRIP), (x0, y0, x1, y1) -> {
+            int[] red = tables[0], green = tables[1], blue = tables[2];
+            for (int y = y0; y < y1; y++) {
+                int row = border.index(y - margin, height);
+                int r = 0, g = 0, b = 0;
+                int out = (y + 1) * stride + 1;
+                for (int x = 0; x < tableWidth; x++) {
+                    int rgb = row < 0 || sourceColumn[x] < 0 ? 0 : src[row * width + sourceColumn[x]];
+                    r += (rgb >> 16) & 0xFF;
+                    g += (rgb >> 8) & 0xFF;
+                    b += rgb & 0xFF;
+                    red[out + x] = r;
+                    green[out + x] = g;
+                    blue[out + x] = b;
+                }
+            }
+        }, pool);
+
+        // Pass 2: add each row into the next, top to bottom, a band of columns per task
+        run(new TileScheduler(tableWidth, tableHeight, BUILD_STRIP, tableHeight), (x0, y0, x1, y1) -> {
+            for (int[] table : tables) {
+                for (int y = 2; y <= tableHeight; y++) {
+                    int row = y * stride + 1, above = row - stride;
+                    for (int x = x0; x < x1; x++) {
+                        table[row + x] += table[above + x];
+                    }
+                }
+            }
+        }, pool);
+    }
+
+    private static void run(TileScheduler tiles, TileOperation op, ForkJoinPool pool) {
+        if (pool == null) {
+            tiles.runSequential(op);
+        } else {
+            pool.invoke(tiles.createTask(op, pool.getParallelism()));
+        }
+    }
+
+    public int getMargin() {
+        return margin;
+    }
+
+    /**
+     * Returns one channel's sum over the rectangle [x0, x1) x [y0, y1), which
+     * may reach up to the margin beyond the image.
+     *
+     * @param channel 0 for red, 1 for green, 2 for blue.
+     * @param x0      First column (inclusive).
+     * @param y0      First row (inclusive).
+     * @param x1      Last column (exclusive).
+     * @param y1      Last row (exclusive).
+     * @return The sum of the channel values.
+     */
+    public long sum(int channel, int x0, int y0, int x1, int y1) {
+        if (x0 < -margin || y0 < -margin || x1 > width + margin || y1 > height + margin || x0 > x1 || y0 > y1) {
+            throw new IllegalArgumentException("Rectangle outside the tables: [" + x0 + ", " + x1 + ") x ["
+                    + y0 + ", " + y1 + ")");
+        }
+        int[] table = tables[channel];
+        int top = (y0 + margin) * stride + margin, bottom = (y1 + margin) * stride + margin;
+        return Integer.toUnsignedLong(table[bottom + x1] - table[bottom + x0] - table[top + x1] + table[top + x0]);
+    }
+
+    /**
+     * Writes the mean of every (2r+1) x (2r+1) box into dst.
+     *
+     * @param radius Box radius, at most the margin.
+     * @param dst    Packed RGB output pixels (image size).
+     * @param pool   Pool to spread the tiles over, or null to run on the calling thread.
+     */
+    public void mean(int radius, int[] dst, ForkJoinPool pool) {
+        int span = 2 * radius + 1;
+        box(radius, 1f / ((float) span * span), dst, pool, null);
+    }
+
+    /**
+     * Writes the sum of every (2r+1) x (2r+1) box times a scale into dst,
+     * truncated and clamped to 0..255 like the convolution paths.
+     *
+     * @param radius   Box radius, at most the margin.
+     * @param scale    Factor every box sum is multiplied by.
+     * @param dst      Packed RGB output pixels (image size).
+     * @param pool     Pool to spread the tiles over, or null to run on the calling thread.
+     * @param progress Handle every finished tile is reported to, or null.
+     */
+    public void box(int radius, float scale, int[] dst, ForkJoinPool pool, FilterProgress progress) {
+        if (radius < 0 || radius > margin) {
+            throw new IllegalArgumentException("Radius must be between 0 and the margin " + margin + ": " + radius);
+        }
+        int[] red = tables[0], green = tables[1], blue = tables[2];
+        int span = 2 * radius + 1;
+        // Table offset of each box's top-left corner relative to its pixel
+        int corner = (margin - radius) * stride + (margin - radius);
+        int below = span * stride;
+
+        run(new TileScheduler(width, height, span), FilterProgress.track(progress, (x0, y0, x1, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int a = y * stride + x + corner, b = a + span, c = a + below, d = c + span;
+                    int r = channel(red[d] - red[c] - red[b] + red[a], scale);
+                    int g = channel(green[d] - green[c] - green[b] + green[a], scale);
+                    int bl = channel(blue[d] - blue[c] - blue[b] + blue[a], scale);
+                    dst[y * width + x] = (r << 16) | (g << 8) | bl;
+                }
+            }
+        }), pool);
+    }
+
+    // An unsigned box sum scaled, truncated and clamped
+    private static int channel(int sum, float scale) {
+        return Math.min(Math.max((int) (Integer.toUnsignedLong(sum) * scale), 0), 255);
+    }
+
+    /**
+     * Returns true if every entry of the kernel is the same non-zero weight.
+     *
+     * @param kernel The convolution kernel matrix (square).
+     */
+    public static boolean isBox(float[][] kernel) {
+        float weight = kernel[0][0];
+        if (weight == 0 || kernel.length % 2 == 0) {
+            return false;
+        }
+        for (float[] row : kernel) {
+            for (float tap : row) {
+                if (tap != weight) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decides whether a kernel is a box big enough for the tables to beat
+     * the separable path.
+     *
+     * @param kernel The convolution kernel matrix (square).
+     */
+    public static boolean isPreferred(float[][] kernel) {
+        return kernel.length >= MIN_KERNEL_SIZE && kernel.length / 2 <= MAX_RADIUS && isBox(kernel);
+    }
+
+    /**
+     * Convolves the whole image with a box kernel: builds the tables with a
+     * margin of the kernel's radius, then answers every pixel from them.
+     * CROP_VALID is computed as CLAMP and cropped by the caller.
+     *
+     * @param src        Packed RGB input pixels.
+     * @param dst        Packed RGB output pixels (same size as src).
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param kernel     A box kernel (see {@link #isBox(float[][])}).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @param border     How pixels beyond the image border are read.
+     * @param pool       Pool to spread the work over, or null to run on the calling thread.
+     * @param progress   Progress and cancellation handle, or null.
+     */
+    public static void convolve(int[] src, int[] dst, int width, int height, float[][] kernel, float multiplier,
+                                BorderMode border, ForkJoinPool pool, FilterProgress progress) {
+        int radius = kernel.length / 2;
+        new SummedAreaTable(src, width, height, radius, border, pool)
+                .box(radius, kernel[0][0] * multiplier, dst, pool, progress);
+    }
+}
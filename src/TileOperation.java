@@ -0,0 +1,17 @@
+/**
+ * A unit of work over a rectangular region of an image.
+ * Used by the tile scheduler to hand out tiles to worker threads.
+ */
+@FunctionalInterface
+public interface TileOperation {
+
+    /**
+     * Processes the pixels in the half-open rectangle [x0, x1) x [y0, y1).
+     *
+     * @param x0 First column (inclusive).
+     * @param y0 First row (inclusive).
+     * @param x1 Last column (exclusive).
+     * @param y1 Last row (exclusive).
+     */
+    void apply(int x0, int y0, int x1, int y1);
+}
@@ -0,0 +1,181 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into 2D tiles sized to stay resident in the L2 cache and
+ * walks them in row-major order, either on the calling thread or as a
+ * ForkJoin task tree.
+ */
+public class TileScheduler {
+
+    // Cache budget (bytes) one tile's source window plus output may occupy.
+    // Half of a typical 256 KB L2, so the neighbouring tile's rows still fit.
+    private static final int CACHE_BUDGET = 128 * 1024;
+
+    // Tile width in pixels: long enough for the hardware prefetcher to help on every row
+    private static final int TILE_WIDTH = 256;
+
+    // Bounds for the computed tile height
+    private static final int MIN_TILE_HEIGHT = 16;
+    private static final int MAX_TILE_HEIGHT = 256;
+
+    // Leaves per worker thread, so idle workers have something to steal
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final int width, height;
+    private final int tileWidth, tileHeight;
+
+    /**
+     * Creates a tiling for an image of the given size and kernel.
+     *
+     * @param width     Image width.
+     * @param height    Image height.
+     * @param kernelLen Kernel size; larger kernels read a wider halo and get shorter tiles.
+     */
+    public TileScheduler(int width, int height, int kernelLen) {
+        this.width = width;
+        this.height = height;
+        this.tileWidth = Math.min(width, TILE_WIDTH);
+
+        // Working set per tile: (tileW + K - 1) * (tileH + K - 1) source ints plus tileW * tileH output ints
+        int haloWidth = tileWidth + kernelLen - 1;
+        int rows = (CACHE_BUDGET / 4 - haloWidth * (kernelLen - 1)) / (haloWidth + tileWidth);
+        this.tileHeight = Math.min(height, Math.max(MIN_TILE_HEIGHT, Math.min(MAX_TILE_HEIGHT, rows)));
+    }
+
+    /**
+     * Creates a tiling with an explicit tile size, for paths whose natural
+     * unit of work is fixed (such as FFT blocks).
+     *
+     * @param width      Image width.
+     * @param height     Image height.
+     * @param tileWidth  Tile width in pixels.
+     * @param tileHeight Tile height in pixels.
+     */
+    public TileScheduler(int width, int height, int tileWidth, int tileHeight) {
+        this.width = width;
+        this.height = height;
+        this.tileWidth = Math.max(1, Math.min(width, tileWidth));
+        this.tileHeight = Math.max(1, Math.min(height, tileHeight));
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Adaptive split threshold: the largest area (in pixels) a ForkJoin leaf may
+     * cover. Small images stay in one leaf, large ones are cut so every worker
+     * gets several leaves, but a leaf is never smaller than one tile.
+     *
+     * @param parallelism Number of worker threads.
+     * @return Leaf area in pixels.
+     */
+    public long splitThreshold(int parallelism) {
+        return splitThreshold(parallelism, TASKS_PER_THREAD);
+    }
+
+    /**
+     * Split threshold for an explicit number of leaves per worker thread.
+     *
+     * @param parallelism    Number of worker threads.
+     * @param tasksPerThread Leaves to aim for per thread (at least 1).
+     * @return Leaf area in pixels.
+     */
+    public long splitThreshold(int parallelism, int tasksPerThread) {
+        long area = (long) width * height;
+        return Math.max((long) tileWidth * tileHeight, area / ((long) parallelism * tasksPerThread));
+    }
+
+    /**
+     * Runs the operation over every tile on the calling thread, row-major.
+     *
+     * @param op The operation to apply to each tile.
+     */
+    public void runSequential(TileOperation op) {
+        long start = System.nanoTime();
+        runTiles(op, 0, 0, width, height);
+        PipelineMetrics.global().addBusy(System.nanoTime() - start);
+    }
+
+    /**
+     * Creates the root ForkJoin task covering the whole image.
+     *
+     * @param op          The operation to apply to each tile.
+     * @param parallelism Number of worker threads the task will run on.
+     * @return A task to be invoked on a ForkJoinPool.
+     */
+    public RecursiveAction createTask(TileOperation op, int parallelism) {
+        return createTask(op, parallelism, TASKS_PER_THREAD);
+    }
+
+    /**
+     * Creates the root ForkJoin task with an explicit number of leaves per thread.
+     *
+     * @param op             The operation to apply to each tile.
+     * @param parallelism    Number of worker threads the task will run on.
+     * @param tasksPerThread Leaves to aim for per thread (at least 1).
+     * @return A task to be invoked on a ForkJoinPool.
+     */
+    public RecursiveAction createTask(TileOperation op, int parallelism, int tasksPerThread) {
+        return new TileTask(op, splitThreshold(parallelism, tasksPerThread), 0, 0, width, height);
+    }
+
+    /**
+     * Returns the number of leaves per thread the scheduler aims for by default.
+     */
+    public static int getDefaultTasksPerThread() {
+        return TASKS_PER_THREAD;
+    }
+
+    // Visits the tiles inside [x0, x1) x [y0, y1), one row of tiles at a time
+    private void runTiles(TileOperation op, int x0, int y0, int x1, int y1) {
+        for (int ty = y0; ty < y1; ty += tileHeight) {
+            int tyEnd = Math.min(ty + tileHeight, y1);
+            for (int tx = x0; tx < x1; tx += tileWidth) {
+                op.apply(tx, ty, Math.min(tx + tileWidth, x1), tyEnd);
+            }
+        }
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final TileOperation op;
+        private final long threshold;
+        private final int x0, y0, x1, y1;
+
+        TileTask(TileOperation op, long threshold, int x0, int y0, int x1, int y1) {
+            this.op = op;
+            this.threshold = threshold;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            int tilesAcross = (x1 - x0 + tileWidth - 1) / tileWidth;
+            int tilesDown = (y1 - y0 + tileHeight - 1) / tileHeight;
+            long area = (long) (x1 - x0) * (y1 - y0);
+
+            if (area <= threshold || (tilesAcross == 1 && tilesDown == 1)) {
+                // Busy time is counted per leaf, so forking and stealing are not included
+                long start = System.nanoTime();
+                runTiles(op, x0, y0, x1, y1);
+                PipelineMetrics.global().addBusy(System.nanoTime() - start);
+            } else if (tilesDown >= tilesAcross) {
+                // Cut between rows of tiles so both halves keep full-length rows
+                int mid = y0 + (tilesDown / 2) * tileHeight;
+                invokeAll(new TileTask(op, threshold, x0, y0, x1, mid),
+                          new TileTask(op, threshold, x0, mid, x1, y1));
+            } else {
+                int mid = x0 + (tilesAcross / 2) * tileWidth;
+                invokeAll(new TileTask(op, threshold, x0, y0, mid, y1),
+                          new TileTask(op, threshold, mid, y0, x1, y1));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Optional SIMD backend. When the JVM runs with
+ * --add-modules jdk.incubator.vector and the classes from src-vector are on
+ * the classpath, convolution can use VectorConvolution; otherwise every
+ * method here reports it as unavailable and callers keep the scalar path.
+ * The lookup is reflective so this tree compiles without the module.
+ *
+ * Set -Dfilter.vector=false to turn the backend off even when it is present.
+ */
+public class VectorBackend {
+
+    private static final MethodHandle CREATE;
+    private static final String SPECIES;
+    private static final int LANES;
+
+    static {
+        MethodHandle create = null;
+        String species = null;
+        int lanes = 0;
+        if (!"false".equals(System.getProperty("filter.vector"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                Class<?> impl = Class.forName("VectorConvolution");
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                create = lookup.findStatic(impl, "create", MethodType.methodType(WindowConvolution.class,
+                        float[][].class, float.class));
+                species = (String) lookup.findStatic(impl, "species", MethodType.methodType(String.class)).invoke();
+                lanes = (int) lookup.findStatic(impl, "lanes", MethodType.methodType(int.class)).invoke();
+            } catch (Throwable e) {
+                // Classes not compiled in or module not resolvable: stay on the scalar path
+                create = null;
+                species = null;
+                lanes = 0;
+            }
+        }
+        CREATE = create;
+        SPECIES = species;
+        LANES = lanes;
+    }
+
+    /**
+     * Returns true if the SIMD backend can be used in this JVM.
+     */
+    public static boolean isAvailable() {
+        return CREATE != null;
+    }
+
+    /**
+     * Returns the vector species in use, or null if the backend is unavailable.
+     */
+    public static String getSpecies() {
+        return SPECIES;
+    }
+
+    /**
+     * Decides whether the SIMD loop should run this kernel. It beats the
+     * scalar direct and fixed-point loops at every size, but on separable
+     * kernels its K * K / lanes work per pixel overtakes the scalar two-pass
+     * loop's 2K at about K = 2 * lanes (measured: K = 31 with 16 lanes).
+     *
+     * @param kernel    The convolution kernel matrix (square).
+     * @param separable Whether the kernel is rank-1.
+     * @return True if the backend is available and expected to be fastest.
+     */
+    public static boolean isPreferred(float[][] kernel, boolean separable) {
+        return CREATE != null && !(separable && kernel.length > 2 * LANES);
+    }
+
+    /**
+     * Creates the SIMD inner loop for a kernel, or returns null if the backend is unavailable.
+     *
+     * @param kernel     The convolution kernel matrix (square).
+     * @param multiplier The factor to multiply the kernel result by.
+     * @return The loop, to be run through RasterConvolution.withBorder, or null.
+     */
+    public static WindowConvolution createLoop(float[][] kernel, float multiplier) {
+        if (CREATE == null) {
+            return null;
+        }
+        try {
+            return (WindowConvolution) CREATE.invoke(kernel, multiplier);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException("Vector backend failed", e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+/**
+ * The inner loop of a convolution path, run over a block whose every tap
+ * lies inside the source array. It needs no modulo or bounds logic at all;
+ * pixels near the image border reach it through a padded copy built by
+ * RasterConvolution.withBorder.
+ */
+@FunctionalInterface
+public interface WindowConvolution {
+
+    /**
+     * Convolves a cols x rows block. Output pixel (c, r) is written to
+     * dst[dstOffset + r * dstStride + c] and computed from the source pixels
+     * src[srcOffset + (r + j) * srcStride + c + i] for the kernel taps (i, j),
+     * so srcOffset addresses the pixel half a kernel above and left of the
+     * first output pixel.
+     *
+     * @param src       Packed RGB source pixels.
+     * @param srcOffset Index of the top-left pixel the block's first tap reads.
+     * @param srcStride Distance between source rows.
+     * @param dst       Packed RGB destination pixels.
+     * @param dstOffset Index of the first output pixel.
+     * @param dstStride Distance between destination rows.
+     * @param cols      Block width.
+     * @param rows      Block height.
+     */
+    void convolve(int[] src, int srcOffset, int srcStride, int[] dst, int dstOffset, int dstStride,
+                  int cols, int rows);
+}